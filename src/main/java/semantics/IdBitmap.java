@@ -0,0 +1,140 @@
+package semantics;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compressed set of node or relationship ids used to keep track of the elements already processed
+ * (serialised, visited...). Ids are split in their high bits, that select a container, and their
+ * low 16 bits, that are stored in the container. Containers start as a sorted array of shorts and
+ * switch to a 65536 bit bitmap once they hold more than 4096 values (the point where the bitmap
+ * takes less space), as in roaring bitmaps. Ids assigned by Neo4j are dense so a graph with millions
+ * of nodes needs a few containers only, and costs a fraction of a HashSet of boxed longs.
+ */
+public class IdBitmap {
+
+  private static final int ARRAY_CONTAINER_MAX = 4096;
+  private static final int BITMAP_WORDS = 1 << 10;
+
+  private final Map<Long, Container> containers = new HashMap<>();
+  private long lastKey = -1;
+  private Container lastContainer;
+  private long size;
+
+  /**
+   * Adds an id to the set.
+   *
+   * @return true if the id was not in the set already
+   */
+  public boolean add(long id) {
+    long key = id >>> 16;
+    Container container = container(key);
+    if (container == null) {
+      container = new ArrayContainer();
+      containers.put(key, container);
+      lastKey = key;
+      lastContainer = container;
+    }
+    Container result = container.add((int) (id & 0xFFFF));
+    if (result == null) {
+      return false;
+    }
+    if (result != container) {
+      containers.put(key, result);
+      lastContainer = result;
+    }
+    size++;
+    return true;
+  }
+
+  public boolean contains(long id) {
+    Container container = container(id >>> 16);
+    return container != null && container.contains((int) (id & 0xFFFF));
+  }
+
+  public long size() {
+    return size;
+  }
+
+  private Container container(long key) {
+    // consecutive ids usually share a container, so the last one used is checked first
+    if (key != lastKey) {
+      Container container = containers.get(key);
+      if (container == null) {
+        return null;
+      }
+      lastKey = key;
+      lastContainer = container;
+    }
+    return lastContainer;
+  }
+
+  private interface Container {
+
+    /**
+     * @return null when the value was present, otherwise the container holding the value, which
+     * is a new one when the container had to be converted.
+     */
+    Container add(int value);
+
+    boolean contains(int value);
+  }
+
+  private static class ArrayContainer implements Container {
+
+    private short[] values = new short[4];
+    private int cardinality;
+
+    @Override
+    public Container add(int value) {
+      int pos = Arrays.binarySearch(values, 0, cardinality, (short) (value - 32768));
+      if (pos >= 0) {
+        return null;
+      }
+      if (cardinality == ARRAY_CONTAINER_MAX) {
+        BitmapContainer bitmap = new BitmapContainer();
+        for (int i = 0; i < cardinality; i++) {
+          bitmap.add(values[i] + 32768);
+        }
+        bitmap.add(value);
+        return bitmap;
+      }
+      int insertAt = -pos - 1;
+      if (cardinality == values.length) {
+        values = Arrays.copyOf(values, Math.min(cardinality * 2, ARRAY_CONTAINER_MAX));
+      }
+      System.arraycopy(values, insertAt, values, insertAt + 1, cardinality - insertAt);
+      // values are shifted so that the signed short order matches the order of the low bits
+      values[insertAt] = (short) (value - 32768);
+      cardinality++;
+      return this;
+    }
+
+    @Override
+    public boolean contains(int value) {
+      return Arrays.binarySearch(values, 0, cardinality, (short) (value - 32768)) >= 0;
+    }
+  }
+
+  private static class BitmapContainer implements Container {
+
+    private final long[] words = new long[BITMAP_WORDS];
+
+    @Override
+    public Container add(int value) {
+      long mask = 1L << value;
+      int word = value >>> 6;
+      if ((words[word] & mask) != 0) {
+        return null;
+      }
+      words[word] |= mask;
+      return this;
+    }
+
+    @Override
+    public boolean contains(int value) {
+      return (words[value >>> 6] & (1L << value)) != 0;
+    }
+  }
+}
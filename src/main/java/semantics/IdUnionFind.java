@@ -0,0 +1,120 @@
+package semantics;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Disjoint sets of node ids. The parent of each id is kept in an open addressing hash table of
+ * primitive longs (linear probing, at most half full) so that memory grows with the number of ids
+ * in sets, 32 to 64 bytes each, and not with the range of ids, without boxed keys. Sets
+ * are merged under their lowest id, which makes the root of a set independent of the order of the
+ * unions, and paths are halved on every find.
+ */
+public class IdUnionFind {
+
+  private static final long FREE = -1;
+
+  private long[] ids;
+  private long[] parents;
+  private int mask;
+  private int size;
+
+  public IdUnionFind() {
+    allocate(16);
+  }
+
+  /**
+   * Merges the sets of two ids, adding them first if they're not in any.
+   */
+  public void union(long a, long b) {
+    long rootA = find(add(a));
+    long rootB = find(add(b));
+    if (rootA < rootB) {
+      parents[slot(rootB)] = rootA;
+    } else if (rootB < rootA) {
+      parents[slot(rootA)] = rootB;
+    }
+  }
+
+  /**
+   * @return the root of the set of the id, or the id itself if it's not in any set
+   */
+  public long find(long id) {
+    int slot = slot(id);
+    if (ids[slot] == FREE) {
+      return id;
+    }
+    long current = id;
+    long parent = parents[slot];
+    while (parent != current) {
+      long grandparent = parents[slot(parent)];
+      parents[slot] = grandparent;
+      current = grandparent;
+      slot = slot(current);
+      parent = parents[slot];
+    }
+    return current;
+  }
+
+  /**
+   * @return the number of ids in sets
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Calls the consumer with every id in a set, in no particular order.
+   */
+  public void forEach(LongConsumer consumer) {
+    for (long id : ids) {
+      if (id != FREE) {
+        consumer.accept(id);
+      }
+    }
+  }
+
+  private long add(long id) {
+    int slot = slot(id);
+    if (ids[slot] == FREE) {
+      ids[slot] = id;
+      parents[slot] = id;
+      if (++size * 2 > ids.length) {
+        rehash(ids.length * 2);
+      }
+    }
+    return id;
+  }
+
+  /**
+   * @return the slot of the id or the free slot where it would go
+   */
+  private int slot(long id) {
+    // Fibonacci hashing spreads the dense ids Neo4j assigns
+    int slot = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    while (ids[slot] != FREE && ids[slot] != id) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void allocate(int capacity) {
+    ids = new long[capacity];
+    parents = new long[capacity];
+    Arrays.fill(ids, FREE);
+    mask = capacity - 1;
+  }
+
+  private void rehash(int capacity) {
+    long[] oldIds = ids;
+    long[] oldParents = parents;
+    allocate(capacity);
+    for (int i = 0; i < oldIds.length; i++) {
+      if (oldIds[i] != FREE) {
+        int slot = slot(oldIds[i]);
+        ids[slot] = oldIds[i];
+        parents[slot] = oldParents[i];
+      }
+    }
+  }
+}
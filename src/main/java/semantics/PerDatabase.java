@@ -0,0 +1,84 @@
+package semantics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import org.neo4j.graphdb.DependencyResolver.SelectionStrategy;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.event.ErrorState;
+import org.neo4j.graphdb.event.KernelEventHandler;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.kernel.impl.factory.GraphDatabaseFacade;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+
+/**
+ * State kept for each database that is updated by a transaction event handler: the state is the
+ * handler. It is created on first use and registered as a transaction event handler on the
+ * database, and dropped when the database shuts down.
+ *
+ * <p>States are kept by the facade of the database, the one procedures and extensions share, as
+ * procedures get a facade of their own, which can't register event handlers.</p>
+ */
+public class PerDatabase<T extends TransactionEventHandler<?>> {
+
+  private final Map<GraphDatabaseService, T> states = new ConcurrentHashMap<>();
+
+  /**
+   * @return the facade of the database, on which event handlers can be registered
+   */
+  public static GraphDatabaseService facade(GraphDatabaseService gds) {
+    if (gds instanceof GraphDatabaseAPI) {
+      return ((GraphDatabaseAPI) gds).getDependencyResolver()
+          .resolveDependency(GraphDatabaseFacade.class, SelectionStrategy.ONLY);
+    }
+    return gds;
+  }
+
+  /**
+   * Returns the state of the database, creating and registering it with the factory, which gets
+   * the facade of the database, if it doesn't exist.
+   */
+  public T get(GraphDatabaseService gds, Function<GraphDatabaseService, T> factory) {
+    return states.computeIfAbsent(facade(gds), db -> {
+      T state = factory.apply(db);
+      db.registerTransactionEventHandler((TransactionEventHandler<?>) state);
+      db.registerKernelEventHandler(new Shutdown(db));
+      return state;
+    });
+  }
+
+  /**
+   * @return the state of the database or null if it hasn't been created
+   */
+  public T getIfPresent(GraphDatabaseService gds) {
+    return states.get(facade(gds));
+  }
+
+  private class Shutdown implements KernelEventHandler {
+
+    private final GraphDatabaseService gds;
+
+    Shutdown(GraphDatabaseService gds) {
+      this.gds = gds;
+    }
+
+    @Override
+    public void beforeShutdown() {
+      states.remove(gds);
+    }
+
+    @Override
+    public void kernelPanic(ErrorState error) {
+    }
+
+    @Override
+    public Object getResource() {
+      return null;
+    }
+
+    @Override
+    public ExecutionOrder orderComparedTo(KernelEventHandler other) {
+      return ExecutionOrder.DOESNT_MATTER;
+    }
+  }
+}
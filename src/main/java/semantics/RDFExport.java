@@ -0,0 +1,81 @@
+package semantics;
+
+import static semantics.mapping.MappingUtils.getExportMappingsFromDB;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.rio.helpers.StatementCollector;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.Context;
+import org.neo4j.procedure.Description;
+import org.neo4j.procedure.Mode;
+import org.neo4j.procedure.Name;
+import org.neo4j.procedure.Procedure;
+import semantics.extension.LPGToRDFProcessor;
+import semantics.extension.NodeScanIterator;
+import semantics.result.ExportedStatement;
+
+/**
+ * Procedures to export a property graph as RDF in bulk. The serialisation is the same one
+ * produced by the /rdf/export http endpoint.
+ */
+public class RDFExport {
+
+  @Context
+  public GraphDatabaseService db;
+  @Context
+  public Log log;
+
+  @Procedure(mode = Mode.READ)
+  @Description("Streams as RDF triples the nodes with any of the labels passed as parameter (all "
+      + "nodes when the list is empty) and their outgoing relationships. Nodes are exported in id "
+      + "order. Use the nodeId of the last triple returned as cursor param to get the next page.")
+  public Stream<ExportedStatement> exportRDF(@Name("labels") List<String> labels,
+      @Name(value = "params", defaultValue = "{}") Map<String, Object> props) {
+
+    final long cursor = (props.containsKey("cursor") ? ((Number) props.get("cursor")).longValue() : -1);
+    final long limit = (props.containsKey("limit") ? ((Number) props.get("limit")).longValue()
+        : Long.MAX_VALUE);
+    final boolean excludeContext = (props.containsKey("excludeContext") ? (boolean) props
+        .get("excludeContext") : false);
+    final boolean onlyMapped = (props.containsKey("mappedElemsOnly") ? (boolean) props
+        .get("mappedElemsOnly") : false);
+
+    LPGToRDFProcessor processor = new LPGToRDFProcessor(getExportMappingsFromDB(db), onlyMapped);
+    NodeScanIterator nodes = new NodeScanIterator(db, labels, cursor);
+
+    return StreamSupport
+        .stream(Spliterators.spliteratorUnknownSize(nodes, Spliterator.ORDERED), false)
+        .onClose(nodes::close)
+        .limit(limit)
+        .flatMap(node -> {
+          StatementCollector collector = new StatementCollector();
+          processor.processNode(node, collector);
+          if (!excludeContext) {
+            processor
+                .processRelationships(node.getRelationships(Direction.OUTGOING), collector);
+          }
+          return collector.getStatements().stream().map(st -> toResult(node, st));
+        });
+  }
+
+  private ExportedStatement toResult(Node node, Statement st) {
+    Value object = st.getObject();
+    return new ExportedStatement(node.getId(), st.getSubject().stringValue(),
+        st.getPredicate().stringValue(), object.stringValue(),
+        (object instanceof Literal),
+        ((object instanceof Literal) ? ((Literal) object).getDatatype().stringValue() : null),
+        (object instanceof Literal ? ((Literal) object).getLanguage().orElse(null) : null));
+  }
+
+}
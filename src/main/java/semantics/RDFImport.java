@@ -279,6 +279,56 @@ public class RDFImport {
     return Stream.of(deleteResults);
   }
 
+  @Procedure(mode = Mode.WRITE)
+  @Description("Replaces a previously imported version of an RDF dataset (previousUrl) with a new "
+      + "one (url). Only the triples that differ between both versions are deleted or added. "
+      + "Config must match the one used on import.")
+  public Stream<ReplaceResults> replaceRDF(@Name("previousUrl") String previousUrl,
+      @Name("url") String url, @Name("format") String format,
+      @Name(value = "params", defaultValue = "{}") Map<String, Object> props) {
+
+    RDFParserConfig conf = new RDFParserConfig(props);
+
+    ReplaceResults replaceResults = new ReplaceResults();
+
+    StatementDiffer statementDiffer = new StatementDiffer(conf);
+    DirectStatementDeleter statementDeleter = new DirectStatementDeleter(db, conf, log);
+    DirectStatementLoader statementLoader = new DirectStatementLoader(db, conf, log);
+    try {
+      checkIndexesExist();
+      RDFParser rdfParser = Rio.createParser(getFormat(format));
+      rdfParser.set(BasicParserSettings.VERIFY_URI_SYNTAX, conf.isVerifyUriSyntax());
+      rdfParser.setRDFHandler(statementDiffer);
+      rdfParser.parse(getInputStream(previousUrl, props), previousUrl);
+      statementDiffer.endBaseline();
+      rdfParser.parse(getInputStream(url, props), url);
+      statementDiffer.endDiff();
+
+      // deletions go first so that updated single valued properties are not removed after
+      // being set to their new value
+      StatementDiffer.replay(statementDiffer.getRemoved(), statementDeleter);
+      StatementDiffer.replay(statementDiffer.getAdded(), statementLoader);
+    } catch (IOException | RDFHandlerException | QueryExecutionException | RDFParseException | RDFImportPreRequisitesNotMet e) {
+      replaceResults.setTerminationKO(e.getMessage());
+      e.printStackTrace();
+    } finally {
+      replaceResults.setTriplesDeleted(
+          statementDeleter.totalTriplesMapped - statementDeleter.getNotDeletedStatementCount());
+      replaceResults.setTriplesAdded(statementLoader.totalTriplesMapped);
+      replaceResults.setTriplesUnchanged(statementDiffer.getUnchangedCount());
+      if (statementDiffer.getRemovedOnBNodesCount() + statementDiffer.getAddedOnBNodesCount()
+          > 0 && replaceResults.terminationStatus.equals("OK")) {
+        replaceResults.setExtraInfo(statementDiffer.getRemovedOnBNodesCount()
+            + " removed and " + statementDiffer.getAddedOnBNodesCount()
+            + " added statements containing a blank node were not applied, "
+            + "blank nodes can't be matched to the ones imported before.");
+      }
+      replaceResults.setNamespaces(statementLoader.getNamespaces());
+      replaceResults.setConfigSummary(conf.getConfigSummary());
+    }
+    return Stream.of(replaceResults);
+  }
+
   @UserFunction
   @Description("Returns the XMLSchema or custom datatype of a property when present")
   public String getDataType(@Name("literal") Object literal) {
@@ -534,6 +584,47 @@ public class RDFImport {
 
   }
 
+  public static class ReplaceResults {
+
+    public String terminationStatus = "OK";
+    public long triplesAdded = 0;
+    public long triplesDeleted = 0;
+    public long triplesUnchanged = 0;
+    public Map<String, String> namespaces;
+    public String extraInfo = "";
+    public Map<String, Object> configSummary;
+
+    public void setTriplesAdded(long triplesAdded) {
+      this.triplesAdded = triplesAdded;
+    }
+
+    public void setTriplesDeleted(long triplesDeleted) {
+      this.triplesDeleted = triplesDeleted;
+    }
+
+    public void setTriplesUnchanged(long triplesUnchanged) {
+      this.triplesUnchanged = triplesUnchanged;
+    }
+
+    public void setExtraInfo(String extraInfo) {
+      this.extraInfo = extraInfo;
+    }
+
+    public void setNamespaces(Map<String, String> namespaces) {
+      this.namespaces = namespaces;
+    }
+
+    public void setConfigSummary(Map<String, Object> summary) {
+      this.configSummary = summary;
+    }
+
+    public void setTerminationKO(String message) {
+      this.terminationStatus = "KO";
+      this.extraInfo = message;
+    }
+
+  }
+
   private class RDFImportPreRequisitesNotMet extends Exception {
 
     String message;
@@ -8,10 +8,10 @@ import java.util.stream.Collectors;
 
 public class RDFParserConfig {
 
-  static final int URL_SHORTEN = 0;
-  static final int URL_IGNORE = 1;
-  static final int URL_MAP = 2;
-  static final int URL_KEEP = 3;
+  public static final int URL_SHORTEN = 0;
+  public static final int URL_IGNORE = 1;
+  public static final int URL_MAP = 2;
+  public static final int URL_KEEP = 3;
   static final int PROP_OVERWRITE = 0;
   static final int PROP_ARRAY = 1;
   static final int PROP_REIFY = 2;
@@ -0,0 +1,187 @@
+package semantics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import org.eclipse.rdf4j.model.BNode;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.rio.RDFHandler;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
+import org.eclipse.rdf4j.rio.ntriples.NTriplesUtil;
+
+/**
+ * RDF handler that computes the difference between two versions of the same dataset. The previous
+ * version is parsed first (baseline), then the new version. Statements present in both are
+ * discarded, leaving only the statements to be removed and the ones to be added, which can then be
+ * replayed on a {@link DirectStatementDeleter} and a {@link DirectStatementLoader}.
+ *
+ * <p>Blank nodes have no identity across versions (nor in the graph), so statements on blank
+ * nodes are compared apart, through a canonical form where each blank node is replaced by the
+ * sorted statements it has with IRIs and literals. They are never replayed: the ones that changed
+ * are only counted, for the caller to report. Blank nodes that only differ in their statements
+ * with other blank nodes have the same canonical form.</p>
+ */
+class StatementDiffer extends ConfiguredStatementHandler {
+
+  private final RDFParserConfig parserConfig;
+  private final Set<Statement> removed = new HashSet<>();
+  private final Set<Statement> added = new LinkedHashSet<>();
+  // statements of the new version found in the baseline, so that repeating them is no change
+  private final Set<Statement> kept = new HashSet<>();
+  private final Set<Statement> baselineOnBNodes = new LinkedHashSet<>();
+  private final Set<Statement> onBNodes = new LinkedHashSet<>();
+  private long removedOnBNodes = 0;
+  private long addedOnBNodes = 0;
+  private boolean readingBaseline = true;
+  private long unchanged = 0;
+
+  StatementDiffer(RDFParserConfig conf) {
+    this.parserConfig = conf;
+  }
+
+  /**
+   * Statements parsed after this call are diffed against the ones parsed before (the baseline)
+   */
+  void endBaseline() {
+    readingBaseline = false;
+  }
+
+  /**
+   * Compares the statements on blank nodes of both versions, once both have been parsed.
+   */
+  void endDiff() {
+    Map<String, Integer> baseline = new HashMap<>();
+    for (String st : canonical(baselineOnBNodes)) {
+      baseline.merge(st, 1, Integer::sum);
+    }
+    for (String st : canonical(onBNodes)) {
+      Integer count = baseline.get(st);
+      if (count == null) {
+        addedOnBNodes++;
+      } else {
+        unchanged++;
+        if (count == 1) {
+          baseline.remove(st);
+        } else {
+          baseline.put(st, count - 1);
+        }
+      }
+    }
+    for (int count : baseline.values()) {
+      removedOnBNodes += count;
+    }
+    baselineOnBNodes.clear();
+    onBNodes.clear();
+  }
+
+  /**
+   * @return the statements with each blank node replaced by its canonical form
+   */
+  private static List<String> canonical(Collection<Statement> statements) {
+    Map<BNode, Set<String>> descriptions = new HashMap<>();
+    for (Statement st : statements) {
+      if (st.getSubject() instanceof BNode) {
+        descriptions.computeIfAbsent((BNode) st.getSubject(), b -> new TreeSet<>())
+            .add(st.getPredicate() + " " + term(st.getObject()));
+      }
+      if (st.getObject() instanceof BNode) {
+        descriptions.computeIfAbsent((BNode) st.getObject(), b -> new TreeSet<>())
+            .add("^" + st.getPredicate() + " " + term(st.getSubject()));
+      }
+    }
+    List<String> result = new ArrayList<>(statements.size());
+    for (Statement st : statements) {
+      result.add(canonical(st.getSubject(), descriptions) + " " + st.getPredicate() + " "
+          + canonical(st.getObject(), descriptions));
+    }
+    return result;
+  }
+
+  private static String canonical(Value value, Map<BNode, Set<String>> descriptions) {
+    return (value instanceof BNode ? descriptions.get(value).toString() : term(value));
+  }
+
+  private static String term(Value value) {
+    return (value instanceof BNode ? "_:" : NTriplesUtil.toNTriplesString(value));
+  }
+
+  @Override
+  public void startRDF() throws RDFHandlerException {
+
+  }
+
+  @Override
+  public void endRDF() throws RDFHandlerException {
+
+  }
+
+  @Override
+  public void handleNamespace(String prefix, String uri) throws RDFHandlerException {
+
+  }
+
+  @Override
+  public void handleStatement(Statement st) throws RDFHandlerException {
+    if (st.getSubject() instanceof BNode || st.getObject() instanceof BNode) {
+      (readingBaseline ? baselineOnBNodes : onBNodes).add(st);
+    } else if (readingBaseline) {
+      removed.add(st);
+    } else if (removed.remove(st)) {
+      kept.add(st);
+      unchanged++;
+    } else if (!kept.contains(st)) {
+      added.add(st);
+    }
+  }
+
+  @Override
+  public void handleComment(String comment) throws RDFHandlerException {
+
+  }
+
+  Collection<Statement> getRemoved() {
+    return removed;
+  }
+
+  Collection<Statement> getAdded() {
+    return added;
+  }
+
+  long getUnchangedCount() {
+    return unchanged;
+  }
+
+  /**
+   * @return the statements on blank nodes in the previous version only, which are not deleted
+   */
+  long getRemovedOnBNodesCount() {
+    return removedOnBNodes;
+  }
+
+  /**
+   * @return the statements on blank nodes in the new version only, which are not added
+   */
+  long getAddedOnBNodesCount() {
+    return addedOnBNodes;
+  }
+
+  static void replay(Collection<Statement> statements, RDFHandler handler) {
+    handler.startRDF();
+    for (Statement st : statements) {
+      handler.handleStatement(st);
+    }
+    handler.endRDF();
+  }
+
+  @Override
+  RDFParserConfig getParserConfig() {
+    return parserConfig;
+  }
+}
@@ -0,0 +1,275 @@
+package semantics.extension;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.ws.rs.core.EntityTag;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.event.LabelEntry;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.kernel.configuration.Config;
+import semantics.PerDatabase;
+
+/**
+ * Serialised results of the describe methods, kept for the most recently requested resources. The
+ * cache is disabled unless semantics.describe_cache.max_entries is set in neo4j.conf. Entries are
+ * evicted least recently used first and expire after semantics.describe_cache.ttl_seconds
+ * (default 300).
+ *
+ * <p>A transaction event handler removes the entries of every node whose labels, properties or
+ * relationships are changed by a transaction. When the uri of a node changes, the entries of its
+ * neighbours are removed too, as the uri appears in their descriptions. Entries created with
+ * namespace or mapping definitions that have changed since are not returned.</p>
+ */
+class DescribeCache {
+
+  static final String MAX_ENTRIES_SETTING = "semantics.describe_cache.max_entries";
+  static final String TTL_SETTING = "semantics.describe_cache.ttl_seconds";
+  static final long DEFAULT_TTL_SECONDS = 300;
+
+  private static final PerDatabase<Invalidator> caches = new PerDatabase<>();
+
+  private final int maxEntries;
+  private final long ttlMillis;
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final Map<Long, Set<String>> keysByNode = new HashMap<>();
+  private final AtomicLong generation = new AtomicLong();
+
+  private DescribeCache(int maxEntries, long ttlMillis) {
+    this.maxEntries = maxEntries;
+    this.ttlMillis = ttlMillis;
+  }
+
+  /**
+   * @return the cache for the database or null if it is not enabled in the configuration
+   */
+  static DescribeCache get(GraphDatabaseService gds, Config config) {
+    if (config == null) {
+      return null;
+    }
+    int maxEntries = config.getRaw(MAX_ENTRIES_SETTING).map(Integer::parseInt).orElse(0);
+    if (maxEntries <= 0) {
+      return null;
+    }
+    return caches.get(gds, g -> new DescribeCache(maxEntries,
+        config.getRaw(TTL_SETTING).map(Long::parseLong).orElse(DEFAULT_TTL_SECONDS) * 1000)
+        .new Invalidator()).cache();
+  }
+
+  static String key(String kind, Object resource, String format, boolean excludeContext,
+      boolean onlyMapped) {
+    return kind + '\n' + format + '\n' + excludeContext + '\n' + onlyMapped + '\n' + resource;
+  }
+
+  /**
+   * Increases every time entries are invalidated. Read it before serialising a description and
+   * pass it to {@link #put}, so that a description produced while a transaction changed the
+   * resource is not cached.
+   */
+  long generation() {
+    return generation.get();
+  }
+
+  /**
+   * @return the cached entry or null if there is none, it has expired or it was created with
+   * namespace and mapping definitions other than lookupsVersion
+   */
+  synchronized Entry get(String key, long lookupsVersion) {
+    Entry entry = entries.get(key);
+    if (entry != null && (entry.lookupsVersion != lookupsVersion
+        || System.currentTimeMillis() - entry.created > ttlMillis)) {
+      remove(key);
+      entry = null;
+    }
+    return entry;
+  }
+
+  /**
+   * Caches the description of a node unless entries have been invalidated since generation was
+   * read.
+   *
+   * @return the entry for the content, cached or not
+   */
+  synchronized Entry put(String key, long nodeId, byte[] content, long lookupsVersion,
+      long generation) {
+    Entry entry = new Entry(nodeId, content, lookupsVersion);
+    if (generation != this.generation.get()) {
+      return entry;
+    }
+    remove(key);
+    entries.put(key, entry);
+    keysByNode.computeIfAbsent(nodeId, id -> new HashSet<>()).add(key);
+    Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+    while (entries.size() > maxEntries) {
+      Map.Entry<String, Entry> evicted = eldest.next();
+      eldest.remove();
+      removeFromNodeIndex(evicted.getKey(), evicted.getValue().nodeId);
+    }
+    return entry;
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  private synchronized void invalidate(Set<Long> nodeIds) {
+    generation.incrementAndGet();
+    for (Long nodeId : nodeIds) {
+      Set<String> keys = keysByNode.remove(nodeId);
+      if (keys != null) {
+        for (String key : keys) {
+          entries.remove(key);
+        }
+      }
+    }
+  }
+
+  private void remove(String key) {
+    Entry removed = entries.remove(key);
+    if (removed != null) {
+      removeFromNodeIndex(key, removed.nodeId);
+    }
+  }
+
+  private void removeFromNodeIndex(String key, long nodeId) {
+    Set<String> keys = keysByNode.get(nodeId);
+    if (keys != null) {
+      keys.remove(key);
+      if (keys.isEmpty()) {
+        keysByNode.remove(nodeId);
+      }
+    }
+  }
+
+  static class Entry {
+
+    private final long nodeId;
+    private final byte[] content;
+    private final long lookupsVersion;
+    private final long created = System.currentTimeMillis();
+    private final EntityTag entityTag;
+
+    private Entry(long nodeId, byte[] content, long lookupsVersion) {
+      this.nodeId = nodeId;
+      this.content = content;
+      this.lookupsVersion = lookupsVersion;
+      // weak, the compressed and uncompressed responses are equivalent representations
+      this.entityTag = new EntityTag(digest(content), true);
+    }
+
+    byte[] getContent() {
+      return content;
+    }
+
+    EntityTag getEntityTag() {
+      return entityTag;
+    }
+
+    /**
+     * @param ifNoneMatch value of the If-None-Match request header, can be null
+     * @return true if the header lists the entity tag of the entry (weak comparison) or is *
+     */
+    boolean matches(String ifNoneMatch) {
+      if (ifNoneMatch == null) {
+        return false;
+      }
+      for (String tag : ifNoneMatch.split(",")) {
+        tag = tag.trim();
+        if (tag.equals("*")) {
+          return true;
+        }
+        if (tag.startsWith("W/")) {
+          tag = tag.substring(2);
+        }
+        if (tag.equals('"' + entityTag.getValue() + '"')) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private static String digest(byte[] content) {
+      try {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("MD5").digest(content)) {
+          hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+      } catch (NoSuchAlgorithmException e) {
+        // every Java platform is required to support MD5
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+
+  private class Invalidator extends TransactionEventHandler.Adapter<Set<Long>> {
+
+    private DescribeCache cache() {
+      return DescribeCache.this;
+    }
+
+    @Override
+    public Set<Long> beforeCommit(TransactionData data) {
+      // collected before the commit, while the relationships of the modified nodes can be read
+      Set<Long> nodeIds = new HashSet<>();
+      for (Node node : data.deletedNodes()) {
+        nodeIds.add(node.getId());
+      }
+      for (LabelEntry entry : data.assignedLabels()) {
+        nodeIds.add(entry.node().getId());
+      }
+      for (LabelEntry entry : data.removedLabels()) {
+        nodeIds.add(entry.node().getId());
+      }
+      addNodes(data, data.assignedNodeProperties(), nodeIds);
+      addNodes(data, data.removedNodeProperties(), nodeIds);
+      for (Relationship rel : data.createdRelationships()) {
+        nodeIds.add(rel.getStartNodeId());
+        nodeIds.add(rel.getEndNodeId());
+      }
+      for (Relationship rel : data.deletedRelationships()) {
+        nodeIds.add(rel.getStartNodeId());
+        nodeIds.add(rel.getEndNodeId());
+      }
+      for (PropertyEntry<Relationship> entry : data.assignedRelationshipProperties()) {
+        nodeIds.add(entry.entity().getStartNodeId());
+        nodeIds.add(entry.entity().getEndNodeId());
+      }
+      for (PropertyEntry<Relationship> entry : data.removedRelationshipProperties()) {
+        nodeIds.add(entry.entity().getStartNodeId());
+        nodeIds.add(entry.entity().getEndNodeId());
+      }
+      return nodeIds.isEmpty() ? null : nodeIds;
+    }
+
+    private void addNodes(TransactionData data, Iterable<PropertyEntry<Node>> entries,
+        Set<Long> nodeIds) {
+      for (PropertyEntry<Node> entry : entries) {
+        Node node = entry.entity();
+        nodeIds.add(node.getId());
+        if (entry.key().equals("uri") && !data.isDeleted(node)) {
+          for (Relationship rel : node.getRelationships()) {
+            nodeIds.add(rel.getOtherNodeId(node.getId()));
+          }
+        }
+      }
+    }
+
+    @Override
+    public void afterCommit(TransactionData data, Set<Long> nodeIds) {
+      if (nodeIds != null) {
+        invalidate(nodeIds);
+      }
+    }
+  }
+}
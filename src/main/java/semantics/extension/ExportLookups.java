@@ -0,0 +1,236 @@
+package semantics.extension;
+
+import static semantics.RDFImport.PREFIX_SEPARATOR;
+import static semantics.mapping.MappingUtils.getExportMappingsFromDB;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.event.LabelEntry;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import semantics.IdBitmap;
+import semantics.PerDatabase;
+
+/**
+ * Namespace and mapping definitions needed to serialise the graph as RDF, loaded once and shared
+ * by all requests on the same database. A transaction event handler registered with the first
+ * lookup increments the version of the definitions whenever a transaction changes a
+ * NamespacePrefixDefinition, _MapNs or _MapDef node, and the next lookup reloads them.
+ */
+public class ExportLookups {
+
+  private static final Set<String> WATCHED_LABELS = new HashSet<>(
+      Arrays.asList("NamespacePrefixDefinition", "_MapNs", "_MapDef"));
+  private static final PerDatabase<Holder> holders = new PerDatabase<>();
+  private static final Pattern shortenedURIPattern = Pattern
+      .compile("^(\\w+)" + PREFIX_SEPARATOR + "(.*)$");
+
+  private final long version;
+  private final Map<String, String> namespaces;
+  private final Map<String, String> prefixes;
+  private final Map<String, String> exportMappings;
+  private final Map<String, String> mappingNamespaces;
+  private final Map<String, IRI> vocabularyIRIs = new ConcurrentHashMap<>();
+  private final LPGVocabulary lpgVocabulary;
+  private final LPGVocabulary mappedLPGVocabulary;
+
+  private ExportLookups(long version, GraphDatabaseService gds) {
+    this.version = version;
+    Map<String, String> namespaces = new HashMap<>();
+    Map<String, String> prefixes = new HashMap<>();
+    gds.execute("MATCH (n:NamespacePrefixDefinition) \n" +
+        "UNWIND keys(n) AS namespace\n" +
+        "RETURN namespace, n[namespace] AS prefix").forEachRemaining(row -> {
+      namespaces.put((String) row.get("namespace"), (String) row.get("prefix"));
+      prefixes.put((String) row.get("prefix"), (String) row.get("namespace"));
+    });
+    Map<String, String> mappingNamespaces = new HashMap<>();
+    gds.execute(
+        "MATCH (mns:_MapNs) WHERE exists(mns._prefix) RETURN mns._ns AS ns, mns._prefix AS prefix")
+        .forEachRemaining(
+            row -> mappingNamespaces.put((String) row.get("prefix"), (String) row.get("ns")));
+    this.namespaces = Collections.unmodifiableMap(namespaces);
+    this.prefixes = Collections.unmodifiableMap(prefixes);
+    this.exportMappings = Collections.unmodifiableMap(getExportMappingsFromDB(gds));
+    this.mappingNamespaces = Collections.unmodifiableMap(mappingNamespaces);
+    this.lpgVocabulary = new LPGVocabulary(exportMappings, false);
+    this.mappedLPGVocabulary = new LPGVocabulary(exportMappings, true);
+  }
+
+  /**
+   * Returns the current definitions for the database, reloading them if they have changed since
+   * they were last loaded.
+   */
+  public static ExportLookups get(GraphDatabaseService gds) {
+    Holder holder = holders.get(gds, Holder::new);
+    ExportLookups current = holder.current;
+    long version = holder.version.get();
+    if (current == null || current.version != version) {
+      current = new ExportLookups(version, holder.gds);
+      holder.current = current;
+    }
+    return current;
+  }
+
+  /**
+   * Increases every time the definitions change. Can be used to check the validity of anything
+   * derived from them.
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * @return namespace to prefix map as defined in the NamespacePrefixDefinition node
+   */
+  public Map<String, String> getNamespaces() {
+    return namespaces;
+  }
+
+  /**
+   * @return the namespace for a prefix defined in the NamespacePrefixDefinition node or null if
+   * the prefix is not defined
+   */
+  public String getNamespace(String prefix) {
+    return prefixes.get(prefix);
+  }
+
+  /**
+   * @return the namespace for a prefix defined in the NamespacePrefixDefinition node
+   * @throws RDFEndpoint.MissingNamespacePrefixDefinition if the prefix is not defined
+   */
+  String resolvePrefix(String prefix) {
+    String namespace = prefixes.get(prefix);
+    if (namespace == null) {
+      throw new RDFEndpoint.MissingNamespacePrefixDefinition("Prefix ".concat(prefix)
+          .concat(" in use but not defined in the 'NamespacePrefixDefinition' node"));
+    }
+    return namespace;
+  }
+
+  /**
+   * Returns the IRI of a label, property key or relationship type in a graph created by importing
+   * RDF: either a shortened uri (prefix__localName), a full uri or a name in the {@link
+   * RDFEndpoint#BASE_VOCAB_NS} namespace. IRIs are built once per name and version of the
+   * definitions.
+   */
+  public IRI getVocabularyIRI(String name) {
+    IRI iri = vocabularyIRIs.get(name);
+    if (iri == null) {
+      iri = SimpleValueFactory.getInstance().createIRI(buildURI(name));
+      vocabularyIRIs.put(name, iri);
+    }
+    return iri;
+  }
+
+  private String buildURI(String name) {
+    Matcher matcher = shortenedURIPattern.matcher(name);
+    if (matcher.matches()) {
+      return resolvePrefix(matcher.group(1)) + matcher.group(2);
+    } else if (name.startsWith("http")) {
+      //make this test better
+      return name;
+    } else {
+      return RDFEndpoint.BASE_VOCAB_NS + name;
+    }
+  }
+
+  /**
+   * @return element name to full uri map as defined with semantics.mapping
+   */
+  public Map<String, String> getExportMappings() {
+    return exportMappings;
+  }
+
+  /**
+   * @return the IRIs of the labels, property keys and relationship types of a property graph
+   * under the current mappings, resolved once for all requests
+   */
+  LPGVocabulary getLPGVocabulary(boolean onlyMappedInfo) {
+    return onlyMappedInfo ? mappedLPGVocabulary : lpgVocabulary;
+  }
+
+  /**
+   * @return prefix to namespace map of the mapping schemas (_MapNs) with a prefix
+   */
+  public Map<String, String> getMappingNamespaces() {
+    return mappingNamespaces;
+  }
+
+  private static class Holder extends TransactionEventHandler.Adapter<Boolean> {
+
+    private final GraphDatabaseService gds;
+    private final AtomicLong version = new AtomicLong();
+    private volatile ExportLookups current;
+
+    Holder(GraphDatabaseService gds) {
+      this.gds = gds;
+    }
+
+    @Override
+    public Boolean beforeCommit(TransactionData data) {
+      // runs before the commit, while the labels of the modified nodes can still be read
+      for (LabelEntry entry : data.assignedLabels()) {
+        if (WATCHED_LABELS.contains(entry.label().name())) {
+          return true;
+        }
+      }
+      for (LabelEntry entry : data.removedLabels()) {
+        if (WATCHED_LABELS.contains(entry.label().name())) {
+          return true;
+        }
+      }
+      for (Relationship rel : data.createdRelationships()) {
+        if (rel.getType().name().equals("_IN")) {
+          return true;
+        }
+      }
+      for (Relationship rel : data.deletedRelationships()) {
+        if (rel.getType().name().equals("_IN")) {
+          return true;
+        }
+      }
+      IdBitmap checkedNodes = new IdBitmap();
+      return changesWatchedNode(data, data.assignedNodeProperties(), checkedNodes)
+          || changesWatchedNode(data, data.removedNodeProperties(), checkedNodes);
+    }
+
+    private boolean changesWatchedNode(TransactionData data,
+        Iterable<PropertyEntry<Node>> entries, IdBitmap checkedNodes) {
+      for (PropertyEntry<Node> entry : entries) {
+        Node node = entry.entity();
+        // labels of deleted nodes are listed in removedLabels
+        if (checkedNodes.add(node.getId()) && !data.isDeleted(node)) {
+          for (Label label : node.getLabels()) {
+            if (WATCHED_LABELS.contains(label.name())) {
+              return true;
+            }
+          }
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public void afterCommit(TransactionData data, Boolean changed) {
+      if (Boolean.TRUE.equals(changed)) {
+        version.incrementAndGet();
+      }
+    }
+  }
+}
@@ -0,0 +1,24 @@
+package semantics.extension;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+/**
+ * Destination of the nodes and relationships of a plain property graph exported as RDF. Either
+ * an rdf4j writer fed by {@link LPGToRDFProcessor} or, for N-Triples, a {@link NTriplesLPGWriter}
+ * writing the triples directly to the output.
+ */
+interface LPGSerialiser {
+
+  void node(Node node);
+
+  void relationship(Relationship rel);
+
+  default void relationships(Iterable<Relationship> relationships) {
+    relationships.forEach(this::relationship);
+  }
+
+  void comment(String comment);
+
+  void end();
+}
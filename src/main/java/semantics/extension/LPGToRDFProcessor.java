@@ -0,0 +1,87 @@
+package semantics.extension;
+
+import java.util.Map;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.rio.RDFHandler;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+/**
+ * Serialises nodes and relationships of a plain property graph (not the result of an RDF import)
+ * as RDF statements. Nodes are identified by their internal id in the {@link
+ * RDFEndpoint#BASE_INDIV_NS} namespace and labels, property keys and relationship types are
+ * either mapped (see semantics.mapping) or placed in the {@link RDFEndpoint#BASE_VOCAB_NS}
+ * namespace.
+ */
+public class LPGToRDFProcessor {
+
+  private final SimpleValueFactory valueFactory = SimpleValueFactory.getInstance();
+  private final LiteralDecoder literals = new LiteralDecoder(valueFactory);
+  private final LPGVocabulary vocabulary;
+
+  public LPGToRDFProcessor(Map<String, String> mappings, boolean onlyMappedInfo) {
+    this(new LPGVocabulary(mappings, onlyMappedInfo));
+  }
+
+  LPGToRDFProcessor(LPGVocabulary vocabulary) {
+    this.vocabulary = vocabulary;
+  }
+
+  public void processNode(Node node, RDFHandler handler) {
+    Iterable<Label> nodeLabels = node.getLabels();
+    IRI subject = valueFactory.createIRI(RDFEndpoint.BASE_INDIV_NS, String.valueOf(node.getId()));
+    for (Label label : nodeLabels) {
+      IRI type = vocabulary.get(label.name());
+      if (type != null) {
+        handler.handleStatement(
+            valueFactory.createStatement(subject,
+                RDF.TYPE,
+                type));
+      }
+    }
+    Map<String, Object> allProperties = node.getAllProperties();
+    for (String key : allProperties.keySet()) {
+      IRI predicate = vocabulary.get(key);
+      if (predicate != null) {
+        Object propertyValueObject = allProperties.get(key);
+        if (propertyValueObject instanceof Object[]) {
+          for (Object o : (Object[]) propertyValueObject) {
+            handler.handleStatement(valueFactory.createStatement(subject, predicate,
+                literals.createTypedLiteral(o)));
+          }
+        } else {
+          handler.handleStatement(valueFactory.createStatement(subject, predicate,
+              literals.createTypedLiteral(propertyValueObject)));
+        }
+      }
+
+    }
+  }
+
+  public void processRelationship(Relationship rel, RDFHandler handler) {
+    IRI predicate = vocabulary.get(rel.getType().name());
+    if (predicate != null) {
+      handler.handleStatement(valueFactory.createStatement(
+          valueFactory
+              .createIRI(RDFEndpoint.BASE_INDIV_NS, String.valueOf(rel.getStartNode().getId())),
+          predicate,
+          valueFactory
+              .createIRI(RDFEndpoint.BASE_INDIV_NS, String.valueOf(rel.getEndNode().getId()))));
+    }
+  }
+
+  public void processRelationships(Iterable<Relationship> relationships, RDFHandler handler) {
+    relationships.forEach(rel -> processRelationship(rel, handler));
+  }
+
+  /**
+   * @return the IRI of a label, property key or relationship type or null if elements with that
+   * name are not exported
+   */
+  IRI exportedIRI(String name) {
+    return vocabulary.get(name);
+  }
+}
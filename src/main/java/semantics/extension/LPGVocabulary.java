@@ -0,0 +1,48 @@
+package semantics.extension;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+
+/**
+ * IRIs of the labels, property keys and relationship types of a plain property graph, either
+ * mapped (see semantics.mapping) or in the {@link RDFEndpoint#BASE_VOCAB_NS} namespace. Each name
+ * is resolved once, together with whether it is exported at all when only mapped elements are
+ * exported, and the result is shared by every export using the same mappings.
+ */
+class LPGVocabulary {
+
+  // marks the names that are not exported, as the map can't hold nulls
+  private static final IRI NOT_EXPORTED = SimpleValueFactory.getInstance()
+      .createIRI(RDFEndpoint.BASE_VOCAB_NS);
+
+  private final Map<String, String> mappings;
+  private final boolean onlyMappedInfo;
+  private final Map<String, IRI> iris = new ConcurrentHashMap<>();
+
+  LPGVocabulary(Map<String, String> mappings, boolean onlyMappedInfo) {
+    this.mappings = mappings;
+    this.onlyMappedInfo = onlyMappedInfo;
+  }
+
+  /**
+   * @return the IRI of a label, property key or relationship type or null if elements with that
+   * name are not exported
+   */
+  IRI get(String name) {
+    IRI iri = iris.get(name);
+    if (iri == null) {
+      String mapped = mappings.get(name);
+      if (mapped != null) {
+        iri = SimpleValueFactory.getInstance().createIRI(mapped);
+      } else if (onlyMappedInfo) {
+        iri = NOT_EXPORTED;
+      } else {
+        iri = SimpleValueFactory.getInstance().createIRI(RDFEndpoint.BASE_VOCAB_NS + name);
+      }
+      iris.put(name, iri);
+    }
+    return iri == NOT_EXPORTED ? null : iri;
+  }
+}
@@ -0,0 +1,140 @@
+package semantics.extension;
+
+import static semantics.RDFImport.CUSTOM_DATA_TYPE_SEPERATOR;
+import static semantics.RDFImport.PREFIX_SEPARATOR;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
+
+/**
+ * Creates typed literals from property values. String values can carry the language tag
+ * (value@en) or the datatype (value^^datatypeUri) of the literal they were imported from. They are
+ * found by scanning the value back from the end once, which is cheaper than matching regular
+ * expressions on every value. When the decoder is created with the namespace definitions of an
+ * imported graph, datatypes shortened as prefix__localName are expanded. The IRI of each datatype
+ * is created once per decoder.
+ */
+public class LiteralDecoder {
+
+  private final ValueFactory valueFactory;
+  private final ExportLookups namespaces;
+  private final Map<String, IRI> datatypes = new ConcurrentHashMap<>();
+
+  public LiteralDecoder(ValueFactory valueFactory) {
+    this(valueFactory, null);
+  }
+
+  public LiteralDecoder(ValueFactory valueFactory, ExportLookups namespaces) {
+    this.valueFactory = valueFactory;
+    this.namespaces = namespaces;
+  }
+
+  public Literal createTypedLiteral(Object value) {
+    Literal result = null;
+    if (value instanceof String) {
+      result = decode((String) value);
+    } else if (value instanceof Integer) {
+      result = valueFactory.createLiteral((Integer) value);
+    } else if (value instanceof Long) {
+      result = valueFactory.createLiteral((Long) value);
+    } else if (value instanceof Float) {
+      result = valueFactory.createLiteral((Float) value);
+    } else if (value instanceof Double) {
+      result = valueFactory.createLiteral((Double) value);
+    } else if (value instanceof Boolean) {
+      result = valueFactory.createLiteral((Boolean) value);
+    } else if (value instanceof LocalDateTime) {
+      result = valueFactory
+          .createLiteral(((LocalDateTime) value).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME),
+              XMLSchema.DATETIME);
+    } else if (value instanceof LocalDate) {
+      result = valueFactory
+          .createLiteral(((LocalDate) value).format(DateTimeFormatter.ISO_LOCAL_DATE),
+              XMLSchema.DATE);
+    } else {
+      // default to string
+      result = valueFactory.createLiteral("" + value);
+    }
+
+    return result;
+  }
+
+  private Literal decode(String value) {
+    int at = langTagSeparator(value);
+    if (at >= 0) {
+      return valueFactory.createLiteral(value.substring(0, at), value.substring(at + 1));
+    }
+    int separator = datatypeSeparator(value);
+    if (separator >= 0) {
+      return valueFactory.createLiteral(value.substring(0, separator),
+          datatype(value.substring(separator + CUSTOM_DATA_TYPE_SEPERATOR.length())));
+    }
+    return valueFactory.createLiteral(value);
+  }
+
+  /**
+   * @return the position of the @ before the language tag at the end of the value or -1 if
+   * there is no language tag
+   */
+  static int langTagSeparator(String value) {
+    int at = value.lastIndexOf('@');
+    if (at < 0 || at == value.length() - 1) {
+      return -1;
+    }
+    for (int i = at + 1; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (!((c >= 'a' && c <= 'z') || c == ',' || c == '-')) {
+        return -1;
+      }
+    }
+    return at;
+  }
+
+  /**
+   * @return the position of the separator before the datatype at the end of the value or -1 if
+   * there is no datatype. Values with a language tag are not checked for a datatype.
+   */
+  static int datatypeSeparator(String value) {
+    int separator = value.lastIndexOf(CUSTOM_DATA_TYPE_SEPERATOR);
+    if (separator < 0 || separator + CUSTOM_DATA_TYPE_SEPERATOR.length() == value.length()) {
+      return -1;
+    }
+    return separator;
+  }
+
+  private IRI datatype(String datatype) {
+    IRI iri = datatypes.get(datatype);
+    if (iri == null) {
+      iri = valueFactory.createIRI(namespaces != null ? expandShortenedURI(datatype) : datatype);
+      datatypes.put(datatype, iri);
+    }
+    return iri;
+  }
+
+  private String expandShortenedURI(String uri) {
+    // shortened uris start with a run of word characters, the prefix ends at the last separator
+    // in that run leaving a non empty local name
+    int wordEnd = 0;
+    while (wordEnd < uri.length() && isWordChar(uri.charAt(wordEnd))) {
+      wordEnd++;
+    }
+    int separator = uri.lastIndexOf(PREFIX_SEPARATOR,
+        Math.min(wordEnd, uri.length() - 1) - PREFIX_SEPARATOR.length());
+    if (separator > 0) {
+      return namespaces.resolvePrefix(uri.substring(0, separator)) + uri
+          .substring(separator + PREFIX_SEPARATOR.length());
+    }
+    return uri;
+  }
+
+  private static boolean isWordChar(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+  }
+}
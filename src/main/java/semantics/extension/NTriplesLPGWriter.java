@@ -0,0 +1,273 @@
+package semantics.extension;
+
+import static semantics.RDFImport.CUSTOM_DATA_TYPE_SEPERATOR;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
+import org.eclipse.rdf4j.rio.ntriples.NTriplesUtil;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+/**
+ * Writes nodes and relationships of a plain property graph as N-Triples straight to the output,
+ * producing the same triples as {@link LPGToRDFProcessor} with an rdf4j N-Triples writer but
+ * without creating IRI, Literal and Statement objects for each triple. Predicates, types and
+ * datatypes are escaped once and node ids and literal values are written as they are read. Not
+ * thread safe, use one instance per output.
+ */
+class NTriplesLPGWriter implements LPGSerialiser {
+
+  private static final String RDF_TYPE = ntriples(RDF.TYPE);
+  private static final String XSD_INT = ntriples(XMLSchema.INT);
+  private static final String XSD_LONG = ntriples(XMLSchema.LONG);
+  private static final String XSD_FLOAT = ntriples(XMLSchema.FLOAT);
+  private static final String XSD_DOUBLE = ntriples(XMLSchema.DOUBLE);
+  private static final String XSD_BOOLEAN = ntriples(XMLSchema.BOOLEAN);
+  private static final String XSD_DATETIME = ntriples(XMLSchema.DATETIME);
+  private static final String XSD_DATE = ntriples(XMLSchema.DATE);
+
+  private final LPGToRDFProcessor processor;
+  private final Writer writer;
+  private final Map<String, String> vocabulary = new HashMap<>();
+  private final Map<String, String> datatypes = new HashMap<>();
+
+  NTriplesLPGWriter(LPGToRDFProcessor processor, OutputStream outputStream) {
+    this.processor = processor;
+    this.writer = new BufferedWriter(
+        new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), 64 * 1024);
+  }
+
+  @Override
+  public void node(Node node) {
+    try {
+      String subject = individual(node.getId());
+      for (Label label : node.getLabels()) {
+        String type = vocabulary(label.name());
+        if (type != null) {
+          writeStart(subject, RDF_TYPE);
+          writer.write(type);
+          writeEnd();
+        }
+      }
+      for (Map.Entry<String, Object> property : node.getAllProperties().entrySet()) {
+        String predicate = vocabulary(property.getKey());
+        if (predicate != null) {
+          Object value = property.getValue();
+          if (value instanceof Object[]) {
+            for (Object o : (Object[]) value) {
+              writeStart(subject, predicate);
+              writeLiteral(o);
+              writeEnd();
+            }
+          } else {
+            writeStart(subject, predicate);
+            writeLiteral(value);
+            writeEnd();
+          }
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void relationship(Relationship rel) {
+    try {
+      String predicate = vocabulary(rel.getType().name());
+      if (predicate != null) {
+        writeStart(individual(rel.getStartNode().getId()), predicate);
+        writer.write(individual(rel.getEndNode().getId()));
+        writeEnd();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void comment(String comment) {
+    try {
+      writer.write("# ");
+      writer.write(comment);
+      writer.write('\n');
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void end() {
+    try {
+      writer.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static String ntriples(IRI iri) {
+    // escaped as the rdf4j N-Triples writer does, which is not the same as toNTriplesString
+    StringBuilder sb = new StringBuilder();
+    try {
+      NTriplesUtil.append(iri, sb);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return sb.toString();
+  }
+
+  private static String individual(long id) {
+    return "<" + RDFEndpoint.BASE_INDIV_NS + id + ">";
+  }
+
+  /**
+   * @return the escaped IRI of a label, property key or relationship type or null if it is not
+   * exported
+   */
+  private String vocabulary(String name) {
+    String iri = vocabulary.get(name);
+    if (iri == null && !vocabulary.containsKey(name)) {
+      IRI exported = processor.exportedIRI(name);
+      iri = (exported == null ? null : ntriples(exported));
+      vocabulary.put(name, iri);
+    }
+    return iri;
+  }
+
+  private String datatype(String datatype) {
+    String iri = datatypes.get(datatype);
+    if (iri == null) {
+      iri = ntriples(SimpleValueFactory.getInstance().createIRI(datatype));
+      datatypes.put(datatype, iri);
+    }
+    return iri;
+  }
+
+  private void writeStart(String subject, String predicate) throws IOException {
+    writer.write(subject);
+    writer.write(' ');
+    writer.write(predicate);
+    writer.write(' ');
+  }
+
+  private void writeEnd() throws IOException {
+    writer.write(" .\n");
+  }
+
+  private void writeLiteral(Object value) throws IOException {
+    // same labels and datatypes as LiteralDecoder.createTypedLiteral
+    if (value instanceof String) {
+      writeString((String) value);
+    } else if (value instanceof Integer) {
+      writeTyped(value.toString(), XSD_INT);
+    } else if (value instanceof Long) {
+      writeTyped(value.toString(), XSD_LONG);
+    } else if (value instanceof Float) {
+      writeTyped(floatingPoint(((Float) value).doubleValue(), value), XSD_FLOAT);
+    } else if (value instanceof Double) {
+      writeTyped(floatingPoint((Double) value, value), XSD_DOUBLE);
+    } else if (value instanceof Boolean) {
+      writeTyped(value.toString(), XSD_BOOLEAN);
+    } else if (value instanceof LocalDateTime) {
+      writeTyped(((LocalDateTime) value).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME),
+          XSD_DATETIME);
+    } else if (value instanceof LocalDate) {
+      writeTyped(((LocalDate) value).format(DateTimeFormatter.ISO_LOCAL_DATE), XSD_DATE);
+    } else {
+      writeQuoted("" + value, 0, ("" + value).length());
+    }
+  }
+
+  private void writeString(String value) throws IOException {
+    int at = LiteralDecoder.langTagSeparator(value);
+    if (at >= 0) {
+      writeQuoted(value, 0, at);
+      writer.write('@');
+      writer.write(value, at + 1, value.length() - at - 1);
+      return;
+    }
+    int separator = LiteralDecoder.datatypeSeparator(value);
+    if (separator >= 0) {
+      String datatype = value.substring(separator + CUSTOM_DATA_TYPE_SEPERATOR.length());
+      writeQuoted(value, 0, separator);
+      // xsd:string literals are written as plain literals, as rdf4j does
+      if (!datatype.equals(XMLSchema.STRING.stringValue())) {
+        writer.write("^^");
+        writer.write(datatype(datatype));
+      }
+      return;
+    }
+    writeQuoted(value, 0, value.length());
+  }
+
+  /**
+   * @return the label of a float or double, with infinities written as INF and -INF as in xsd
+   */
+  private static String floatingPoint(double number, Object value) {
+    if (number == Double.POSITIVE_INFINITY) {
+      return "INF";
+    } else if (number == Double.NEGATIVE_INFINITY) {
+      return "-INF";
+    }
+    return value.toString();
+  }
+
+  private void writeTyped(String label, String datatype) throws IOException {
+    writer.write('"');
+    writer.write(label);
+    writer.write("\"^^");
+    writer.write(datatype);
+  }
+
+  private void writeQuoted(String value, int start, int end) throws IOException {
+    writer.write('"');
+    int written = start;
+    for (int i = start; i < end; i++) {
+      String escaped;
+      char c = value.charAt(i);
+      switch (c) {
+        case '\\':
+          escaped = "\\\\";
+          break;
+        case '"':
+          escaped = "\\\"";
+          break;
+        case '\n':
+          escaped = "\\n";
+          break;
+        case '\r':
+          escaped = "\\r";
+          break;
+        case '\t':
+          escaped = "\\t";
+          break;
+        default:
+          // other control characters are escaped by code point, as rdf4j does
+          if (c > 0x1F && c != 0x7F) {
+            continue;
+          }
+          escaped = String.format("\\u%04X", (int) c);
+      }
+      writer.write(value, written, i - written);
+      writer.write(escaped);
+      written = i + 1;
+    }
+    writer.write(value, written, end - written);
+    writer.write('"');
+  }
+}
@@ -0,0 +1,134 @@
+package semantics.extension;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.neo4j.graphdb.DependencyResolver;
+import org.neo4j.graphdb.DependencyResolver.SelectionStrategy;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.helpers.collection.PrefetchingIterator;
+import org.neo4j.internal.kernel.api.Read;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.kernel.impl.store.id.IdGeneratorFactory;
+import org.neo4j.kernel.impl.store.id.IdType;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+
+/**
+ * Iterates over all nodes in the graph, or over the nodes having any of a list of labels, in
+ * ascending id order and starting after a given node id (the cursor). Label scans return nodes in
+ * id order so the scans for each label are merged, which returns nodes carrying more than one of
+ * the labels only once without having to keep track of the nodes already returned.
+ *
+ * <p>The scan of all nodes starts at the id after the cursor and checks each id up to the highest
+ * one in use, as {@link ParallelNTriplesExport} does, so a page costs the same wherever it starts.
+ * Label scans can't seek: they skip the nodes with the label up to the cursor, which costs a read
+ * of the label scan store per 64 ids skipped, so pages get slower towards the end of a large
+ * label.</p>
+ */
+public class NodeScanIterator implements Iterator<Node>, AutoCloseable {
+
+  private final List<Iterator<Node>> sources = new ArrayList<>();
+  private final Node[] heads;
+  private final long cursor;
+  private Node next;
+
+  /**
+   * @param labels labels to scan. All nodes are scanned when null or empty.
+   * @param cursor only nodes with an id greater than this one are returned. Use -1 to start from
+   * the beginning.
+   */
+  public NodeScanIterator(GraphDatabaseService gds, List<String> labels, long cursor) {
+    if (labels == null || labels.isEmpty()) {
+      sources.add(allNodes(gds, cursor + 1));
+    } else {
+      for (String label : labels) {
+        sources.add(gds.findNodes(Label.label(label)));
+      }
+    }
+    this.cursor = cursor;
+    heads = new Node[sources.size()];
+    for (int i = 0; i < heads.length; i++) {
+      heads[i] = advance(sources.get(i));
+    }
+    next = computeNext();
+  }
+
+  private static Iterator<Node> allNodes(GraphDatabaseService gds, long from) {
+    DependencyResolver resolver = ((GraphDatabaseAPI) gds).getDependencyResolver();
+    long highestId = resolver.resolveDependency(IdGeneratorFactory.class, SelectionStrategy.ONLY)
+        .get(IdType.NODE).getHighestPossibleIdInUse();
+    // node existence is checked on the kernel to avoid a NotFoundException per deleted id
+    Read read = resolver
+        .resolveDependency(ThreadToStatementContextBridge.class, SelectionStrategy.ONLY)
+        .getKernelTransactionBoundToThisThread(true).dataRead();
+    return new PrefetchingIterator<Node>() {
+      private long id = Math.max(from, 0);
+
+      @Override
+      protected Node fetchNextOrNull() {
+        while (id <= highestId) {
+          long current = id++;
+          if (read.nodeExists(current)) {
+            return gds.getNodeById(current);
+          }
+        }
+        return null;
+      }
+    };
+  }
+
+  private Node advance(Iterator<Node> source) {
+    while (source.hasNext()) {
+      Node node = source.next();
+      if (node.getId() > cursor) {
+        return node;
+      }
+    }
+    return null;
+  }
+
+  private Node computeNext() {
+    Node min = null;
+    for (Node head : heads) {
+      if (head != null && (min == null || head.getId() < min.getId())) {
+        min = head;
+      }
+    }
+    if (min != null) {
+      for (int i = 0; i < heads.length; i++) {
+        if (heads[i] != null && heads[i].getId() == min.getId()) {
+          heads[i] = advance(sources.get(i));
+        }
+      }
+    }
+    return min;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return next != null;
+  }
+
+  @Override
+  public Node next() {
+    if (next == null) {
+      throw new NoSuchElementException();
+    }
+    Node result = next;
+    next = computeNext();
+    return result;
+  }
+
+  @Override
+  public void close() {
+    for (Iterator<Node> source : sources) {
+      if (source instanceof ResourceIterator) {
+        ((ResourceIterator<Node>) source).close();
+      }
+    }
+  }
+}
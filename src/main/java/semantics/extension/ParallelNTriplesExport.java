@@ -0,0 +1,135 @@
+package semantics.extension;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.neo4j.graphdb.DependencyResolver.SelectionStrategy;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.internal.kernel.api.Read;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.kernel.impl.store.id.IdGeneratorFactory;
+import org.neo4j.kernel.impl.store.id.IdType;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import semantics.Util;
+
+/**
+ * Exports nodes and their outgoing relationships as N-Triples, splitting the node id range in
+ * chunks that are serialised in parallel, each one in its own transaction. N-Triples is line based
+ * so the serialisation of each chunk can be appended as it is to the output, in chunk order.
+ */
+class ParallelNTriplesExport {
+
+  static final int DEFAULT_CHUNK_SIZE = 10000;
+
+  private final GraphDatabaseService gds;
+  private final LPGToRDFProcessor processor;
+  private final Label[] labels;
+  private final boolean excludeContext;
+  private final int chunkSize;
+  private final int maxChunksInFlight = Runtime.getRuntime().availableProcessors() * 2;
+
+  ParallelNTriplesExport(GraphDatabaseService gds, LPGToRDFProcessor processor,
+      List<String> labels, boolean excludeContext, int chunkSize) {
+    this.gds = gds;
+    this.processor = processor;
+    this.labels = Util.labels(labels);
+    this.excludeContext = excludeContext;
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Writes the nodes with an id greater than cursor. When limit is not null the export stops at
+   * the end of the first chunk that reaches limit nodes and a cursor comment is written.
+   */
+  void export(long cursor, Long limit, OutputStream outputStream)
+      throws IOException, InterruptedException, ExecutionException {
+    long highestId = ((GraphDatabaseAPI) gds).getDependencyResolver()
+        .resolveDependency(IdGeneratorFactory.class, SelectionStrategy.ONLY)
+        .get(IdType.NODE).getHighestPossibleIdInUse();
+    Deque<Future<ChunkResult>> inFlight = new ArrayDeque<>();
+    long from = cursor + 1;
+    long exportedNodes = 0;
+    try {
+      while (from <= highestId || !inFlight.isEmpty()) {
+        while (from <= highestId && inFlight.size() < maxChunksInFlight) {
+          final long chunkStart = from;
+          final long chunkEnd = Math.min(from + chunkSize, highestId + 1);
+          inFlight.add(Util.inTxFuture(Util.DEFAULT, gds, () -> exportChunk(chunkStart, chunkEnd)));
+          from = chunkEnd;
+        }
+        ChunkResult chunk = inFlight.poll().get();
+        outputStream.write(chunk.content);
+        outputStream.flush();
+        exportedNodes += chunk.nodeCount;
+        if (limit != null && exportedNodes >= limit) {
+          if (chunk.lastId < highestId) {
+            outputStream
+                .write(("# cursor=" + chunk.lastId + "\n").getBytes(StandardCharsets.UTF_8));
+          }
+          break;
+        }
+      }
+    } finally {
+      // also when a chunk fails or the client goes away, so they don't keep the shared pool busy
+      inFlight.forEach(f -> f.cancel(true));
+    }
+  }
+
+  private ChunkResult exportChunk(long chunkStart, long chunkEnd) {
+    // node existence is checked on the kernel to avoid a NotFoundException per deleted id
+    Read read = ((GraphDatabaseAPI) gds).getDependencyResolver()
+        .resolveDependency(ThreadToStatementContextBridge.class, SelectionStrategy.ONLY)
+        .getKernelTransactionBoundToThisThread(true).dataRead();
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    NTriplesLPGWriter writer = new NTriplesLPGWriter(processor, buffer);
+    long nodeCount = 0;
+    for (long id = chunkStart; id < chunkEnd; id++) {
+      if (read.nodeExists(id)) {
+        Node node = gds.getNodeById(id);
+        if (hasAnyLabel(node)) {
+          writer.node(node);
+          if (!excludeContext) {
+            writer.relationships(node.getRelationships(Direction.OUTGOING));
+          }
+          nodeCount++;
+        }
+      }
+    }
+    writer.end();
+    return new ChunkResult(buffer.toByteArray(), nodeCount, chunkEnd - 1);
+  }
+
+  private boolean hasAnyLabel(Node node) {
+    if (labels.length == 0) {
+      return true;
+    }
+    for (Label label : labels) {
+      if (node.hasLabel(label)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static class ChunkResult {
+
+    final byte[] content;
+    final long nodeCount;
+    final long lastId;
+
+    ChunkResult(byte[] content, long nodeCount, long lastId) {
+      this.content = content;
+      this.nodeCount = nodeCount;
+      this.lastId = lastId;
+    }
+  }
+}
@@ -1,22 +1,16 @@
 package semantics.extension;
 
-import static semantics.RDFImport.CUSTOM_DATA_TYPE_SEPERATOR;
-import static semantics.RDFImport.PREFIX_SEPARATOR;
-import static semantics.mapping.MappingUtils.getExportMappingsFromDB;
-
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.StreamSupport;
+import java.util.function.Supplier;
 import javax.ws.rs.GET;
 import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
@@ -26,33 +20,41 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.type.TypeReference;
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Literal;
 import org.eclipse.rdf4j.model.Resource;
-import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.model.ValueFactory;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
 import org.eclipse.rdf4j.model.vocabulary.OWL;
 import org.eclipse.rdf4j.model.vocabulary.RDF;
 import org.eclipse.rdf4j.model.vocabulary.RDFS;
-import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
 import org.eclipse.rdf4j.rio.RDFFormat;
 import org.eclipse.rdf4j.rio.RDFHandlerException;
 import org.eclipse.rdf4j.rio.RDFWriter;
 import org.eclipse.rdf4j.rio.Rio;
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.NotFoundException;
 import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.graphdb.ResourceIterator;
 import org.neo4j.graphdb.Result;
 import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.configuration.Config;
 import org.neo4j.logging.Log;
+import semantics.IdBitmap;
+import semantics.query.QueryResultsWriter;
+import semantics.query.TriplePatternEvaluator;
+import semantics.query.TriplePatternFragment;
+import semantics.query.TriplePatternQuery;
 
 /**
  * Created by jbarrasa on 08/09/2016.
@@ -63,19 +65,23 @@ public class RDFEndpoint {
   public static final String BASE_VOCAB_NS = "neo4j://vocabulary#";
   public static final String BASE_INDIV_NS = "neo4j://individuals#";
   private static final ObjectMapper objectMapper = new ObjectMapper();
+  private static final int DEFAULT_FRAGMENT_PAGE_SIZE = 100;
   public static RDFFormat[] availableParsers = new RDFFormat[]{RDFFormat.RDFXML, RDFFormat.JSONLD,
       RDFFormat.TURTLE,
       RDFFormat.NTRIPLES, RDFFormat.TRIG};
-  private final Pattern langTagPattern = Pattern.compile("^(.*)@([a-z,\\-]+)$");
-  private final Pattern customDataTypePattern = Pattern
-      .compile("^(.*)" + Pattern.quote(CUSTOM_DATA_TYPE_SEPERATOR) + "(.*)$");
-  private final Pattern customDataTypedLiteralShortenedURIPattern = Pattern.compile(
-      "(.+)" + Pattern.quote(CUSTOM_DATA_TYPE_SEPERATOR) + "(\\w+)" + Pattern
-          .quote(PREFIX_SEPARATOR) + "(.+)$");
 
   @Context
   public Log log;
 
+  @Context
+  public HttpHeaders httpHeaders;
+
+  @QueryParam("flushInterval")
+  public Long flushInterval;
+
+  @Context
+  public Config config;
+
   @POST
   @Path("/cypher")
   @Produces({"application/rdf+xml", "text/plain", "text/turtle", "text/n3", "application/trix",
@@ -83,7 +89,7 @@ public class RDFEndpoint {
       "application/ld+json"})
   public Response cypherOnPlainLPG(@Context GraphDatabaseService gds,
       @HeaderParam("accept") String acceptHeaderParam, String body) {
-    return Response.ok().entity(new StreamingOutput() {
+    return streamingResponse(new StreamingOutput() {
       @Override
       public void write(OutputStream outputStream) throws IOException, WebApplicationException {
         Map<String, Object> jsonMap = objectMapper
@@ -95,17 +101,11 @@ public class RDFEndpoint {
           final Map<String, Object> queryParams = (Map<String, Object>) jsonMap
               .getOrDefault("cypherParams", new HashMap<String, Object>());
           Result result = gds.execute((String) jsonMap.get("cypher"), queryParams);
-          Set<Long> serializedNodes = new HashSet<Long>();
-          RDFWriter writer = Rio
-              .createWriter(getFormat(acceptHeaderParam, (String) jsonMap.get("format")),
-                  outputStream);
-          SimpleValueFactory valueFactory = SimpleValueFactory.getInstance();
-          handleNamespaces(writer, gds);
-          writer.handleNamespace("rdf", RDF.NAMESPACE);
-          writer.handleNamespace("neovoc", BASE_VOCAB_NS);
-          writer.handleNamespace("neoind", BASE_INDIV_NS);
-          writer.startRDF();
-          Map<String, String> mappings = getExportMappingsFromDB(gds);
+          IdBitmap serializedNodes = new IdBitmap();
+          IdBitmap serializedRels = new IdBitmap();
+          LPGSerialiser serialiser = createLPGSerialiser(gds,
+              getFormat(acceptHeaderParam, (String) jsonMap.get("format")), onlyMapped,
+              outputStream);
           while (result.hasNext()) {
             Map<String, Object> row = result.next();
             Set<Map.Entry<String, Object>> entries = row.entrySet();
@@ -114,33 +114,36 @@ public class RDFEndpoint {
               if (o instanceof org.neo4j.graphdb.Path) {
                 org.neo4j.graphdb.Path path = (org.neo4j.graphdb.Path) o;
                 path.nodes().forEach(n -> {
-                  if (!serializedNodes.contains(n.getId())) {
-                    processNodeInLPG(writer, valueFactory, mappings, n, onlyMapped);
-                    serializedNodes.add(n.getId());
+                  if (serializedNodes.add(n.getId())) {
+                    serialiser.node(n);
+                  }
+                });
+                path.relationships().forEach(r -> {
+                  if (serializedRels.add(r.getId())) {
+                    serialiser.relationship(r);
                   }
                 });
-                path.relationships()
-                    .forEach(
-                        r -> processRelOnLPG(writer, valueFactory, mappings, r, onlyMapped));
               } else if (o instanceof Node) {
                 Node node = (Node) o;
-                if (!serializedNodes.contains(node.getId())) {
-                  processNodeInLPG(writer, valueFactory, mappings, node, onlyMapped);
-                  serializedNodes.add(node.getId());
+                if (serializedNodes.add(node.getId())) {
+                  serialiser.node(node);
                 }
               } else if (o instanceof Relationship) {
-                processRelOnLPG(writer, valueFactory, mappings, (Relationship) o, onlyMapped);
+                Relationship rel = (Relationship) o;
+                if (serializedRels.add(rel.getId())) {
+                  serialiser.relationship(rel);
+                }
               }
             }
           }
-          writer.endRDF();
+          serialiser.end();
           result.close();
         } catch (Exception e) {
           handleSerialisationError(outputStream, e, acceptHeaderParam,
               (String) jsonMap.get("format"));
         }
       }
-    }).build();
+    });
   }
 
   @POST
@@ -150,11 +153,11 @@ public class RDFEndpoint {
       "application/ld+json"})
   public Response cypherOnImportedRDF(@Context GraphDatabaseService gds,
       @HeaderParam("accept") String acceptHeaderParam, String body) {
-    return Response.ok().entity(new StreamingOutput() {
+    return streamingResponse(new StreamingOutput() {
       @Override
       public void write(OutputStream outputStream) throws IOException, WebApplicationException {
 
-        Map<String, String> namespaces = getNamespacesFromDB(gds);
+        ExportLookups namespaces = ExportLookups.get(gds);
         Map<String, Object> jsonMap = objectMapper
             .readValue(body,
                 new TypeReference<Map<String, Object>>() {
@@ -164,11 +167,13 @@ public class RDFEndpoint {
           final Map<String, Object> queryParams = (Map<String, Object>) jsonMap
               .getOrDefault("cypherParams", new HashMap<String, Object>());
           Result result = gds.execute((String) jsonMap.get("cypher"), queryParams);
-          Set<String> serializedNodes = new HashSet<String>();
+          IdBitmap serializedNodes = new IdBitmap();
+          IdBitmap serializedRels = new IdBitmap();
           RDFWriter writer = Rio
               .createWriter(getFormat(acceptHeaderParam, (String) jsonMap.get("format")),
                   outputStream);
           SimpleValueFactory valueFactory = SimpleValueFactory.getInstance();
+          LiteralDecoder literals = new LiteralDecoder(valueFactory, namespaces);
           writer.handleNamespace("owl", OWL.NAMESPACE);
           writer.handleNamespace("rdfs", RDFS.NAMESPACE);
           writer.handleNamespace("rdf", RDF.NAMESPACE);
@@ -184,24 +189,25 @@ public class RDFEndpoint {
               if (o instanceof org.neo4j.graphdb.Path) {
                 org.neo4j.graphdb.Path path = (org.neo4j.graphdb.Path) o;
                 path.nodes().forEach(n -> {
-                  if (!serializedNodes.contains(n.getProperty("uri").toString())) {
-                    processNode(namespaces, writer, valueFactory, BASE_VOCAB_NS, n);
-                    serializedNodes.add(n.getProperty("uri").toString());
+                  if (serializedNodes.add(n.getId())) {
+                    processNode(namespaces, literals, writer, valueFactory, n);
+                  }
+                });
+                path.relationships().forEach(r -> {
+                  if (serializedRels.add(r.getId())) {
+                    processRelationship(namespaces, writer, valueFactory, r);
                   }
                 });
-                path.relationships().forEach(
-                    r -> processRelationship(namespaces, writer, valueFactory, BASE_VOCAB_NS, r));
               } else if (o instanceof Node) {
                 Node node = (Node) o;
-                if (StreamSupport.stream(node.getLabels().spliterator(), false)
-                    .anyMatch(name -> Label.label("Resource").equals(name)) && !serializedNodes
-                    .contains(node.getProperty("uri").toString())) {
-                  processNode(namespaces, writer, valueFactory, BASE_VOCAB_NS, node);
-                  serializedNodes.add(node.getProperty("uri").toString());
+                if (node.hasLabel(Label.label("Resource")) && serializedNodes.add(node.getId())) {
+                  processNode(namespaces, literals, writer, valueFactory, node);
                 }
               } else if (o instanceof Relationship) {
-                processRelationship(namespaces, writer, valueFactory, BASE_VOCAB_NS,
-                    (Relationship) o);
+                Relationship rel = (Relationship) o;
+                if (serializedRels.add(rel.getId())) {
+                  processRelationship(namespaces, writer, valueFactory, rel);
+                }
               }
             }
           }
@@ -213,20 +219,19 @@ public class RDFEndpoint {
         }
 
       }
-    }).build();
+    });
   }
 
-  private void processRelationship(Map<String, String> namespaces, RDFWriter writer,
-      SimpleValueFactory valueFactory, String baseVocabNS, Relationship rel) {
+  private void processRelationship(ExportLookups namespaces, RDFWriter writer,
+      SimpleValueFactory valueFactory, Relationship rel) {
     Resource subject = buildSubject(rel.getStartNode().getProperty("uri").toString(), valueFactory);
-    IRI predicate = valueFactory.createIRI(buildURI(baseVocabNS, rel.getType().name(), namespaces));
+    IRI predicate = namespaces.getVocabularyIRI(rel.getType().name());
     Resource object = buildSubject(rel.getEndNode().getProperty("uri").toString(), valueFactory);
     writer.handleStatement(valueFactory.createStatement(subject, predicate, object));
   }
 
-  private void processNode(Map<String, String> namespaces, RDFWriter writer,
-      SimpleValueFactory valueFactory,
-      String baseVocabNS, Node node) {
+  private void processNode(ExportLookups namespaces, LiteralDecoder literals, RDFWriter writer,
+      SimpleValueFactory valueFactory, Node node) {
     Iterable<Label> nodeLabels = node.getLabels();
     for (Label label : nodeLabels) {
       //Exclude the URI, Resource and Bnode categories created by the importer to emulate RDF
@@ -236,7 +241,7 @@ public class RDFEndpoint {
             valueFactory
                 .createStatement(buildSubject(node.getProperty("uri").toString(), valueFactory),
                     RDF.TYPE,
-                    valueFactory.createIRI(buildURI(baseVocabNS, label.name(), namespaces))));
+                    namespaces.getVocabularyIRI(label.name())));
 
       }
     }
@@ -244,59 +249,47 @@ public class RDFEndpoint {
     for (String key : allProperties.keySet()) {
       if (!key.equals("uri")) {
         Resource subject = buildSubject(node.getProperty("uri").toString(), valueFactory);
-        IRI predicate = valueFactory.createIRI(buildURI(baseVocabNS, key, namespaces));
+        IRI predicate = namespaces.getVocabularyIRI(key);
         Object propertyValueObject = allProperties.get(key);
         if (propertyValueObject instanceof long[]) {
           for (int i = 0; i < ((long[]) propertyValueObject).length; i++) {
-            Literal object = createTypedLiteral(valueFactory,
-                ((long[]) propertyValueObject)[i]);
+            Literal object = literals.createTypedLiteral(((long[]) propertyValueObject)[i]);
             writer.handleStatement(
                 valueFactory.createStatement(subject, predicate, object));
           }
         } else if (propertyValueObject instanceof double[]) {
           for (int i = 0; i < ((double[]) propertyValueObject).length; i++) {
-            Literal object = createTypedLiteral(valueFactory,
-                ((double[]) propertyValueObject)[i]);
+            Literal object = literals.createTypedLiteral(((double[]) propertyValueObject)[i]);
             writer.handleStatement(
                 valueFactory.createStatement(subject, predicate, object));
           }
         } else if (propertyValueObject instanceof boolean[]) {
           for (int i = 0; i < ((boolean[]) propertyValueObject).length; i++) {
-            Literal object = createTypedLiteral(valueFactory,
-                ((boolean[]) propertyValueObject)[i]);
+            Literal object = literals.createTypedLiteral(((boolean[]) propertyValueObject)[i]);
             writer.handleStatement(
                 valueFactory.createStatement(subject, predicate, object));
           }
         } else if (propertyValueObject instanceof LocalDateTime[]) {
           for (int i = 0; i < ((LocalDateTime[]) propertyValueObject).length; i++) {
-            Literal object = createTypedLiteral(valueFactory,
-                ((LocalDateTime[]) propertyValueObject)[i]);
+            Literal object = literals
+                .createTypedLiteral(((LocalDateTime[]) propertyValueObject)[i]);
             writer.handleStatement(
                 valueFactory.createStatement(subject, predicate, object));
           }
         } else if (propertyValueObject instanceof LocalDate[]) {
           for (int i = 0; i < ((LocalDate[]) propertyValueObject).length; i++) {
-            Literal object = createTypedLiteral(valueFactory,
-                ((LocalDate[]) propertyValueObject)[i]);
+            Literal object = literals.createTypedLiteral(((LocalDate[]) propertyValueObject)[i]);
             writer.handleStatement(
                 valueFactory.createStatement(subject, predicate, object));
           }
         } else if (propertyValueObject instanceof Object[]) {
           for (int i = 0; i < ((Object[]) propertyValueObject).length; i++) {
-            Literal object = createTypedLiteral(valueFactory,
-                (buildCustomDTFromShortURI((String) ((Object[]) propertyValueObject)[i],
-                    namespaces)));
+            Literal object = literals.createTypedLiteral(((Object[]) propertyValueObject)[i]);
             writer.handleStatement(
                 valueFactory.createStatement(subject, predicate, object));
           }
         } else {
-          Literal object;
-          if (propertyValueObject instanceof String) {
-            object = createTypedLiteral(valueFactory,
-                (buildCustomDTFromShortURI((String) propertyValueObject, namespaces)));
-          } else {
-            object = createTypedLiteral(valueFactory, propertyValueObject);
-          }
+          Literal object = literals.createTypedLiteral(propertyValueObject);
           writer.handleStatement(
               valueFactory.createStatement(subject, predicate, object));
         }
@@ -324,121 +317,134 @@ public class RDFEndpoint {
       @PathParam("nodeuri") String idParam,
       @QueryParam("excludeContext") String excludeContextParam,
       @QueryParam("format") String format,
-      @HeaderParam("accept") String acceptHeaderParam) {
-    return Response.ok().entity(new StreamingOutput() {
+      @HeaderParam("accept") String acceptHeaderParam) throws IOException {
+    String cacheKey = DescribeCache.key("uri", idParam,
+        getFormat(acceptHeaderParam, format).getName(), excludeContextParam != null, false);
+    Supplier<Long> describedNode = () -> {
+      Node node = gds.findNode(Label.label("Resource"), "uri", idParam);
+      return node == null ? null : node.getId();
+    };
+    return describeResponse(gds, cacheKey, describedNode, new StreamingOutput() {
       @Override
       public void write(OutputStream outputStream) throws IOException, WebApplicationException {
 
-        Map<String, String> namespaces = getNamespacesFromDB(gds);
-
-        String queryWithContext = "MATCH (x:Resource {uri:{theuri}}) " +
-            "OPTIONAL MATCH (x)-[r]-(val:Resource) WHERE exists(val.uri)\n" +
-            "RETURN x, r, val.uri AS value";
+        ExportLookups namespaces = ExportLookups.get(gds);
 
-        String queryNoContext = "MATCH (x:Resource {uri:{theuri}}) " +
-            "RETURN x, null AS r, null AS value";
-
-        Map<String, Object> params = new HashMap<>();
-        params.put("theuri", idParam);
         try (Transaction tx = gds.beginTx()) {
-          Result result = gds
-              .execute((excludeContextParam != null ? queryNoContext : queryWithContext),
-                  params);
+          Node node = gds.findNode(Label.label("Resource"), "uri", idParam);
 
           RDFWriter writer = Rio.createWriter(getFormat(acceptHeaderParam, format), outputStream);
           SimpleValueFactory valueFactory = SimpleValueFactory.getInstance();
+          LiteralDecoder literals = new LiteralDecoder(valueFactory, namespaces);
           writer.handleNamespace("rdf", RDF.NAMESPACE);
           writer.handleNamespace("neovoc", BASE_VOCAB_NS);
           writer.handleNamespace("neoind", BASE_INDIV_NS);
           writer.startRDF();
-          boolean doneOnce = false;
-          while (result.hasNext()) {
-            Map<String, Object> row = result.next();
-            if (!doneOnce) {
-              //Output only once the props of the selected node as literal properties
-              Node node = (Node) row.get("x");
-              Iterable<Label> nodeLabels = node.getLabels();
-              for (Label label : nodeLabels) {
-                //Exclude the Resource category created by the importer to emulate RDF
-                if (!label.name().equals("Resource")) {
-
-                  writer.handleStatement(
-                      valueFactory.createStatement(getResource(idParam.toString(), valueFactory),
-                          RDF.TYPE,
-                          valueFactory.createIRI(
-                              buildURI(BASE_VOCAB_NS, label.name(), namespaces))));
-                }
+          if (node != null) {
+            Resource subject = getResource(idParam, valueFactory);
+            for (Label label : node.getLabels()) {
+              //Exclude the Resource category created by the importer to emulate RDF
+              if (!label.name().equals("Resource")) {
+                writer.handleStatement(valueFactory.createStatement(subject, RDF.TYPE,
+                    namespaces.getVocabularyIRI(label.name())));
               }
-              Map<String, Object> allProperties = node.getAllProperties();
-              for (String key : allProperties.keySet()) {
-                if (!key.equals("uri")) {
-                  Resource subject = getResource(idParam.toString(), valueFactory);
-                  IRI predicate = valueFactory.createIRI(buildURI(BASE_VOCAB_NS, key, namespaces));
-                  Object propertyValueObject = allProperties.get(key);
-                  if (propertyValueObject instanceof Object[]) {
-                    for (int i = 0; i < ((Object[]) propertyValueObject).length; i++) {
-                      Literal object = createTypedLiteral(valueFactory,
-                          (buildCustomDTFromShortURI((String) ((Object[]) propertyValueObject)[i],
-                              namespaces)));
-                      writer.handleStatement(
-                          valueFactory.createStatement(subject, predicate, object));
-                    }
-                  } else if (propertyValueObject instanceof long[]) {
-                    for (int i = 0; i < ((long[]) propertyValueObject).length; i++) {
-                      Literal object = createTypedLiteral(valueFactory,
-                          ((long[]) propertyValueObject)[i]);
-                      writer.handleStatement(
-                          valueFactory.createStatement(subject, predicate, object));
-                    }
-                  } else if (propertyValueObject instanceof double[]) {
-                    for (int i = 0; i < ((double[]) propertyValueObject).length; i++) {
-                      Literal object = createTypedLiteral(valueFactory,
-                          ((double[]) propertyValueObject)[i]);
-                      writer.handleStatement(
-                          valueFactory.createStatement(subject, predicate, object));
-                    }
-                  } else if (propertyValueObject instanceof boolean[]) {
-                    for (int i = 0; i < ((boolean[]) propertyValueObject).length; i++) {
-                      Literal object = createTypedLiteral(valueFactory,
-                          ((boolean[]) propertyValueObject)[i]);
-                      writer.handleStatement(
-                          valueFactory.createStatement(subject, predicate, object));
-                    }
-                  } else {
-                    Literal object;
-                    if (propertyValueObject instanceof String) {
-                      object = createTypedLiteral(valueFactory,
-                          (buildCustomDTFromShortURI((String) propertyValueObject, namespaces)));
-                    } else {
-                      object = createTypedLiteral(valueFactory, propertyValueObject);
-                    }
+            }
+            Map<String, Object> allProperties = node.getAllProperties();
+            for (String key : allProperties.keySet()) {
+              if (!key.equals("uri")) {
+                IRI predicate = namespaces.getVocabularyIRI(key);
+                Object propertyValueObject = allProperties.get(key);
+                if (propertyValueObject instanceof Object[]) {
+                  for (int i = 0; i < ((Object[]) propertyValueObject).length; i++) {
+                    Literal object = literals
+                        .createTypedLiteral(((Object[]) propertyValueObject)[i]);
+                    writer.handleStatement(
+                        valueFactory.createStatement(subject, predicate, object));
+                  }
+                } else if (propertyValueObject instanceof long[]) {
+                  for (int i = 0; i < ((long[]) propertyValueObject).length; i++) {
+                    Literal object = literals
+                        .createTypedLiteral(((long[]) propertyValueObject)[i]);
+                    writer.handleStatement(
+                        valueFactory.createStatement(subject, predicate, object));
+                  }
+                } else if (propertyValueObject instanceof double[]) {
+                  for (int i = 0; i < ((double[]) propertyValueObject).length; i++) {
+                    Literal object = literals
+                        .createTypedLiteral(((double[]) propertyValueObject)[i]);
+                    writer.handleStatement(
+                        valueFactory.createStatement(subject, predicate, object));
+                  }
+                } else if (propertyValueObject instanceof boolean[]) {
+                  for (int i = 0; i < ((boolean[]) propertyValueObject).length; i++) {
+                    Literal object = literals
+                        .createTypedLiteral(((boolean[]) propertyValueObject)[i]);
                     writer.handleStatement(
                         valueFactory.createStatement(subject, predicate, object));
                   }
+                } else {
+                  Literal object = literals.createTypedLiteral(propertyValueObject);
+                  writer.handleStatement(
+                      valueFactory.createStatement(subject, predicate, object));
                 }
               }
-              doneOnce = true;
             }
-            Relationship rel = (Relationship) row.get("r");
-            if (rel != null) {
-
-              Resource subject = getResource(rel.getStartNode().getProperty("uri").toString(),
-                  valueFactory);
-              IRI predicate = valueFactory
-                  .createIRI(
-                      buildURI(BASE_VOCAB_NS, rel.getType().name(), namespaces));
-              IRI object = valueFactory.createIRI(rel.getEndNode().getProperty("uri").toString());
-              writer.handleStatement(valueFactory.createStatement(subject, predicate, object));
+            if (excludeContextParam == null) {
+              describeRelationships(namespaces, writer, valueFactory, node, subject);
             }
           }
           writer.endRDF();
-          result.close();
         } catch (Exception e) {
-          handleSerialisationError(outputStream, e, acceptHeaderParam, format);
+          handleDescribeError(outputStream, e, acceptHeaderParam, format);
         }
 
       }
-    }).build();
+    });
+  }
+
+  /**
+   * Writes the relationships of a node in an imported RDF graph with other resources, one
+   * relationship type and direction at a time so that each predicate is built once. The subject
+   * of each neighbour is built once too, however many relationships link it to the node.
+   */
+  private void describeRelationships(ExportLookups namespaces, RDFWriter writer,
+      SimpleValueFactory valueFactory, Node node, Resource subject) {
+    Label resource = Label.label("Resource");
+    Map<Long, Resource> neighbours = new HashMap<>();
+    for (RelationshipType type : node.getRelationshipTypes()) {
+      IRI predicate = namespaces.getVocabularyIRI(type.name());
+      for (Relationship rel : node.getRelationships(type, Direction.OUTGOING)) {
+        Resource object = neighbour(neighbours, rel.getEndNode(), resource, valueFactory);
+        if (object != null) {
+          writer.handleStatement(valueFactory.createStatement(subject, predicate, object));
+        }
+      }
+      for (Relationship rel : node.getRelationships(type, Direction.INCOMING)) {
+        // self relationships have been written as outgoing
+        if (rel.getStartNodeId() != node.getId()) {
+          Resource neighbourSubject = neighbour(neighbours, rel.getStartNode(), resource,
+              valueFactory);
+          if (neighbourSubject != null) {
+            writer.handleStatement(
+                valueFactory.createStatement(neighbourSubject, predicate, subject));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the subject of a neighbour or null if it's not a resource with a uri
+   */
+  private Resource neighbour(Map<Long, Resource> neighbours, Node node, Label resource,
+      ValueFactory valueFactory) {
+    Resource subject = neighbours.get(node.getId());
+    if (subject == null && !neighbours.containsKey(node.getId())) {
+      Object uri = node.hasLabel(resource) ? node.getProperty("uri", null) : null;
+      subject = uri == null ? null : getResource(uri.toString(), valueFactory);
+      neighbours.put(node.getId(), subject);
+    }
+    return subject;
   }
 
   private void handleSerialisationError(OutputStream outputStream, Exception e,
@@ -451,6 +457,18 @@ public class RDFEndpoint {
     writer.endRDF();
   }
 
+  /**
+   * Serialisation errors of a description are written as a comment, as for other responses, but
+   * rethrown when filling the cache so that the broken description isn't cached.
+   */
+  private void handleDescribeError(OutputStream outputStream, Exception e,
+      String acceptHeaderParam, String format) {
+    if (outputStream instanceof CacheFillBuffer) {
+      throw new WebApplicationException(e);
+    }
+    handleSerialisationError(outputStream, e, acceptHeaderParam, format);
+  }
+
   private Resource getResource(String s, ValueFactory vf) {
     // taken from org.eclipse.rdf4j.model.impl.SimpleIRI
     // explicit storage of blank nodes in the graph to be considered
@@ -461,60 +479,6 @@ public class RDFEndpoint {
     }
   }
 
-  private Map<String, String> getNamespacesFromDB(GraphDatabaseService graphdb) {
-
-    Result nslist = graphdb.execute("MATCH (n:NamespacePrefixDefinition) \n" +
-        "UNWIND keys(n) AS namespace\n" +
-        "RETURN namespace, n[namespace] AS prefix");
-
-    Map<String, String> result = new HashMap<String, String>();
-    while (nslist.hasNext()) {
-      Map<String, Object> ns = nslist.next();
-      result.put((String) ns.get("namespace"), (String) ns.get("prefix"));
-    }
-    return result;
-  }
-
-  private String buildURI(String baseVocabNS, String name, Map<String, String> namespaces) {
-    Pattern regex = Pattern.compile("^(\\w+)" + PREFIX_SEPARATOR + "(.*)$");
-    Matcher matcher = regex.matcher(name);
-    if (matcher.matches()) {
-      String prefix = matcher.group(1);
-      String uriPrefix = getKeyFromValue(prefix, namespaces);
-      String localName = matcher.group(2);
-      return uriPrefix + localName;
-    } else if (name.startsWith("http")) {
-      //make this test better
-      return name;
-    } else {
-      return baseVocabNS + name;
-    }
-
-  }
-
-  private String buildCustomDTFromShortURI(String literal, Map<String, String> namespaces) {
-    Matcher matcher = customDataTypedLiteralShortenedURIPattern.matcher(literal);
-    if (matcher.matches()) {
-      String value = matcher.group(1);
-      String prefix = matcher.group(2);
-      String uriPrefix = getKeyFromValue(prefix, namespaces);
-      String localName = matcher.group(3);
-      return value + CUSTOM_DATA_TYPE_SEPERATOR + uriPrefix + localName;
-    } else {
-      return literal;
-    }
-  }
-
-  private String getKeyFromValue(String prefix, Map<String, String> namespaces) {
-    for (String key : namespaces.keySet()) {
-      if (namespaces.get(key).equals(prefix)) {
-        return key;
-      }
-    }
-    throw new MissingNamespacePrefixDefinition("Prefix ".concat(prefix)
-        .concat(" in use but not defined in the 'NamespacePrefixDefinition' node"));
-  }
-
   private String getPrefix(String namespace, Map<String, String> namespaces) {
     if (namespaces.containsKey(namespace)) {
       return namespaces.get(namespace);
@@ -532,35 +496,39 @@ public class RDFEndpoint {
       @QueryParam("excludeContext") String excludeContextParam,
       @QueryParam("mappedElemsOnly") String onlyMappedInfo,
       @QueryParam("format") String format,
-      @HeaderParam("accept") String acceptHeaderParam) {
-    return Response.ok().entity(new StreamingOutput() {
+      @HeaderParam("accept") String acceptHeaderParam) throws IOException {
+    String cacheKey = DescribeCache.key("id", idParam,
+        getFormat(acceptHeaderParam, format).getName(), excludeContextParam != null,
+        onlyMappedInfo != null);
+    Supplier<Long> describedNode = () -> {
+      try {
+        return gds.getNodeById(idParam).getId();
+      } catch (NotFoundException e) {
+        return null;
+      }
+    };
+    return describeResponse(gds, cacheKey, describedNode, new StreamingOutput() {
       @Override
       public void write(OutputStream outputStream) throws IOException, WebApplicationException {
 
-        RDFWriter writer = Rio.createWriter(getFormat(acceptHeaderParam, format), outputStream);
-        SimpleValueFactory valueFactory = SimpleValueFactory.getInstance();
-        handleNamespaces(writer, gds);
-        writer.handleNamespace("rdf", RDF.NAMESPACE);
-        writer.handleNamespace("neovoc", BASE_VOCAB_NS);
-        writer.handleNamespace("neoind", BASE_INDIV_NS);
-        writer.startRDF();
+        LPGSerialiser serialiser = createLPGSerialiser(gds, getFormat(acceptHeaderParam, format),
+            onlyMappedInfo != null, outputStream);
         try (Transaction tx = gds.beginTx()) {
-          Map<String, String> mappings = getExportMappingsFromDB(gds);
           Node node = (Node) gds.getNodeById(idParam);
-          processNodeInLPG(writer, valueFactory, mappings, node, onlyMappedInfo != null);
+          serialiser.node(node);
           if (excludeContextParam == null) {
-            processRelsOnLPG(writer, valueFactory, mappings, node, onlyMappedInfo != null);
+            serialiser.relationships(node.getRelationships());
           }
-          writer.endRDF();
+          serialiser.end();
         } catch (NotFoundException e) {
-          handleSerialisationError(outputStream, e, acceptHeaderParam, format);
+          handleDescribeError(outputStream, e, acceptHeaderParam, format);
         } catch (Exception e) {
-          handleSerialisationError(outputStream, e, acceptHeaderParam, format);
+          handleDescribeError(outputStream, e, acceptHeaderParam, format);
         }
       }
 
 
-    }).build();
+    });
   }
 
 
@@ -576,29 +544,23 @@ public class RDFEndpoint {
       @QueryParam("mappedElemsOnly") String onlyMappedInfo,
       @QueryParam("format") String format,
       @HeaderParam("accept") String acceptHeaderParam) {
-    return Response.ok().entity(new StreamingOutput() {
+    return streamingResponse(new StreamingOutput() {
       @Override
       public void write(OutputStream outputStream) throws IOException, WebApplicationException {
 
-        RDFWriter writer = Rio.createWriter(getFormat(acceptHeaderParam, format), outputStream);
-        SimpleValueFactory valueFactory = SimpleValueFactory.getInstance();
-        handleNamespaces(writer, gds);
-        writer.handleNamespace("rdf", RDF.NAMESPACE);
-        writer.handleNamespace("neovoc", BASE_VOCAB_NS);
-        writer.handleNamespace("neoind", BASE_INDIV_NS);
-        writer.startRDF();
+        LPGSerialiser serialiser = createLPGSerialiser(gds, getFormat(acceptHeaderParam, format),
+            onlyMappedInfo != null, outputStream);
         try (Transaction tx = gds.beginTx()) {
-          Map<String, String> mappings = getExportMappingsFromDB(gds);
           ResourceIterator<Node> nodes = gds.findNodes(Label.label(label), property,
               (valType == null ? propVal : castValue(valType, propVal)));
           while (nodes.hasNext()) {
             Node node = nodes.next();
-            processNodeInLPG(writer, valueFactory, mappings, node, onlyMappedInfo != null);
+            serialiser.node(node);
             if (excludeContextParam == null) {
-              processRelsOnLPG(writer, valueFactory, mappings, node, onlyMappedInfo != null);
+              serialiser.relationships(node.getRelationships());
             }
           }
-          writer.endRDF();
+          serialiser.end();
         } catch (NotFoundException e) {
           handleSerialisationError(outputStream, e, acceptHeaderParam, format);
         } catch (Exception e) {
@@ -607,98 +569,350 @@ public class RDFEndpoint {
       }
 
 
-    }).build();
+    });
   }
 
-  private Object castValue(String valType, String propVal) {
-    if (valType.equals("INTEGER")) {
-      return Integer.valueOf(propVal);
-    } else if (valType.equals("FLOAT")) {
-      return Float.valueOf(propVal);
-    } else if (valType.equals("BOOLEAN")) {
-      return Boolean.valueOf(propVal);
-    } else {
-      return propVal;
+  /**
+   * Describes many resources in one response. The body lists either node ids ("ids") of a
+   * property graph or uris ("uris") of an imported RDF graph. Resources are looked up in a single
+   * pass and serialised with the same writer and namespace definitions, each node and relationship
+   * only once even when it is shared by several of the described resources. Ids and uris that are
+   * not found are skipped.
+   */
+  @POST
+  @Path("/describe")
+  @Produces({"application/rdf+xml", "text/plain", "text/turtle", "text/n3", "application/trix",
+      "application/x-trig",
+      "application/ld+json"})
+  public Response describeBatch(@Context GraphDatabaseService gds,
+      @HeaderParam("accept") String acceptHeaderParam, String body) {
+    return streamingResponse(new StreamingOutput() {
+      @Override
+      public void write(OutputStream outputStream) throws IOException, WebApplicationException {
+        Map<String, Object> jsonMap = objectMapper
+            .readValue(body,
+                new TypeReference<Map<String, Object>>() {
+                });
+        String format = (String) jsonMap.get("format");
+        boolean excludeContext = jsonMap.containsKey("excludeContext");
+        try (Transaction tx = gds.beginTx()) {
+          if (jsonMap.containsKey("uris")) {
+            describeResources(gds, (List<Object>) jsonMap.get("uris"), excludeContext,
+                getFormat(acceptHeaderParam, format), outputStream);
+          } else {
+            describeNodes(gds, (List<Object>) jsonMap.getOrDefault("ids", new ArrayList<>()),
+                excludeContext, jsonMap.containsKey("mappedElemsOnly"),
+                getFormat(acceptHeaderParam, format), outputStream);
+          }
+        } catch (Exception e) {
+          handleSerialisationError(outputStream, e, acceptHeaderParam, format);
+        }
+      }
+    });
+  }
+
+  private void describeNodes(GraphDatabaseService gds, List<Object> ids, boolean excludeContext,
+      boolean onlyMapped, RDFFormat format, OutputStream outputStream) {
+    LPGSerialiser serialiser = createLPGSerialiser(gds, format, onlyMapped, outputStream);
+    IdBitmap serializedNodes = new IdBitmap();
+    IdBitmap serializedRels = new IdBitmap();
+    for (Object id : ids) {
+      long nodeId = ((Number) id).longValue();
+      if (!serializedNodes.add(nodeId)) {
+        continue;
+      }
+      Node node;
+      try {
+        node = gds.getNodeById(nodeId);
+      } catch (NotFoundException e) {
+        continue;
+      }
+      serialiser.node(node);
+      if (!excludeContext) {
+        for (Relationship rel : node.getRelationships()) {
+          if (serializedRels.add(rel.getId())) {
+            serialiser.relationship(rel);
+          }
+        }
+      }
     }
+    serialiser.end();
   }
 
-  private void processRelsOnLPG(RDFWriter writer, SimpleValueFactory valueFactory,
-      Map<String, String> mappings,
-      Node node, boolean onlyMappedInfo) {
-    Iterable<Relationship> relationships = node.getRelationships();
-    relationships.forEach(rel -> {
-      if (!onlyMappedInfo || mappings.containsKey(rel.getType().name())) {
-        writer.handleStatement(valueFactory.createStatement(
-            valueFactory.createIRI(BASE_INDIV_NS, String.valueOf(rel.getStartNode().getId())),
-            valueFactory.createIRI(
-                mappings.get(rel.getType().name()) != null ? mappings.get(rel.getType().name())
-                    :
-                        BASE_VOCAB_NS + rel.getType().name()),
-            valueFactory.createIRI(BASE_INDIV_NS, String.valueOf(rel.getEndNode().getId()))));
+  private void describeResources(GraphDatabaseService gds, List<Object> uris,
+      boolean excludeContext, RDFFormat format, OutputStream outputStream) {
+    ExportLookups namespaces = ExportLookups.get(gds);
+    RDFWriter writer = Rio.createWriter(format, outputStream);
+    SimpleValueFactory valueFactory = SimpleValueFactory.getInstance();
+    LiteralDecoder literals = new LiteralDecoder(valueFactory, namespaces);
+    writer.handleNamespace("rdf", RDF.NAMESPACE);
+    writer.handleNamespace("neovoc", BASE_VOCAB_NS);
+    writer.handleNamespace("neoind", BASE_INDIV_NS);
+    writer.startRDF();
+    Label resource = Label.label("Resource");
+    IdBitmap serializedNodes = new IdBitmap();
+    IdBitmap serializedRels = new IdBitmap();
+    for (Object uri : uris) {
+      Node node = gds.findNode(resource, "uri", uri.toString());
+      if (node == null || !serializedNodes.add(node.getId())) {
+        continue;
       }
-    });
+      processNode(namespaces, literals, writer, valueFactory, node);
+      if (!excludeContext) {
+        for (Relationship rel : node.getRelationships()) {
+          Node other = rel.getOtherNode(node);
+          if (other.hasLabel(resource) && other.hasProperty("uri")
+              && serializedRels.add(rel.getId())) {
+            processRelationship(namespaces, writer, valueFactory, rel);
+          }
+        }
+      }
+    }
+    writer.endRDF();
   }
 
-  private void processRelOnLPG(RDFWriter writer, SimpleValueFactory valueFactory,
-      Map<String, String> mappings,
-      Relationship rel, boolean onlyMappedInfo) {
-    if (!onlyMappedInfo || mappings.containsKey(rel.getType().name())) {
-      writer.handleStatement(valueFactory.createStatement(
-          valueFactory.createIRI(BASE_INDIV_NS, String.valueOf(rel.getStartNode().getId())),
-          valueFactory.createIRI(
-              mappings.get(rel.getType().name()) != null ? mappings.get(rel.getType().name())
-                  :
-                      BASE_VOCAB_NS + rel.getType().name()),
-          valueFactory.createIRI(BASE_INDIV_NS, String.valueOf(rel.getEndNode().getId()))));
+  /**
+   * Evaluates a query made of triple patterns (a SPARQL SELECT with a basic graph pattern) on a
+   * graph created by importing RDF. The body is a JSON map with the query and optionally the
+   * format of the results, 'json' or 'tsv'. See {@link TriplePatternEvaluator} for how patterns
+   * are matched against labels, relationships and properties.
+   */
+  @POST
+  @Path("/query")
+  @Produces({QueryResultsWriter.JSON, QueryResultsWriter.TSV, "application/json"})
+  public Response query(@Context GraphDatabaseService gds,
+      @HeaderParam("accept") String acceptHeaderParam, String body) throws IOException {
+    Map<String, Object> jsonMap = objectMapper
+        .readValue(body,
+            new TypeReference<Map<String, Object>>() {
+            });
+    String mediaType = QueryResultsWriter
+        .getMediaType(acceptHeaderParam, (String) jsonMap.get("format"));
+    TriplePatternQuery query;
+    try (Transaction tx = gds.beginTx()) {
+      query = TriplePatternQuery.parse((String) jsonMap.get("query"), ExportLookups.get(gds));
+      tx.success();
+    } catch (IllegalArgumentException e) {
+      return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage())
+          .type("text/plain").build();
     }
+    return Response.fromResponse(streamingResponse(outputStream -> {
+      try (Transaction tx = gds.beginTx()) {
+        TriplePatternEvaluator evaluator = new TriplePatternEvaluator(gds, ExportLookups.get(gds));
+        new QueryResultsWriter(evaluator, query.getVariables())
+            .write(evaluator.evaluate(query), mediaType, outputStream);
+        tx.success();
+      }
+    })).type(mediaType).build();
   }
 
-  private void processNodeInLPG(RDFWriter writer, SimpleValueFactory valueFactory,
-      Map<String, String> mappings,
-      Node node, boolean onlyMappedInfo) {
-    Iterable<Label> nodeLabels = node.getLabels();
-    IRI subject = valueFactory.createIRI(BASE_INDIV_NS, String.valueOf(node.getId()));
-    for (Label label : nodeLabels) {
-      if (!onlyMappedInfo || mappings.containsKey(label.name())) {
-        writer.handleStatement(
-            valueFactory.createStatement(subject,
-                RDF.TYPE,
-                valueFactory
-                    .createIRI(
-                        mappings.get(label.name()) != null ? mappings.get(label.name())
-                            :
-                                BASE_VOCAB_NS + label.name())));
+  /**
+   * Serves the Triple Pattern Fragments of an imported RDF graph, for clients that evaluate
+   * queries by requesting the triples matching each pattern. subject, predicate and object are
+   * optional and use the explicit representation of terms of the TPF specification. The limit is
+   * the number of triples in a page (100 by default) and the cursor, taken from the hydra:next
+   * link in the previous page, selects the page.
+   */
+  @GET
+  @Path("/fragments")
+  @Produces({"application/rdf+xml", "text/plain", "text/turtle", "text/n3", "application/trix",
+      "application/x-trig",
+      "application/ld+json"})
+  public Response fragments(@Context GraphDatabaseService gds, @Context UriInfo uriInfo,
+      @QueryParam("subject") String subjectParam,
+      @QueryParam("predicate") String predicateParam,
+      @QueryParam("object") String objectParam,
+      @QueryParam("cursor") String cursor,
+      @QueryParam("limit") Integer limit,
+      @QueryParam("format") String format,
+      @HeaderParam("accept") String acceptHeaderParam) {
+    return streamingResponse(new StreamingOutput() {
+      @Override
+      public void write(OutputStream outputStream) throws IOException, WebApplicationException {
+        SimpleValueFactory valueFactory = SimpleValueFactory.getInstance();
+        int pageSize = (limit == null ? DEFAULT_FRAGMENT_PAGE_SIZE : limit);
+        try (Transaction tx = gds.beginTx()) {
+          ExportLookups namespaces = ExportLookups.get(gds);
+          TriplePatternFragment fragment = new TriplePatternFragment(gds, namespaces,
+              TriplePatternFragment.parseTerm(subjectParam, valueFactory),
+              TriplePatternFragment.parseTerm(predicateParam, valueFactory),
+              TriplePatternFragment.parseTerm(objectParam, valueFactory));
+          RDFWriter writer = Rio.createWriter(getFormat(acceptHeaderParam, format),
+              outputStream);
+          handleNamespaces(writer, gds);
+          namespaces.getNamespaces().forEach(
+              (namespace, prefix) -> writer.handleNamespace(prefix, namespace));
+          writer.startRDF();
+          String next = fragment.writePage(cursor, pageSize, writer);
+          String base = uriInfo.getAbsolutePath().toString();
+          fragment.writeMetadata(writer,
+              valueFactory.createIRI(uriInfo.getRequestUri().toString()),
+              valueFactory.createIRI(base + "#dataset"), base + "{?subject,predicate,object}",
+              next == null ? null : valueFactory.createIRI(
+                  uriInfo.getRequestUriBuilder().replaceQueryParam("cursor", next).build()
+                      .toString()), pageSize);
+          writer.endRDF();
+          tx.success();
+        } catch (Exception e) {
+          handleSerialisationError(outputStream, e, acceptHeaderParam, format);
+        }
       }
-    }
-    Map<String, Object> allProperties = node.getAllProperties();
-    for (String key : allProperties.keySet()) {
-      if (!onlyMappedInfo || mappings.containsKey(key)) {
-        IRI predicate = valueFactory
-            .createIRI(
-                mappings.get(key) != null ? mappings.get(key) : BASE_VOCAB_NS + key);
-        Object propertyValueObject = allProperties.get(key);
-        if (propertyValueObject instanceof Object[]) {
-          for (Object o : (Object[]) propertyValueObject) {
-            writer.handleStatement(valueFactory.createStatement(subject, predicate,
-                createTypedLiteral(valueFactory, o)));
+    });
+  }
+
+  @GET
+  @Path("/export")
+  @Produces({"application/rdf+xml", "text/plain", "text/turtle", "text/n3", "application/trix",
+      "application/x-trig",
+      "application/ld+json"})
+  public Response exportLPG(@Context GraphDatabaseService gds,
+      @QueryParam("label") List<String> labels,
+      @QueryParam("cursor") Long cursor,
+      @QueryParam("limit") Long limit,
+      @QueryParam("excludeContext") String excludeContextParam,
+      @QueryParam("mappedElemsOnly") String onlyMappedInfo,
+      @QueryParam("parallel") String parallel,
+      @QueryParam("chunkSize") Integer chunkSize,
+      @QueryParam("format") String format,
+      @HeaderParam("accept") String acceptHeaderParam) {
+    return streamingResponse(new StreamingOutput() {
+      @Override
+      public void write(OutputStream outputStream) throws IOException, WebApplicationException {
+
+        RDFFormat rdfFormat = getFormat(acceptHeaderParam, format);
+        if (parallel != null && rdfFormat.equals(RDFFormat.NTRIPLES)) {
+          // only line based serialisations can be produced in parallel and concatenated
+          try {
+            new ParallelNTriplesExport(gds,
+                new LPGToRDFProcessor(
+                    ExportLookups.get(gds).getLPGVocabulary(onlyMappedInfo != null)),
+                labels, excludeContextParam != null,
+                (chunkSize == null ? ParallelNTriplesExport.DEFAULT_CHUNK_SIZE : chunkSize))
+                .export((cursor == null ? -1 : cursor), limit, outputStream);
+          } catch (Exception e) {
+            handleSerialisationError(outputStream, e, acceptHeaderParam, format);
           }
-        } else {
-          writer.handleStatement(valueFactory.createStatement(subject, predicate,
-              createTypedLiteral(valueFactory, propertyValueObject)));
+          return;
         }
+
+        LPGSerialiser serialiser = createLPGSerialiser(gds, rdfFormat, onlyMappedInfo != null,
+            outputStream);
+        try (Transaction tx = gds.beginTx();
+            NodeScanIterator nodes = new NodeScanIterator(gds, labels,
+                (cursor == null ? -1 : cursor))) {
+          long exportedNodes = 0;
+          Node node = null;
+          while (nodes.hasNext() && (limit == null || exportedNodes < limit)) {
+            node = nodes.next();
+            serialiser.node(node);
+            if (excludeContextParam == null) {
+              // outgoing only, so that each relationship is serialised once across the export
+              serialiser.relationships(node.getRelationships(Direction.OUTGOING));
+            }
+            exportedNodes++;
+          }
+          if (node != null && nodes.hasNext()) {
+            // more nodes to export: pass this id as cursor in the next request
+            serialiser.comment("cursor=" + node.getId());
+          }
+          serialiser.end();
+        } catch (Exception e) {
+          handleSerialisationError(outputStream, e, acceptHeaderParam, format);
+        }
+      }
+    });
+  }
+
+  /**
+   * Serves a description from the {@link DescribeCache} when it is enabled. resolveNode returns
+   * the id of the described node or null if it doesn't exist, in which case the result is not
+   * cached.
+   */
+  private Response describeResponse(GraphDatabaseService gds, String key,
+      Supplier<Long> resolveNode, StreamingOutput output) throws IOException {
+    DescribeCache cache = DescribeCache.get(gds, config);
+    if (cache == null) {
+      return streamingResponse(output);
+    }
+    long lookupsVersion = ExportLookups.get(gds).getVersion();
+    DescribeCache.Entry entry = cache.get(key, lookupsVersion);
+    if (entry == null) {
+      long generation = cache.generation();
+      Long nodeId;
+      try (Transaction tx = gds.beginTx()) {
+        nodeId = resolveNode.get();
+      }
+      if (nodeId == null) {
+        return streamingResponse(output);
       }
+      ByteArrayOutputStream buffer = new CacheFillBuffer();
+      try {
+        output.write(buffer);
+      } catch (WebApplicationException e) {
+        // not cached, the error is reported by writing the description again
+        return streamingResponse(output);
+      }
+      entry = cache.put(key, nodeId, buffer.toByteArray(), lookupsVersion, generation);
+    }
+    if (entry.matches(httpHeaders == null ? null
+        : httpHeaders.getRequestHeaders().getFirst("If-None-Match"))) {
+      return Response.notModified(entry.getEntityTag()).build();
+    }
+    byte[] content = entry.getContent();
+    return Response.fromResponse(streamingResponse(outputStream -> outputStream.write(content)))
+        .tag(entry.getEntityTag()).build();
+  }
 
+  /**
+   * Buffer a description is written to before it is cached.
+   */
+  private static class CacheFillBuffer extends ByteArrayOutputStream {
+
+  }
+
+  private Response streamingResponse(StreamingOutput output) {
+    return ResponseCompression.negotiate(
+        httpHeaders == null ? null : httpHeaders.getRequestHeaders().getFirst("Accept-Encoding"),
+        flushInterval).response(output);
+  }
+
+  /**
+   * N-Triples are written directly by a {@link NTriplesLPGWriter}, other formats go through an
+   * rdf4j writer.
+   */
+  private LPGSerialiser createLPGSerialiser(GraphDatabaseService gds, RDFFormat format,
+      boolean onlyMapped, OutputStream outputStream) {
+    LPGToRDFProcessor processor = new LPGToRDFProcessor(
+        ExportLookups.get(gds).getLPGVocabulary(onlyMapped));
+    if (format.equals(RDFFormat.NTRIPLES)) {
+      return new NTriplesLPGWriter(processor, outputStream);
+    }
+    RDFWriter writer = Rio.createWriter(format, outputStream);
+    handleNamespaces(writer, gds);
+    writer.handleNamespace("rdf", RDF.NAMESPACE);
+    writer.handleNamespace("neovoc", BASE_VOCAB_NS);
+    writer.handleNamespace("neoind", BASE_INDIV_NS);
+    writer.startRDF();
+    return new RioLPGSerialiser(processor, writer);
+  }
+
+  private Object castValue(String valType, String propVal) {
+    if (valType.equals("INTEGER")) {
+      return Integer.valueOf(propVal);
+    } else if (valType.equals("FLOAT")) {
+      return Float.valueOf(propVal);
+    } else if (valType.equals("BOOLEAN")) {
+      return Boolean.valueOf(propVal);
+    } else {
+      return propVal;
     }
   }
 
   private void handleNamespaces(RDFWriter writer, GraphDatabaseService gds) {
     writer.handleNamespace("neovoc", BASE_VOCAB_NS);
     writer.handleNamespace("neoind", BASE_INDIV_NS);
-    gds.execute(
-        "MATCH (mns:_MapNs) WHERE exists(mns._prefix) RETURN mns._ns AS ns, mns._prefix AS prefix").
-        forEachRemaining(
-            result -> writer
-                .handleNamespace((String) result.get("prefix"), (String) result.get("ns")));
+    ExportLookups.get(gds).getMappingNamespaces().forEach(
+        (prefix, ns) -> writer.handleNamespace(prefix, ns));
   }
 
   @GET
@@ -717,7 +931,7 @@ public class RDFEndpoint {
       "application/ld+json"})
   public Response exportOnto(@Context GraphDatabaseService gds, @QueryParam("format") String format,
       @HeaderParam("accept") String acceptHeaderParam) {
-    return Response.ok().entity(new StreamingOutput() {
+    return streamingResponse(new StreamingOutput() {
       @Override
       public void write(OutputStream outputStream) throws IOException, WebApplicationException {
         RDFWriter writer = Rio.createWriter(getFormat(acceptHeaderParam, format), outputStream);
@@ -729,41 +943,34 @@ public class RDFEndpoint {
         writer.handleNamespace("neoind", BASE_INDIV_NS);
         writer.startRDF();
         try (Transaction tx = gds.beginTx()) {
-          Result res = gds.execute("CALL db.schema() ");
-          Set<Statement> publishedStatements = new HashSet<>();
-          Map<String, Object> next = res.next();
-          List<Node> nodeList = (List<Node>) next.get("nodes");
-          nodeList.forEach(node -> {
-            String catName = node.getAllProperties().get("name").toString();
+          SchemaSummary schema = SchemaSummary.read(gds);
+          for (String catName : schema.getLabels().keySet()) {
             // Resource and NamespacePrefix should be named _Resource... to avoid conflicts
             if (!catName.equals("Resource") && !catName.equals("NamespacePrefixDefinition")) {
               IRI subject = valueFactory.createIRI(BASE_VOCAB_NS, catName);
-              publishStatement(publishedStatements, writer,
-                  valueFactory.createStatement(subject, RDF.TYPE, OWL.CLASS));
-              publishStatement(publishedStatements, writer,
-                  valueFactory
-                      .createStatement(subject, RDFS.LABEL, valueFactory.createLiteral(catName)));
+              writer.handleStatement(valueFactory.createStatement(subject, RDF.TYPE, OWL.CLASS));
+              writer.handleStatement(valueFactory
+                  .createStatement(subject, RDFS.LABEL, valueFactory.createLiteral(catName)));
             }
-          });
-
-          List<Relationship> relationshipList = (List<Relationship>) next.get("relationships");
-          for (Relationship r : relationshipList) {
-            IRI relUri = valueFactory.createIRI(BASE_VOCAB_NS, r.getType().name());
-            publishStatement(publishedStatements, writer, (
-                valueFactory.createStatement(relUri, RDF.TYPE, OWL.OBJECTPROPERTY)));
-            String domainLabel = r.getStartNode().getLabels().iterator().next().name();
-            // Resource should be named _Resource... to avoid conflicts
-            if (!domainLabel.equals("Resource")) {
-              publishStatement(publishedStatements, writer,
-                  valueFactory.createStatement(relUri, RDFS.DOMAIN,
-                      valueFactory.createIRI(BASE_VOCAB_NS, domainLabel)));
+          }
+
+          for (String type : schema.getRelationshipTypes().keySet()) {
+            IRI relUri = valueFactory.createIRI(BASE_VOCAB_NS, type);
+            writer.handleStatement(
+                valueFactory.createStatement(relUri, RDF.TYPE, OWL.OBJECTPROPERTY));
+            for (String domainLabel : schema.getStartLabels(type).keySet()) {
+              // Resource should be named _Resource... to avoid conflicts
+              if (!domainLabel.equals("Resource")) {
+                writer.handleStatement(valueFactory.createStatement(relUri, RDFS.DOMAIN,
+                    valueFactory.createIRI(BASE_VOCAB_NS, domainLabel)));
+              }
             }
-            String rangeLabel = r.getEndNode().getLabels().iterator().next().name();
-            // Resource should be named _Resource... to avoid conflicts
-            if (!rangeLabel.equals("Resource")) {
-              publishStatement(publishedStatements, writer,
-                  valueFactory.createStatement(relUri, RDFS.RANGE,
-                      valueFactory.createIRI(BASE_VOCAB_NS, rangeLabel)));
+            for (String rangeLabel : schema.getEndLabels(type).keySet()) {
+              // Resource should be named _Resource... to avoid conflicts
+              if (!rangeLabel.equals("Resource")) {
+                writer.handleStatement(valueFactory.createStatement(relUri, RDFS.RANGE,
+                    valueFactory.createIRI(BASE_VOCAB_NS, rangeLabel)));
+              }
             }
           }
 
@@ -773,7 +980,7 @@ public class RDFEndpoint {
           handleSerialisationError(outputStream, e, acceptHeaderParam, format);
         }
       }
-    }).build();
+    });
   }
 
   @GET
@@ -784,11 +991,11 @@ public class RDFEndpoint {
   public Response exportRdfOnto(@Context GraphDatabaseService gds,
       @QueryParam("format") String format,
       @HeaderParam("accept") String acceptHeaderParam) {
-    return Response.ok().entity(new StreamingOutput() {
+    return streamingResponse(new StreamingOutput() {
       @Override
       public void write(OutputStream outputStream) throws IOException, WebApplicationException {
 
-        Map<String, String> namespaces = getNamespacesFromDB(gds);
+        ExportLookups namespaces = ExportLookups.get(gds);
         String baseVocabNS = "neo4j://vocabulary#";
 
         RDFWriter writer = Rio.createWriter(getFormat(acceptHeaderParam, format), outputStream);
@@ -801,45 +1008,33 @@ public class RDFEndpoint {
         writer.startRDF();
 
         try (Transaction tx = gds.beginTx()) {
-          Set<Statement> publishedStatements = new HashSet<>();
-          Result res = gds.execute("CALL db.schema() ");
-
-          Map<String, Object> next = res.next();
-          List<Node> nodeList = (List<Node>) next.get("nodes");
-          nodeList.forEach(node -> {
-            String catName = node.getAllProperties().get("name").toString();
+          SchemaSummary schema = SchemaSummary.read(gds);
+          for (String catName : schema.getLabels().keySet()) {
             if (!catName.equals("Resource") && !catName.equals("NamespacePrefixDefinition")) {
-              IRI subject = valueFactory.createIRI(buildURI(BASE_VOCAB_NS, catName, namespaces));
-              publishStatement(publishedStatements, writer,
-                  valueFactory.createStatement(subject, RDF.TYPE, OWL.CLASS));
-              publishStatement(publishedStatements, writer,
-                  valueFactory.createStatement(subject, RDFS.LABEL,
-                      valueFactory.createLiteral(subject.getLocalName())));
+              IRI subject = namespaces.getVocabularyIRI(catName);
+              writer.handleStatement(valueFactory.createStatement(subject, RDF.TYPE, OWL.CLASS));
+              writer.handleStatement(valueFactory.createStatement(subject, RDFS.LABEL,
+                  valueFactory.createLiteral(subject.getLocalName())));
             }
-          });
+          }
 
-          List<Relationship> relationshipList = (List<Relationship>) next.get("relationships");
-          for (Relationship r : relationshipList) {
-            IRI relUri = valueFactory
-                .createIRI(buildURI(BASE_VOCAB_NS, r.getType().name(), namespaces));
-            publishStatement(publishedStatements, writer,
+          for (String type : schema.getRelationshipTypes().keySet()) {
+            IRI relUri = namespaces.getVocabularyIRI(type);
+            writer.handleStatement(
                 valueFactory.createStatement(relUri, RDF.TYPE, OWL.OBJECTPROPERTY));
-            publishStatement(publishedStatements, writer,
-                valueFactory.createStatement(relUri, RDFS.LABEL,
-                    valueFactory.createLiteral(relUri.getLocalName())));
-            String domainClassStr = r.getStartNode().getLabels().iterator().next().name();
-            if (!domainClassStr.equals("Resource")) {
-              IRI domainUri = valueFactory
-                  .createIRI(buildURI(BASE_VOCAB_NS, domainClassStr, namespaces));
-              publishStatement(publishedStatements, writer,
-                  valueFactory.createStatement(relUri, RDFS.DOMAIN, domainUri));
+            writer.handleStatement(valueFactory.createStatement(relUri, RDFS.LABEL,
+                valueFactory.createLiteral(relUri.getLocalName())));
+            for (String domainClassStr : schema.getStartLabels(type).keySet()) {
+              if (!domainClassStr.equals("Resource")) {
+                writer.handleStatement(valueFactory.createStatement(relUri, RDFS.DOMAIN,
+                    namespaces.getVocabularyIRI(domainClassStr)));
+              }
             }
-            String rangeClassStr = r.getEndNode().getLabels().iterator().next().name();
-            if (!rangeClassStr.equals("Resource")) {
-              IRI rangeUri = valueFactory
-                  .createIRI(buildURI(BASE_VOCAB_NS, rangeClassStr, namespaces));
-              publishStatement(publishedStatements, writer,
-                  valueFactory.createStatement(relUri, RDFS.RANGE, rangeUri));
+            for (String rangeClassStr : schema.getEndLabels(type).keySet()) {
+              if (!rangeClassStr.equals("Resource")) {
+                writer.handleStatement(valueFactory.createStatement(relUri, RDFS.RANGE,
+                    namespaces.getVocabularyIRI(rangeClassStr)));
+              }
             }
           }
 
@@ -848,60 +1043,7 @@ public class RDFEndpoint {
           handleSerialisationError(outputStream, e, acceptHeaderParam, format);
         }
       }
-    }).build();
-  }
-
-  private void publishStatement(Set<Statement> publishedStatements, RDFWriter writer,
-      Statement statement) {
-    // the call to db.schema generates all combinations of source-target for rels so we
-    // filter duplicate statements
-    if (!publishedStatements.contains(statement)) {
-      publishedStatements.add(statement);
-      writer.handleStatement(statement);
-    }
-  }
-
-
-  private Literal createTypedLiteral(SimpleValueFactory valueFactory, Object value) {
-    Literal result = null;
-    if (value instanceof String) {
-      result = getLiteralWithTagOrDTIfPresent((String) value, valueFactory);
-    } else if (value instanceof Integer) {
-      result = valueFactory.createLiteral((Integer) value);
-    } else if (value instanceof Long) {
-      result = valueFactory.createLiteral((Long) value);
-    } else if (value instanceof Float) {
-      result = valueFactory.createLiteral((Float) value);
-    } else if (value instanceof Double) {
-      result = valueFactory.createLiteral((Double) value);
-    } else if (value instanceof Boolean) {
-      result = valueFactory.createLiteral((Boolean) value);
-    } else if (value instanceof LocalDateTime) {
-      result = valueFactory
-          .createLiteral(((LocalDateTime) value).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME),
-              XMLSchema.DATETIME);
-    } else if (value instanceof LocalDate) {
-      result = valueFactory
-          .createLiteral(((LocalDate) value).format(DateTimeFormatter.ISO_LOCAL_DATE),
-              XMLSchema.DATE);
-    } else {
-      // default to string
-      result = valueFactory.createLiteral("" + value);
-    }
-
-    return result;
-  }
-
-  private Literal getLiteralWithTagOrDTIfPresent(String value, ValueFactory vf) {
-    Matcher langTag = langTagPattern.matcher(value);
-    Matcher customDT = customDataTypePattern.matcher(value);
-    if (langTag.matches()) {
-      return vf.createLiteral(langTag.group(1), langTag.group(2));
-    } else if (customDT.matches()) {
-      return vf.createLiteral(customDT.group(1), vf.createIRI(customDT.group(2)));
-    } else {
-      return vf.createLiteral(value);
-    }
+    });
   }
 
   private RDFFormat getFormat(String mimetype, String formatParam) {
@@ -932,7 +1074,7 @@ public class RDFEndpoint {
 
   }
 
-  private class MissingNamespacePrefixDefinition extends RDFHandlerException {
+  static class MissingNamespacePrefixDefinition extends RDFHandlerException {
 
     public MissingNamespacePrefixDefinition(
         String msg) {
@@ -0,0 +1,153 @@
+package semantics.extension;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * Content coding of the streamed RDF responses. The serialisation is compressed with gzip or
+ * deflate when the client accepts it (Accept-Encoding header) and is buffered either way. Output
+ * is pushed to the client at most once per flush interval, so that frequent flushes from the
+ * writers don't turn into tiny network packets or poorly compressed blocks, and at least once per
+ * flush interval while the serialisation is being produced.
+ */
+class ResponseCompression {
+
+  static final int BUFFER_SIZE = 64 * 1024;
+  static final long DEFAULT_FLUSH_INTERVAL_MS = 1000;
+
+  private final String contentCoding;
+  private final long flushInterval;
+
+  private ResponseCompression(String contentCoding, long flushInterval) {
+    this.contentCoding = contentCoding;
+    this.flushInterval = flushInterval;
+  }
+
+  /**
+   * @param acceptEncoding value of the Accept-Encoding request header, can be null
+   * @param flushInterval minimum time in milliseconds between flushes. 0 flushes whenever the
+   * writer does and a negative value only at the end. Defaults to {@link
+   * #DEFAULT_FLUSH_INTERVAL_MS} when null.
+   */
+  static ResponseCompression negotiate(String acceptEncoding, Long flushInterval) {
+    return new ResponseCompression(selectContentCoding(acceptEncoding),
+        flushInterval == null ? DEFAULT_FLUSH_INTERVAL_MS : flushInterval);
+  }
+
+  /**
+   * @return "gzip", "deflate" or null when none of them is accepted. gzip is preferred when both
+   * have the same quality value.
+   */
+  static String selectContentCoding(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return null;
+    }
+    String selected = null;
+    float selectedQuality = 0;
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.split(";");
+      String name = parts[0].trim().toLowerCase();
+      float quality = 1;
+      for (int i = 1; i < parts.length; i++) {
+        String param = parts[i].trim();
+        if (param.startsWith("q=")) {
+          try {
+            quality = Float.parseFloat(param.substring(2));
+          } catch (NumberFormatException e) {
+            quality = 0;
+          }
+        }
+      }
+      if (name.equals("*")) {
+        name = "gzip";
+      }
+      if ((name.equals("gzip") || name.equals("deflate")) && quality > 0 && (
+          quality > selectedQuality || (quality == selectedQuality && name.equals("gzip")))) {
+        selected = name;
+        selectedQuality = quality;
+      }
+    }
+    return selected;
+  }
+
+  Response response(StreamingOutput output) {
+    Response.ResponseBuilder builder = Response.ok().entity(new StreamingOutput() {
+      @Override
+      public void write(OutputStream outputStream) throws IOException {
+        DeflaterOutputStream compressor = null;
+        OutputStream target = outputStream;
+        if ("gzip".equals(contentCoding)) {
+          compressor = new GZIPOutputStream(outputStream, BUFFER_SIZE, true);
+          target = compressor;
+        } else if ("deflate".equals(contentCoding)) {
+          compressor = new DeflaterOutputStream(outputStream, new Deflater(), BUFFER_SIZE, true);
+          target = compressor;
+        }
+        IntervalFlushOutputStream buffered = new IntervalFlushOutputStream(
+            new BufferedOutputStream(target, BUFFER_SIZE), flushInterval);
+        output.write(buffered);
+        buffered.flushNow();
+        if (compressor != null) {
+          compressor.finish();
+        }
+        outputStream.flush();
+      }
+    });
+    // the representation depends on Accept-Encoding even when it is sent uncompressed
+    builder.header("Vary", "Accept-Encoding");
+    if (contentCoding != null) {
+      builder.header("Content-Encoding", contentCoding);
+    }
+    return builder.build();
+  }
+
+  private static class IntervalFlushOutputStream extends FilterOutputStream {
+
+    private final long flushInterval;
+    private long lastFlush = System.currentTimeMillis();
+
+    IntervalFlushOutputStream(OutputStream out, long flushInterval) {
+      super(out);
+      this.flushInterval = flushInterval;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      if (flushInterval > 0 && System.currentTimeMillis() - lastFlush >= flushInterval) {
+        flushNow();
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (flushInterval == 0
+          || flushInterval > 0 && System.currentTimeMillis() - lastFlush >= flushInterval) {
+        flushNow();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      // the container owns the response stream, the wrapper above finishes the output
+      flushNow();
+    }
+
+    private void flushNow() throws IOException {
+      out.flush();
+      lastFlush = System.currentTimeMillis();
+    }
+  }
+}
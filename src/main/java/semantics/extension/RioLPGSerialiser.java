@@ -0,0 +1,40 @@
+package semantics.extension;
+
+import org.eclipse.rdf4j.rio.RDFWriter;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+/**
+ * Serialises nodes and relationships through an rdf4j writer, used for the formats that group or
+ * abbreviate statements (RDF/XML, Turtle, JSON-LD...). The writer has to be started.
+ */
+class RioLPGSerialiser implements LPGSerialiser {
+
+  private final LPGToRDFProcessor processor;
+  private final RDFWriter writer;
+
+  RioLPGSerialiser(LPGToRDFProcessor processor, RDFWriter writer) {
+    this.processor = processor;
+    this.writer = writer;
+  }
+
+  @Override
+  public void node(Node node) {
+    processor.processNode(node, writer);
+  }
+
+  @Override
+  public void relationship(Relationship rel) {
+    processor.processRelationship(rel, writer);
+  }
+
+  @Override
+  public void comment(String comment) {
+    writer.handleComment(comment);
+  }
+
+  @Override
+  public void end() {
+    writer.endRDF();
+  }
+}
@@ -0,0 +1,104 @@
+package semantics.extension;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.neo4j.graphdb.DependencyResolver.SelectionStrategy;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.internal.kernel.api.NamedToken;
+import org.neo4j.internal.kernel.api.Read;
+import org.neo4j.internal.kernel.api.TokenRead;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+
+/**
+ * Labels and relationship types in use, with the labels found at the start and at the end of the
+ * relationships of each type. Everything is read from the counts store, which Neo4j keeps up to
+ * date in every transaction, so building the summary takes a lookup per label and type pair
+ * whatever the size of the graph. Unlike db.schema() the summary doesn't list every combination
+ * of start and end labels, only the labels seen at each end.
+ */
+class SchemaSummary {
+
+  private final Map<String, Long> labels = new LinkedHashMap<>();
+  private final Map<String, Long> relationshipTypes = new LinkedHashMap<>();
+  private final Map<String, Map<String, Long>> startLabels = new LinkedHashMap<>();
+  private final Map<String, Map<String, Long>> endLabels = new LinkedHashMap<>();
+
+  /**
+   * Reads the summary in the transaction bound to the current thread.
+   */
+  static SchemaSummary read(GraphDatabaseService gds) {
+    KernelTransaction ktx = ((GraphDatabaseAPI) gds).getDependencyResolver()
+        .resolveDependency(ThreadToStatementContextBridge.class, SelectionStrategy.ONLY)
+        .getKernelTransactionBoundToThisThread(true);
+    return new SchemaSummary(ktx.tokenRead(), ktx.dataRead());
+  }
+
+  private SchemaSummary(TokenRead tokenRead, Read read) {
+    List<NamedToken> labelTokens = new ArrayList<>();
+    for (Iterator<NamedToken> it = tokenRead.labelsGetAllTokens(); it.hasNext(); ) {
+      NamedToken label = it.next();
+      long count = read.countsForNode(label.id());
+      if (count > 0) {
+        labelTokens.add(label);
+        labels.put(label.name(), count);
+      }
+    }
+    for (Iterator<NamedToken> it = tokenRead.relationshipTypesGetAllTokens(); it.hasNext(); ) {
+      NamedToken type = it.next();
+      long count = read.countsForRelationship(Read.ANY_LABEL, type.id(), Read.ANY_LABEL);
+      if (count > 0) {
+        relationshipTypes.put(type.name(), count);
+        Map<String, Long> start = new LinkedHashMap<>();
+        Map<String, Long> end = new LinkedHashMap<>();
+        for (NamedToken label : labelTokens) {
+          long startCount = read.countsForRelationship(label.id(), type.id(), Read.ANY_LABEL);
+          if (startCount > 0) {
+            start.put(label.name(), startCount);
+          }
+          long endCount = read.countsForRelationship(Read.ANY_LABEL, type.id(), label.id());
+          if (endCount > 0) {
+            end.put(label.name(), endCount);
+          }
+        }
+        startLabels.put(type.name(), start);
+        endLabels.put(type.name(), end);
+      }
+    }
+  }
+
+  /**
+   * @return the labels with at least one node and their node counts
+   */
+  Map<String, Long> getLabels() {
+    return labels;
+  }
+
+  /**
+   * @return the relationship types with at least one relationship and their relationship counts
+   */
+  Map<String, Long> getRelationshipTypes() {
+    return relationshipTypes;
+  }
+
+  /**
+   * @return the labels of the start nodes of the relationships of a type and how many
+   * relationships start at a node with each label
+   */
+  Map<String, Long> getStartLabels(String type) {
+    return startLabels.getOrDefault(type, Collections.emptyMap());
+  }
+
+  /**
+   * @return the labels of the end nodes of the relationships of a type and how many relationships
+   * end at a node with each label
+   */
+  Map<String, Long> getEndLabels(String type) {
+    return endLabels.getOrDefault(type, Collections.emptyMap());
+  }
+}
@@ -0,0 +1,361 @@
+package semantics.inference;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import semantics.PerDatabase;
+
+/**
+ * Reachability index of a hierarchy of categories linked to their parents by relationships of a
+ * type (subCatRel). Each category gets a position and the set of its ancestors (itself included)
+ * is kept as a bitset of positions, which works for hierarchies with multiple inheritance and
+ * answers whether a category is below another one with a single lookup.
+ *
+ * <p>The index is built on request and kept in memory. Changes to subCatRel relationships are
+ * applied to it when their transaction commits. A new relationship merges the ancestors of the
+ * new parent into the ones of every category below the child. A deleted one recomputes the
+ * ancestors of the child and of every category below it from their parents. Queries never wait
+ * for a rebuild.</p>
+ */
+class CategoryIndex {
+
+  private static final PerDatabase<Holder> holders = new PerDatabase<>();
+
+  private final GraphDatabaseService gds;
+  private final RelationshipType subCatRel;
+  private volatile Snapshot snapshot;
+
+  private CategoryIndex(GraphDatabaseService gds, RelationshipType subCatRel) {
+    this.gds = gds;
+    this.subCatRel = subCatRel;
+  }
+
+  /**
+   * Builds the index of the hierarchy defined by a relationship type, replacing the existing
+   * one. Reads all the relationships in the graph.
+   */
+  static CategoryIndex build(GraphDatabaseService gds, String subCatRel) {
+    Holder holder = holders.get(gds, Holder::new);
+    CategoryIndex index = new CategoryIndex(holder.gds, RelationshipType.withName(subCatRel));
+    index.snapshot = index.read();
+    holder.indexes.put(subCatRel, index);
+    return index;
+  }
+
+  /**
+   * @return the index of the hierarchy defined by a relationship type or null if it hasn't been
+   * built
+   */
+  static CategoryIndex get(GraphDatabaseService gds, String subCatRel) {
+    Holder holder = holders.getIfPresent(gds);
+    return holder == null ? null : holder.indexes.get(subCatRel);
+  }
+
+  /**
+   * @return whether the category is the ancestor or one of its subcategories
+   */
+  boolean isInCategory(long categoryId, long ancestorId) {
+    if (categoryId == ancestorId) {
+      return true;
+    }
+    Snapshot current = snapshot;
+    Integer category = current.positions.get(categoryId);
+    Integer ancestor = current.positions.get(ancestorId);
+    return category != null && ancestor != null && current.ancestors.get(category).get(ancestor);
+  }
+
+  /**
+   * @return the number of categories in the index
+   */
+  int size() {
+    return snapshot.nodeIds.size();
+  }
+
+  /**
+   * @return the number of subCatRel relationships in the index
+   */
+  long links() {
+    long links = 0;
+    for (long[] parents : snapshot.parents) {
+      links += parents.length;
+    }
+    return links;
+  }
+
+  private Snapshot read() {
+    Snapshot read = new Snapshot();
+    for (Relationship rel : gds.getAllRelationships()) {
+      if (rel.isType(subCatRel)) {
+        read.addLink(rel.getStartNodeId(), rel.getEndNodeId());
+      }
+    }
+    read.computeAncestors();
+    return read;
+  }
+
+  private synchronized void update(List<long[]> deleted, List<long[]> created) {
+    Snapshot updated = snapshot.copy();
+    if (!deleted.isEmpty()) {
+      List<Integer> children = new ArrayList<>();
+      for (long[] link : deleted) {
+        Integer child = updated.removeLink(link[0], link[1]);
+        if (child != null) {
+          children.add(child);
+        }
+      }
+      updated.recompute(children);
+    }
+    for (long[] link : created) {
+      updated.addLink(link[0], link[1]);
+      updated.propagate(updated.positions.get(link[0]), updated.positions.get(link[1]));
+    }
+    snapshot = updated;
+  }
+
+  /**
+   * The state of the index at a point in time, never modified once published. Updates work on a
+   * copy that shares the bitsets of the categories they don't change.
+   */
+  private static class Snapshot {
+
+    private Map<Long, Integer> positions = new HashMap<>();
+    private List<Long> nodeIds = new ArrayList<>();
+    private List<long[]> parents = new ArrayList<>();
+    private List<long[]> children = new ArrayList<>();
+    private List<BitSet> ancestors = new ArrayList<>();
+
+    private int position(long nodeId) {
+      Integer position = positions.get(nodeId);
+      if (position == null) {
+        position = nodeIds.size();
+        positions.put(nodeId, position);
+        nodeIds.add(nodeId);
+        parents.add(new long[0]);
+        children.add(new long[0]);
+        BitSet self = new BitSet();
+        self.set(position);
+        ancestors.add(self);
+      }
+      return position;
+    }
+
+    private void addLink(long childId, long parentId) {
+      int child = position(childId);
+      int parent = position(parentId);
+      parents.set(child, append(parents.get(child), parentId));
+      children.set(parent, append(children.get(parent), childId));
+    }
+
+    /**
+     * @return the position of the child or null if the link is not in the index
+     */
+    private Integer removeLink(long childId, long parentId) {
+      Integer child = positions.get(childId);
+      Integer parent = positions.get(parentId);
+      if (child == null || parent == null) {
+        return null;
+      }
+      parents.set(child, remove(parents.get(child), parentId));
+      children.set(parent, remove(children.get(parent), childId));
+      return child;
+    }
+
+    private static long[] remove(long[] ids, long id) {
+      for (int i = 0; i < ids.length; i++) {
+        if (ids[i] == id) {
+          long[] removed = new long[ids.length - 1];
+          System.arraycopy(ids, 0, removed, 0, i);
+          System.arraycopy(ids, i + 1, removed, i, ids.length - i - 1);
+          return removed;
+        }
+      }
+      return ids;
+    }
+
+    private static long[] append(long[] ids, long id) {
+      long[] appended = new long[ids.length + 1];
+      System.arraycopy(ids, 0, appended, 0, ids.length);
+      appended[ids.length] = id;
+      return appended;
+    }
+
+    /**
+     * Computes the ancestors of every category, parents before children. Categories in cycles
+     * are left to the end and propagated until nothing changes.
+     */
+    private void computeAncestors() {
+      int[] pendingParents = new int[nodeIds.size()];
+      Deque<Integer> ready = new ArrayDeque<>();
+      for (int i = 0; i < nodeIds.size(); i++) {
+        pendingParents[i] = parents.get(i).length;
+        if (pendingParents[i] == 0) {
+          ready.add(i);
+        }
+      }
+      Set<Integer> done = new HashSet<>();
+      while (!ready.isEmpty()) {
+        int category = ready.poll();
+        done.add(category);
+        for (long parentId : parents.get(category)) {
+          ancestors.get(category).or(ancestors.get(positions.get(parentId)));
+        }
+        for (long childId : children.get(category)) {
+          int child = positions.get(childId);
+          if (--pendingParents[child] == 0) {
+            ready.add(child);
+          }
+        }
+      }
+      for (int i = 0; i < nodeIds.size(); i++) {
+        if (!done.contains(i)) {
+          for (long parentId : parents.get(i)) {
+            propagate(i, positions.get(parentId));
+          }
+        }
+      }
+    }
+
+    /**
+     * Adds the ancestors of a parent to the category and to every category below it that doesn't
+     * have them yet.
+     */
+    private void propagate(int category, int parent) {
+      BitSet inherited = ancestors.get(parent);
+      Deque<Integer> toVisit = new ArrayDeque<>();
+      toVisit.push(category);
+      while (!toVisit.isEmpty()) {
+        int current = toVisit.pop();
+        BitSet currentAncestors = ancestors.get(current);
+        BitSet merged = (BitSet) currentAncestors.clone();
+        merged.or(inherited);
+        if (!merged.equals(currentAncestors)) {
+          ancestors.set(current, merged);
+          for (long childId : children.get(current)) {
+            toVisit.push(positions.get(childId));
+          }
+        }
+      }
+    }
+
+    /**
+     * Recomputes the ancestors of the categories and of every category below them from their
+     * parents, after links above them have been removed. The categories are reset to themselves
+     * and merged with their parents until nothing changes, which also handles cycles.
+     */
+    private void recompute(List<Integer> categories) {
+      List<Integer> affected = new ArrayList<>();
+      Set<Integer> seen = new HashSet<>();
+      Deque<Integer> toVisit = new ArrayDeque<>(categories);
+      while (!toVisit.isEmpty()) {
+        int current = toVisit.poll();
+        if (seen.add(current)) {
+          affected.add(current);
+          for (long childId : children.get(current)) {
+            toVisit.add(positions.get(childId));
+          }
+        }
+      }
+      for (int category : affected) {
+        BitSet self = new BitSet();
+        self.set(category);
+        ancestors.set(category, self);
+      }
+      boolean changed = true;
+      while (changed) {
+        changed = false;
+        for (int category : affected) {
+          // reset above, so owned by this snapshot and updated in place
+          BitSet merged = ancestors.get(category);
+          int before = merged.cardinality();
+          for (long parentId : parents.get(category)) {
+            merged.or(ancestors.get(positions.get(parentId)));
+          }
+          changed |= merged.cardinality() != before;
+        }
+      }
+    }
+
+    private Snapshot copy() {
+      Snapshot copy = new Snapshot();
+      copy.positions = new HashMap<>(positions);
+      copy.nodeIds = new ArrayList<>(nodeIds);
+      copy.parents = new ArrayList<>(parents);
+      copy.children = new ArrayList<>(children);
+      copy.ancestors = new ArrayList<>(ancestors);
+      return copy;
+    }
+  }
+
+  /**
+   * Changes to the indexed hierarchies in a transaction: the links created and deleted for each
+   * relationship type.
+   */
+  private static class Changes {
+
+    private final Map<String, List<long[]>> created = new HashMap<>();
+    private final Map<String, List<long[]>> deleted = new HashMap<>();
+
+    private static void add(Map<String, List<long[]>> links, Relationship rel) {
+      links.computeIfAbsent(rel.getType().name(), t -> new ArrayList<>())
+          .add(new long[]{rel.getStartNodeId(), rel.getEndNodeId()});
+    }
+  }
+
+  private static class Holder extends TransactionEventHandler.Adapter<Changes> {
+
+    private final GraphDatabaseService gds;
+    private final Map<String, CategoryIndex> indexes = new ConcurrentHashMap<>();
+
+    Holder(GraphDatabaseService gds) {
+      this.gds = gds;
+    }
+
+    @Override
+    public Changes beforeCommit(TransactionData data) {
+      if (indexes.isEmpty()) {
+        return null;
+      }
+      Changes changes = new Changes();
+      for (Relationship rel : data.deletedRelationships()) {
+        if (indexes.containsKey(rel.getType().name())) {
+          Changes.add(changes.deleted, rel);
+        }
+      }
+      for (Relationship rel : data.createdRelationships()) {
+        if (indexes.containsKey(rel.getType().name())) {
+          Changes.add(changes.created, rel);
+        }
+      }
+      return changes.created.isEmpty() && changes.deleted.isEmpty() ? null : changes;
+    }
+
+    @Override
+    public void afterCommit(TransactionData data, Changes changes) {
+      if (changes == null) {
+        return;
+      }
+      Set<String> types = new HashSet<>(changes.created.keySet());
+      types.addAll(changes.deleted.keySet());
+      for (String type : types) {
+        CategoryIndex index = indexes.get(type);
+        if (index != null) {
+          index.update(changes.deleted.getOrDefault(type, Collections.emptyList()),
+              changes.created.getOrDefault(type, Collections.emptyList()));
+        }
+      }
+    }
+  }
+}
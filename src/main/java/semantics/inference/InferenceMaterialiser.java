@@ -0,0 +1,523 @@
+package semantics.inference;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.neo4j.graphdb.DependencyResolver.SelectionStrategy;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.event.LabelEntry;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.internal.kernel.api.Read;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.kernel.impl.store.id.IdGeneratorFactory;
+import org.neo4j.kernel.impl.store.id.IdType;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.logging.Log;
+import org.neo4j.logging.internal.LogService;
+import semantics.IdBitmap;
+import semantics.PerDatabase;
+import semantics.Util;
+
+/**
+ * Writes the facts the inference procedures compute at query time, so that plain label scans and
+ * relationship expansions return them:
+ * <ul>
+ * <li>the labels above the labels of a node in the SLO hierarchy, listed in the _inferredLabels
+ * property of the node</li>
+ * <li>IN_CAT relationships to the categories above the ones of a node in the SCO hierarchy</li>
+ * <li>relationships of the types above the type of a relationship in the SRO hierarchy, between
+ * the same nodes</li>
+ * </ul>
+ * Inferred relationships have an _inferred property set to true. The graph is materialised in
+ * transactions of commitSize nodes. Once materialised, a transaction event handler keeps the
+ * inferred facts current: changes to the labels or relationships of a node refresh what is
+ * inferred for that node in the same transaction, changes to a hierarchy are recorded and the
+ * facts of that hierarchy re-materialised in the background once the transaction commits, so
+ * they lag behind the hierarchy until the refresh is done. Failed refreshes are logged to the
+ * user log and retried. The handler is registered by the materialise procedure and has to be
+ * registered again, by calling it, after a restart.
+ *
+ * <p>Adding a label that a node already has doesn't change the node, so a label that is inferred
+ * can't be made explicit by setting it: it stays listed in _inferredLabels and is removed when it
+ * no longer follows from the hierarchy. Taking it out of _inferredLabels makes it explicit.</p>
+ */
+class InferenceMaterialiser {
+
+  static final String INFERRED_LABELS = "_inferredLabels";
+  static final String INFERRED = "_inferred";
+
+  private static final int LABELS = 1;
+  private static final int MEMBERSHIPS = 2;
+  private static final int RELATIONSHIPS = 4;
+  private static final int ALL = LABELS | MEMBERSHIPS | RELATIONSHIPS;
+  // set on the transactions of a materialisation, whose changes needn't be refreshed again
+  private static final String MATERIALISING = "semantics.inference.materialising";
+
+  private static final int REFRESH_ATTEMPTS = 3;
+
+  private static final PerDatabase<Holder> holders = new PerDatabase<>();
+  private static final ScheduledExecutorService refreshes =
+      Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "semantics-inference-refresh");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  private final Label catLabel;
+  private final String catNameProp;
+  private final RelationshipType subLabelRel;
+  private final RelationshipType inCatRel;
+  private final RelationshipType subCatRel;
+  private final Label relLabel;
+  private final String relNameProp;
+  private final RelationshipType subRelRel;
+  private final long commitSize;
+
+  InferenceMaterialiser(String catLabel, String catNameProp, String subLabelRel, String inCatRel,
+      String subCatRel, String relLabel, String relNameProp, String subRelRel, long commitSize) {
+    this.catLabel = Label.label(catLabel);
+    this.catNameProp = catNameProp;
+    this.subLabelRel = RelationshipType.withName(subLabelRel);
+    this.inCatRel = RelationshipType.withName(inCatRel);
+    this.subCatRel = RelationshipType.withName(subCatRel);
+    this.relLabel = Label.label(relLabel);
+    this.relNameProp = relNameProp;
+    this.subRelRel = RelationshipType.withName(subRelRel);
+    this.commitSize = commitSize;
+  }
+
+  /**
+   * Materialises all the inferred facts in transactions of commitSize nodes and keeps them current
+   * from then on, replacing any materialisation registered before.
+   */
+  Run materialise(GraphDatabaseService gds) {
+    Holder holder = holders.get(gds, Holder::new);
+    holder.materialiser = this;
+    Run run = new Run(holder.gds, ALL);
+    run.all();
+    return run;
+  }
+
+  /**
+   * @return the hierarchies the transaction changes, as a combination of LABELS, MEMBERSHIPS and
+   * RELATIONSHIPS
+   */
+  private int changedHierarchies(TransactionData data) {
+    int changed = 0;
+    for (Relationship rel : data.createdRelationships()) {
+      changed |= hierarchy(rel);
+    }
+    for (Relationship rel : data.deletedRelationships()) {
+      changed |= hierarchy(rel);
+    }
+    for (LabelEntry entry : data.assignedLabels()) {
+      changed |= hierarchy(entry.label());
+    }
+    for (LabelEntry entry : data.removedLabels()) {
+      changed |= hierarchy(entry.label());
+    }
+    return changed | changedNames(data, data.assignedNodeProperties())
+        | changedNames(data, data.removedNodeProperties());
+  }
+
+  private int hierarchy(Relationship rel) {
+    if (rel.isType(subLabelRel)) {
+      return LABELS;
+    } else if (rel.isType(subCatRel)) {
+      return MEMBERSHIPS;
+    } else if (rel.isType(subRelRel)) {
+      return RELATIONSHIPS;
+    }
+    return 0;
+  }
+
+  private int hierarchy(Label label) {
+    return (label.equals(catLabel) ? LABELS : 0) | (label.equals(relLabel) ? RELATIONSHIPS : 0);
+  }
+
+  private int changedNames(TransactionData data, Iterable<PropertyEntry<Node>> entries) {
+    int changed = 0;
+    for (PropertyEntry<Node> entry : entries) {
+      // deleted category nodes have their labels listed in removedLabels
+      if (!data.isDeleted(entry.entity())) {
+        if (entry.key().equals(catNameProp) && entry.entity().hasLabel(catLabel)) {
+          changed |= LABELS;
+        }
+        if (entry.key().equals(relNameProp) && entry.entity().hasLabel(relLabel)) {
+          changed |= RELATIONSHIPS;
+        }
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * One materialisation or refresh of some of the hierarchies, with the hierarchy lookups it has
+   * done so far and the number of facts it has written and removed.
+   */
+  class Run {
+
+    private final GraphDatabaseService gds;
+    private final int hierarchies;
+    private final Map<String, Set<String>> superLabels = new HashMap<>();
+    private final Map<Long, Set<Long>> superCategories = new HashMap<>();
+    private final Map<String, Set<String>> superRelationshipTypes = new HashMap<>();
+    long labelsAdded;
+    long labelsRemoved;
+    long relationshipsCreated;
+    long relationshipsDeleted;
+
+    private Run(GraphDatabaseService gds, int hierarchies) {
+      this.gds = gds;
+      this.hierarchies = hierarchies;
+    }
+
+    /**
+     * Refreshes every node in the graph, in transactions of commitSize node ids.
+     */
+    void all() {
+      long highestId = ((GraphDatabaseAPI) gds).getDependencyResolver()
+          .resolveDependency(IdGeneratorFactory.class, SelectionStrategy.ONLY).get(IdType.NODE)
+          .getHighestPossibleIdInUse();
+      for (long from = 0; from <= highestId; from += commitSize) {
+        long batchStart = from;
+        long batchEnd = Math.min(from + commitSize, highestId + 1);
+        Util.inTx(gds, () -> {
+          KernelTransaction tx = ((GraphDatabaseAPI) gds).getDependencyResolver()
+              .resolveDependency(ThreadToStatementContextBridge.class, SelectionStrategy.ONLY)
+              .getKernelTransactionBoundToThisThread(true);
+          tx.setMetaData(Collections.singletonMap(MATERIALISING, true));
+          Read read = tx.dataRead();
+          for (long id = batchStart; id < batchEnd; id++) {
+            if (read.nodeExists(id)) {
+              refresh(gds.getNodeById(id));
+            }
+          }
+          return null;
+        });
+      }
+    }
+
+    private void refresh(Node node) {
+      if ((hierarchies & LABELS) != 0) {
+        refreshLabels(node);
+      }
+      if ((hierarchies & MEMBERSHIPS) != 0) {
+        refreshMemberships(node);
+      }
+      if ((hierarchies & RELATIONSHIPS) != 0) {
+        refreshRelationships(node);
+      }
+    }
+
+    /**
+     * Refreshes the nodes with changed labels or relationships in a transaction.
+     */
+    void changed(TransactionData data) {
+      IdBitmap labelled = new IdBitmap();
+      for (LabelEntry entry : data.assignedLabels()) {
+        refreshLabels(data, entry.node(), labelled);
+      }
+      for (LabelEntry entry : data.removedLabels()) {
+        refreshLabels(data, entry.node(), labelled);
+      }
+      // labels taken out of the list of inferred labels are explicit from now on
+      for (PropertyEntry<Node> entry : data.assignedNodeProperties()) {
+        if (entry.key().equals(INFERRED_LABELS)) {
+          refreshLabels(data, entry.entity(), labelled);
+        }
+      }
+      IdBitmap members = new IdBitmap();
+      IdBitmap related = new IdBitmap();
+      for (Relationship rel : data.createdRelationships()) {
+        refreshRelationships(data, rel, members, related);
+      }
+      for (Relationship rel : data.deletedRelationships()) {
+        refreshRelationships(data, rel, members, related);
+      }
+    }
+
+    private void refreshLabels(TransactionData data, Node node, IdBitmap refreshed) {
+      if (!data.isDeleted(node) && refreshed.add(node.getId())) {
+        refreshLabels(node);
+      }
+    }
+
+    private void refreshRelationships(TransactionData data, Relationship rel,
+        IdBitmap members, IdBitmap related) {
+      Node start = rel.getStartNode();
+      if (data.isDeleted(start)) {
+        return;
+      }
+      if (rel.isType(inCatRel)) {
+        if (members.add(start.getId())) {
+          refreshMemberships(start);
+        }
+      } else if (related.add(start.getId())) {
+        refreshRelationships(start);
+      }
+    }
+
+    /**
+     * Adds the labels above the explicit labels of the node and removes the inferred labels that
+     * no longer are.
+     */
+    void refreshLabels(Node node) {
+      Set<String> inferred = new HashSet<>();
+      // the list can be set by hand, an empty list set from Cypher isn't a String[]
+      Object listed = node.getProperty(INFERRED_LABELS, null);
+      if (listed instanceof String[]) {
+        inferred.addAll(Arrays.asList((String[]) listed));
+      }
+      Set<String> current = new HashSet<>();
+      for (Label label : node.getLabels()) {
+        current.add(label.name());
+      }
+      Set<String> explicit = new HashSet<>(current);
+      explicit.removeAll(inferred);
+      Set<String> desired = new HashSet<>();
+      for (String label : explicit) {
+        desired.addAll(superLabels(label));
+      }
+      desired.removeAll(explicit);
+      if (desired.equals(inferred) && desired.isEmpty() == (listed == null)) {
+        return;
+      }
+      for (String label : inferred) {
+        if (!desired.contains(label) && current.contains(label)) {
+          node.removeLabel(Label.label(label));
+          labelsRemoved++;
+        }
+      }
+      for (String label : desired) {
+        if (!current.contains(label)) {
+          node.addLabel(Label.label(label));
+          labelsAdded++;
+        }
+      }
+      if (desired.isEmpty()) {
+        node.removeProperty(INFERRED_LABELS);
+      } else {
+        node.setProperty(INFERRED_LABELS, desired.toArray(new String[0]));
+      }
+    }
+
+    /**
+     * Links the node to the categories above its explicit categories and deletes the inferred
+     * links that no longer are.
+     */
+    void refreshMemberships(Node node) {
+      Set<Long> explicit = new HashSet<>();
+      List<Relationship> inferred = new ArrayList<>();
+      for (Relationship rel : node.getRelationships(inCatRel, Direction.OUTGOING)) {
+        if (rel.hasProperty(INFERRED)) {
+          inferred.add(rel);
+        } else {
+          explicit.add(rel.getEndNodeId());
+        }
+      }
+      Set<Long> desired = new HashSet<>();
+      for (long category : explicit) {
+        desired.addAll(superCategories(category));
+      }
+      desired.removeAll(explicit);
+      for (Relationship rel : inferred) {
+        // also removes duplicates
+        if (!desired.remove(rel.getEndNodeId())) {
+          rel.delete();
+          relationshipsDeleted++;
+        }
+      }
+      for (long category : desired) {
+        node.createRelationshipTo(gds.getNodeById(category), inCatRel)
+            .setProperty(INFERRED, true);
+        relationshipsCreated++;
+      }
+    }
+
+    /**
+     * Creates the relationships of the types above the types of the explicit outgoing
+     * relationships of the node and deletes the inferred relationships that no longer are.
+     */
+    void refreshRelationships(Node node) {
+      Map<Long, Set<String>> explicit = new HashMap<>();
+      Map<Long, List<Relationship>> inferred = new HashMap<>();
+      for (Relationship rel : node.getRelationships(Direction.OUTGOING)) {
+        if (rel.isType(inCatRel)) {
+          continue;
+        }
+        if (rel.hasProperty(INFERRED)) {
+          inferred.computeIfAbsent(rel.getEndNodeId(), id -> new ArrayList<>()).add(rel);
+        } else {
+          explicit.computeIfAbsent(rel.getEndNodeId(), id -> new HashSet<>())
+              .add(rel.getType().name());
+        }
+      }
+      Set<Long> ends = new HashSet<>(explicit.keySet());
+      ends.addAll(inferred.keySet());
+      for (long end : ends) {
+        Set<String> types = explicit.getOrDefault(end, Collections.emptySet());
+        Set<String> desired = new HashSet<>();
+        for (String type : types) {
+          desired.addAll(superRelationshipTypes(type));
+        }
+        desired.removeAll(types);
+        for (Relationship rel : inferred.getOrDefault(end, Collections.emptyList())) {
+          if (!desired.remove(rel.getType().name())) {
+            rel.delete();
+            relationshipsDeleted++;
+          }
+        }
+        for (String type : desired) {
+          node.createRelationshipTo(gds.getNodeById(end), RelationshipType.withName(type))
+              .setProperty(INFERRED, true);
+          relationshipsCreated++;
+        }
+      }
+    }
+
+    private Set<String> superLabels(String label) {
+      return superLabels.computeIfAbsent(label,
+          l -> ancestorNames(catLabel, catNameProp, subLabelRel, l));
+    }
+
+    private Set<String> superRelationshipTypes(String type) {
+      return superRelationshipTypes.computeIfAbsent(type,
+          t -> ancestorNames(relLabel, relNameProp, subRelRel, t));
+    }
+
+    /**
+     * @return the names of the nodes above the ones with the given name in a hierarchy
+     */
+    private Set<String> ancestorNames(Label label, String nameProp, RelationshipType parentRel,
+        String name) {
+      Set<String> names = new HashSet<>();
+      Deque<Node> toVisit = new ArrayDeque<>();
+      IdBitmap visited = new IdBitmap();
+      try (ResourceIterator<Node> nodes = gds.findNodes(label, nameProp, name)) {
+        while (nodes.hasNext()) {
+          Node node = nodes.next();
+          visited.add(node.getId());
+          toVisit.push(node);
+        }
+      }
+      while (!toVisit.isEmpty()) {
+        for (Relationship rel : toVisit.pop().getRelationships(parentRel, Direction.OUTGOING)) {
+          Node parent = rel.getEndNode();
+          if (visited.add(parent.getId())) {
+            if (parent.hasLabel(label) && parent.hasProperty(nameProp)) {
+              names.add(parent.getProperty(nameProp).toString());
+            }
+            toVisit.push(parent);
+          }
+        }
+      }
+      names.remove(name);
+      return names;
+    }
+
+    private Set<Long> superCategories(long category) {
+      Set<Long> ancestors = superCategories.get(category);
+      if (ancestors == null) {
+        ancestors = new HashSet<>();
+        Deque<Node> toVisit = new ArrayDeque<>();
+        toVisit.push(gds.getNodeById(category));
+        while (!toVisit.isEmpty()) {
+          for (Relationship rel : toVisit.pop()
+              .getRelationships(subCatRel, Direction.OUTGOING)) {
+            if (rel.getEndNodeId() != category && ancestors.add(rel.getEndNodeId())) {
+              toVisit.push(rel.getEndNode());
+            }
+          }
+        }
+        superCategories.put(category, ancestors);
+      }
+      return ancestors;
+    }
+  }
+
+  private static class Holder extends TransactionEventHandler.Adapter<Integer> {
+
+    private final GraphDatabaseService gds;
+    private final Log log;
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile InferenceMaterialiser materialiser;
+
+    Holder(GraphDatabaseService gds) {
+      this.gds = gds;
+      this.log = ((GraphDatabaseAPI) gds).getDependencyResolver()
+          .resolveDependency(LogService.class, SelectionStrategy.ONLY)
+          .getUserLog(InferenceMaterialiser.class);
+    }
+
+    /**
+     * Refreshes the changed nodes and returns the hierarchies to re-materialise after the commit,
+     * if any.
+     */
+    @Override
+    public Integer beforeCommit(TransactionData data) {
+      // writes made here are part of the transaction and don't trigger the handler again
+      InferenceMaterialiser current = materialiser;
+      if (current == null || data.metaData().containsKey(MATERIALISING)) {
+        return null;
+      }
+      current.new Run(gds, ALL).changed(data);
+      int hierarchies = current.changedHierarchies(data);
+      return (hierarchies == 0 ? null : hierarchies);
+    }
+
+    @Override
+    public void afterCommit(TransactionData data, Integer hierarchies) {
+      // the committing transaction still holds its locks, so the refresh can't be waited for
+      if (hierarchies != null) {
+        pending.accumulateAndGet(hierarchies, (a, b) -> a | b);
+        refreshes.execute(() -> refresh(1));
+      }
+    }
+
+    /**
+     * Re-materialises the hierarchies changed since the last refresh, the changes of several
+     * transactions being refreshed at once. A failed refresh, on a deadlock with another
+     * transaction for instance, is retried a few times, waiting a bit longer each time.
+     */
+    private void refresh(int attempt) {
+      int hierarchies = pending.getAndSet(0);
+      InferenceMaterialiser current = materialiser;
+      if (hierarchies == 0 || current == null) {
+        return;
+      }
+      try {
+        current.new Run(gds, hierarchies).all();
+      } catch (RuntimeException e) {
+        pending.accumulateAndGet(hierarchies, (a, b) -> a | b);
+        if (attempt < REFRESH_ATTEMPTS) {
+          log.warn("Re-materialising inferred facts failed, retrying: %s", e.getMessage());
+          refreshes.schedule(() -> refresh(attempt + 1), attempt, TimeUnit.SECONDS);
+        } else {
+          log.error("Re-materialising inferred facts failed " + REFRESH_ATTEMPTS + " times, "
+              + "they are out of date until the next hierarchy change or materialisation", e);
+        }
+      }
+    }
+  }
+}
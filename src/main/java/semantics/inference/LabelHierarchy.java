@@ -0,0 +1,246 @@
+package semantics.inference;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.neo4j.graphdb.DependencyResolver.SelectionStrategy;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.event.LabelEntry;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.api.txstate.TxStateHolder;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import semantics.IdBitmap;
+import semantics.PerDatabase;
+
+/**
+ * The sublabels of each label in a hierarchy of categories, where categories are nodes with a
+ * label (catLabel) and a name property (catNameProp) linked to their parent categories by
+ * relationships of a type (subCatRel). The closure of a label is computed on first use with a
+ * traversal and kept until a transaction changes the hierarchy: creates or deletes a subCatRel
+ * relationship, adds or removes the catLabel label or changes the name of a category.
+ *
+ * <p>Closures are stamped with the version of the hierarchies they were read at, which committed
+ * changes bump once they are visible to other transactions. Closures are not cached while
+ * transactions are being committed, as a change may have been checked against the hierarchies
+ * watched before, nor when read in a transaction with changes of its own, as they may see changes
+ * that are never committed.</p>
+ *
+ * <p>Hierarchies of relationship types are defined the same way, with nodes naming relationship
+ * types linked to the ones of their supertypes.</p>
+ */
+class LabelHierarchy {
+
+  private static final PerDatabase<Holder> holders = new PerDatabase<>();
+
+  private final GraphDatabaseService gds;
+  private final Label catLabel;
+  private final String catNameProp;
+  private final RelationshipType subCatRel;
+  private final Holder holder;
+  private final Map<String, Closure> closures = new ConcurrentHashMap<>();
+
+  private LabelHierarchy(Holder holder, String catLabel, String catNameProp, String subCatRel) {
+    this.gds = holder.gds;
+    this.holder = holder;
+    this.catLabel = Label.label(catLabel);
+    this.catNameProp = catNameProp;
+    this.subCatRel = RelationshipType.withName(subCatRel);
+  }
+
+  /**
+   * Returns the hierarchy defined with the given label, name property and relationship type.
+   */
+  static LabelHierarchy get(GraphDatabaseService gds, String catLabel, String catNameProp,
+      String subCatRel) {
+    Holder holder = holders.get(gds, Holder::new);
+    List<String> key = Arrays.asList(catLabel, catNameProp, subCatRel);
+    LabelHierarchy hierarchy = holder.hierarchies.get(key);
+    if (hierarchy == null) {
+      // watched before any closure is read, commits checked against the names watched before
+      // are counted as committing until they are visible
+      holder.labels.add(catLabel);
+      holder.properties.add(catNameProp);
+      holder.relationshipTypes.add(subCatRel);
+      hierarchy = new LabelHierarchy(holder, catLabel, catNameProp, subCatRel);
+      LabelHierarchy existing = holder.hierarchies.putIfAbsent(key, hierarchy);
+      if (existing != null) {
+        hierarchy = existing;
+      }
+    }
+    return hierarchy;
+  }
+
+  /**
+   * @return the label and the names of all the categories below it in the hierarchy
+   */
+  Set<String> getSublabels(String label) {
+    return closure(label).sublabels;
+  }
+
+  /**
+   * @return the relationship type and all the types below it in the hierarchy
+   */
+  RelationshipType[] getSubtypes(String type) {
+    return closure(type).subtypes;
+  }
+
+  private Closure closure(String name) {
+    long current = holder.version.get();
+    Closure closure = closures.get(name);
+    if (closure == null || closure.version != current) {
+      boolean committing = holder.committing.get() > 0;
+      closure = new Closure(current, computeSublabels(name));
+      if (!committing && !hasChanges()) {
+        closures.put(name, closure);
+      }
+    }
+    return closure;
+  }
+
+  /**
+   * @return whether the transaction bound to the current thread has uncommitted changes
+   */
+  private boolean hasChanges() {
+    KernelTransaction ktx = ((GraphDatabaseAPI) gds).getDependencyResolver()
+        .resolveDependency(ThreadToStatementContextBridge.class, SelectionStrategy.ONLY)
+        .getKernelTransactionBoundToThisThread(false);
+    return ktx instanceof TxStateHolder && ((TxStateHolder) ktx).hasTxStateWithChanges();
+  }
+
+  private Set<String> computeSublabels(String label) {
+    Set<String> result = new HashSet<>();
+    result.add(label);
+    Deque<Node> toVisit = new ArrayDeque<>();
+    IdBitmap visited = new IdBitmap();
+    try (ResourceIterator<Node> categories = gds.findNodes(catLabel, catNameProp, label)) {
+      while (categories.hasNext()) {
+        Node category = categories.next();
+        visited.add(category.getId());
+        toVisit.push(category);
+      }
+    }
+    while (!toVisit.isEmpty()) {
+      Node category = toVisit.pop();
+      for (Relationship rel : category.getRelationships(subCatRel, Direction.INCOMING)) {
+        Node subcategory = rel.getStartNode();
+        if (visited.add(subcategory.getId())) {
+          if (subcategory.hasLabel(catLabel) && subcategory.hasProperty(catNameProp)) {
+            result.add(subcategory.getProperty(catNameProp).toString());
+          }
+          toVisit.push(subcategory);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * The sublabels of a label as read at a version of the hierarchies.
+   */
+  private static class Closure {
+
+    private final long version;
+    private final Set<String> sublabels;
+    private final RelationshipType[] subtypes;
+
+    Closure(long version, Set<String> sublabels) {
+      this.version = version;
+      this.sublabels = Collections.unmodifiableSet(sublabels);
+      this.subtypes = sublabels.stream().map(RelationshipType::withName)
+          .toArray(RelationshipType[]::new);
+    }
+  }
+
+  private static class Holder extends TransactionEventHandler.Adapter<Boolean> {
+
+    private final GraphDatabaseService gds;
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicInteger committing = new AtomicInteger();
+    private final Map<List<String>, LabelHierarchy> hierarchies = new ConcurrentHashMap<>();
+    private final Set<String> labels = ConcurrentHashMap.newKeySet();
+    private final Set<String> properties = ConcurrentHashMap.newKeySet();
+    private final Set<String> relationshipTypes = ConcurrentHashMap.newKeySet();
+
+    Holder(GraphDatabaseService gds) {
+      this.gds = gds;
+    }
+
+    @Override
+    public Boolean beforeCommit(TransactionData data) {
+      committing.incrementAndGet();
+      return changesHierarchy(data);
+    }
+
+    /**
+     * Bumps the version if the committed transaction changed a watched hierarchy. The changes are
+     * visible to other transactions by now, so closures read from then on include them.
+     */
+    @Override
+    public void afterCommit(TransactionData data, Boolean changed) {
+      if (Boolean.TRUE.equals(changed)) {
+        version.incrementAndGet();
+      }
+      committing.decrementAndGet();
+    }
+
+    @Override
+    public void afterRollback(TransactionData data, Boolean changed) {
+      // only counted if beforeCommit was called
+      if (changed != null) {
+        committing.decrementAndGet();
+      }
+    }
+
+    private boolean changesHierarchy(TransactionData data) {
+      for (Relationship rel : data.createdRelationships()) {
+        if (relationshipTypes.contains(rel.getType().name())) {
+          return true;
+        }
+      }
+      for (Relationship rel : data.deletedRelationships()) {
+        if (relationshipTypes.contains(rel.getType().name())) {
+          return true;
+        }
+      }
+      for (LabelEntry entry : data.assignedLabels()) {
+        if (labels.contains(entry.label().name())) {
+          return true;
+        }
+      }
+      for (LabelEntry entry : data.removedLabels()) {
+        if (labels.contains(entry.label().name())) {
+          return true;
+        }
+      }
+      for (PropertyEntry<Node> entry : data.assignedNodeProperties()) {
+        if (properties.contains(entry.key())) {
+          return true;
+        }
+      }
+      for (PropertyEntry<Node> entry : data.removedNodeProperties()) {
+        if (properties.contains(entry.key())) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
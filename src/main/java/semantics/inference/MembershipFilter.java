@@ -0,0 +1,268 @@
+package semantics.inference;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.neo4j.graphdb.DependencyResolver.SelectionStrategy;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.helpers.collection.PrefetchingResourceIterator;
+import org.neo4j.internal.kernel.api.NodeCursor;
+import org.neo4j.internal.kernel.api.TokenRead;
+import org.neo4j.internal.kernel.api.helpers.RelationshipSelectionCursor;
+import org.neo4j.internal.kernel.api.helpers.RelationshipSelections;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import semantics.IdBitmap;
+import semantics.Util;
+
+/**
+ * Filters a set of candidate nodes keeping the ones explicitly or implicitly labelled with a label
+ * or in a category. The hierarchy is resolved once into the set of label ids or category node ids
+ * that make a node match, so each candidate costs a lookup per label or category of its own.
+ *
+ * <p>Candidates are filtered as they are read. In parallel mode they are split in chunks that are
+ * filtered in their own transactions, and the matches are returned in the order of the
+ * candidates. Those transactions only see committed data: candidates created in the uncommitted
+ * transaction of the caller don't match, whether filtered by label or by category.</p>
+ */
+class MembershipFilter {
+
+  static final int DEFAULT_CHUNK_SIZE = 10000;
+
+  private final GraphDatabaseService gds;
+  private final MatcherFactory matchers;
+
+  private MembershipFilter(GraphDatabaseService gds, MatcherFactory matchers) {
+    this.gds = gds;
+    this.matchers = matchers;
+  }
+
+  /**
+   * Matches the nodes with any of the labels. Label names are resolved in the transaction bound to
+   * the current thread.
+   */
+  static MembershipFilter withLabels(GraphDatabaseService gds, Iterable<String> labels) {
+    TokenRead tokens = kernelTransaction(gds).tokenRead();
+    BitSet labelIds = new BitSet();
+    for (String label : labels) {
+      int id = tokens.nodeLabel(label);
+      if (id != TokenRead.NO_TOKEN) {
+        labelIds.set(id);
+      }
+    }
+    return new MembershipFilter(gds, () -> {
+      KernelTransaction ktx = kernelTransaction(gds);
+      NodeCursor cursor = ktx.cursors().allocateNodeCursor();
+      return new Matcher() {
+        @Override
+        boolean matches(long nodeId) {
+          ktx.dataRead().singleNode(nodeId, cursor);
+          if (cursor.next()) {
+            for (long label : cursor.labels().all()) {
+              if (labelIds.get((int) label)) {
+                return true;
+              }
+            }
+          }
+          return false;
+        }
+
+        @Override
+        public void close() {
+          cursor.close();
+        }
+      };
+    });
+  }
+
+  /**
+   * Matches the nodes linked by inCatRel to the category or any category below it. The
+   * categories are read in the transaction bound to the current thread.
+   */
+  static MembershipFilter inCategory(GraphDatabaseService gds, Node category,
+      RelationshipType inCatRel, RelationshipType subCatRel) {
+    long[] categoryIds = subcategoryIds(category, subCatRel);
+    int inCatType = kernelTransaction(gds).tokenRead().relationshipType(inCatRel.name());
+    int[] types = {inCatType};
+    return new MembershipFilter(gds, () -> {
+      KernelTransaction ktx = kernelTransaction(gds);
+      NodeCursor cursor = ktx.cursors().allocateNodeCursor();
+      return new Matcher() {
+        @Override
+        boolean matches(long nodeId) {
+          if (inCatType == TokenRead.NO_TOKEN) {
+            return false;
+          }
+          ktx.dataRead().singleNode(nodeId, cursor);
+          if (!cursor.next()) {
+            return false;
+          }
+          try (RelationshipSelectionCursor rels = RelationshipSelections
+              .outgoingCursor(ktx.cursors(), cursor, types)) {
+            while (rels.next()) {
+              if (Arrays.binarySearch(categoryIds, rels.targetNodeReference()) >= 0) {
+                return true;
+              }
+            }
+          }
+          return false;
+        }
+
+        @Override
+        public void close() {
+          cursor.close();
+        }
+      };
+    });
+  }
+
+  /**
+   * @return the sorted ids of the category and all the categories below it
+   */
+  private static long[] subcategoryIds(Node category, RelationshipType subCatRel) {
+    long[] ids = new long[16];
+    int size = 0;
+    Deque<Node> toVisit = new ArrayDeque<>();
+    IdBitmap visited = new IdBitmap();
+    visited.add(category.getId());
+    toVisit.push(category);
+    while (!toVisit.isEmpty()) {
+      Node current = toVisit.pop();
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, size * 2);
+      }
+      ids[size++] = current.getId();
+      for (Relationship rel : current.getRelationships(subCatRel, Direction.INCOMING)) {
+        if (visited.add(rel.getStartNodeId())) {
+          toVisit.push(rel.getStartNode());
+        }
+      }
+    }
+    ids = Arrays.copyOf(ids, size);
+    Arrays.sort(ids);
+    return ids;
+  }
+
+  private static KernelTransaction kernelTransaction(GraphDatabaseService gds) {
+    return ((GraphDatabaseAPI) gds).getDependencyResolver()
+        .resolveDependency(ThreadToStatementContextBridge.class, SelectionStrategy.ONLY)
+        .getKernelTransactionBoundToThisThread(true);
+  }
+
+  /**
+   * Filters the candidates in the transaction bound to the current thread.
+   */
+  ResourceIterator<Node> filter(Iterator<Node> candidates) {
+    Matcher matcher = matchers.create();
+    return new PrefetchingResourceIterator<Node>() {
+      private boolean closed;
+
+      @Override
+      protected Node fetchNextOrNull() {
+        while (candidates.hasNext()) {
+          Node candidate = candidates.next();
+          if (matcher.matches(candidate.getId())) {
+            return candidate;
+          }
+        }
+        close();
+        return null;
+      }
+
+      @Override
+      public void close() {
+        if (!closed) {
+          closed = true;
+          matcher.close();
+        }
+      }
+    };
+  }
+
+  /**
+   * Filters chunks of candidates in parallel, each one in its own transaction, keeping a bounded
+   * number of chunks in flight.
+   */
+  ResourceIterator<Node> filterInParallel(Iterator<Node> candidates, int chunkSize) {
+    int maxChunksInFlight = Runtime.getRuntime().availableProcessors() * 2;
+    Deque<Future<long[]>> inFlight = new ArrayDeque<>();
+    return new PrefetchingResourceIterator<Node>() {
+      private long[] matches = new long[0];
+      private int next;
+
+      @Override
+      protected Node fetchNextOrNull() {
+        while (next == matches.length) {
+          while (candidates.hasNext() && inFlight.size() < maxChunksInFlight) {
+            long[] chunk = new long[chunkSize];
+            int size = 0;
+            while (size < chunkSize && candidates.hasNext()) {
+              chunk[size++] = candidates.next().getId();
+            }
+            final long[] ids = Arrays.copyOf(chunk, size);
+            inFlight.add(Util.inTxFuture(Util.DEFAULT, gds, () -> filterChunk(ids)));
+          }
+          if (inFlight.isEmpty()) {
+            return null;
+          }
+          try {
+            matches = inFlight.poll().get();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while filtering nodes", e);
+          } catch (ExecutionException e) {
+            throw new RuntimeException("Error filtering nodes: " + e.getCause().getMessage(),
+                e.getCause());
+          }
+          next = 0;
+        }
+        return gds.getNodeById(matches[next++]);
+      }
+
+      @Override
+      public void close() {
+        inFlight.forEach(f -> f.cancel(true));
+        inFlight.clear();
+      }
+    };
+  }
+
+  private long[] filterChunk(long[] ids) {
+    long[] matches = new long[ids.length];
+    int size = 0;
+    try (Matcher matcher = matchers.create()) {
+      for (long id : ids) {
+        if (matcher.matches(id)) {
+          matches[size++] = id;
+        }
+      }
+    }
+    return Arrays.copyOf(matches, size);
+  }
+
+  /**
+   * Checks nodes in the transaction bound to the thread that created it.
+   */
+  private abstract static class Matcher implements AutoCloseable {
+
+    abstract boolean matches(long nodeId);
+
+    @Override
+    public abstract void close();
+  }
+
+  private interface MatcherFactory {
+
+    Matcher create();
+  }
+}
@@ -1,22 +1,29 @@
 package semantics.inference;
 
-import static org.neo4j.graphdb.RelationshipType.withName;
-
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
+import org.eclipse.rdf4j.model.vocabulary.OWL;
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
-import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.PathExpanderBuilder;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.traversal.Evaluators;
+import org.neo4j.graphdb.traversal.TraversalDescription;
+import org.neo4j.graphdb.traversal.Uniqueness;
+import org.neo4j.helpers.collection.PrefetchingResourceIterator;
 import org.neo4j.logging.Log;
 import org.neo4j.procedure.Context;
 import org.neo4j.procedure.Description;
@@ -24,15 +31,24 @@ import org.neo4j.procedure.Mode;
 import org.neo4j.procedure.Name;
 import org.neo4j.procedure.Procedure;
 import org.neo4j.procedure.UserFunction;
+import semantics.IdBitmap;
+import semantics.OntologyImporter;
+import semantics.RDFParserConfig;
+import semantics.extension.ExportLookups;
+import semantics.query.ImportedGraph;
+import semantics.result.CategoryIndexResult;
+import semantics.result.ExpansionResult;
+import semantics.result.MaterialisationResult;
 import semantics.result.NodeResult;
 import semantics.result.RelAndNodeResult;
+import semantics.result.RuleResult;
+import semantics.result.SameAsClustersResult;
+import semantics.result.SourceRelAndNodeResult;
 
 public class MicroReasoners {
 
-  private static final String sloInferenceFormatReturnClassNames = "RETURN $virtLabel as l UNION MATCH (:`%1$s` { `%2$s`: $virtLabel})<-[:`%3$s`*]-(sl:`%1$s`) RETURN distinct sl.`%2$s` as l";
   private static final String scoInferenceCypher = "MATCH (cat)<-[:SCO*0..]-(subcat) WHERE id(cat) = $catId RETURN collect(DISTINCT id(subcat)) AS catIds";
   private static final String scoInferenceCypherBottomUp = "MATCH (cat)<-[:SCO*0..]-(subcat) WHERE id(subcat) = $catId RETURN collect(DISTINCT id(cat)) AS catIds";
-  private static final String sroInferenceFormatReturnRelNames = "RETURN $virtRel as r UNION MATCH (:`%1$s` { `%2$s`: $virtRel})<-[:`%3$s`*]-(sr:`%1$s`) RETURN DISTINCT sr.`%2$s` as r";
   private static final String DEFAULT_SLO_REL_NAME = "SLO";
   private static final String DEFAULT_SCO_REL_NAME = "SCO";
   private static final String DEFAULT_IN_CAT_REL_NAME = "IN_CAT";
@@ -41,6 +57,12 @@ public class MicroReasoners {
   private static final String DEFAULT_REL_LABEL_NAME = "Relationship";
   private static final String DEFAULT_REL_NAME_PROP_NAME = "name";
   private static final String DEFAULT_SRO_REL_NAME = "SRO";
+  private static final String DEFAULT_SPO_REL_NAME = "SPO";
+  private static final String DEFAULT_DOMAIN_REL_NAME = "DOMAIN";
+  private static final String DEFAULT_RANGE_REL_NAME = "RANGE";
+  private static final long DEFAULT_COMMIT_SIZE = 25000;
+  private static final String DEFAULT_EXPAND_UNIQUENESS = "NODE_GLOBAL";
+  private static final String DEFAULT_CANONICAL_REL_NAME = "CANONICAL";
   private static final boolean DEFAULT_SEARCH_TOP_DOWN = false;
 
   @Context
@@ -56,39 +78,59 @@ public class MicroReasoners {
   public Stream<NodeResult> nodesLabelled(@Name("label") String virtLabel,
       @Name(value = "params", defaultValue = "{}") Map<String, Object> props) {
 
-    Map<String, Object> params = new HashMap<String, Object>();
-    params.put("virtLabel", virtLabel);
-    Result results = db.execute(String.format(sloInferenceFormatReturnClassNames,
+    Set<String> sublabels = LabelHierarchy.get(db,
         (props.containsKey("catLabel") ? (String) props.get("catLabel") : DEFAULT_CAT_LABEL_NAME),
         (props.containsKey("catNameProp") ? (String) props.get("catNameProp")
             : DEFAULT_CAT_NAME_PROP_NAME),
-        (props.containsKey("subCatRel") ? (String) props.get("subCatRel") : DEFAULT_SLO_REL_NAME)),
-        params);
-    StringBuilder sb = new StringBuilder();
-    sb.append("cypher runtime=slotted ");
-    boolean isFirstSubLabel = true;
-    while (results.hasNext()) {
-      Map<String, Object> result = results.next();
-      String subLabel = (String) result.get("l");
-      if (!isFirstSubLabel) {
-        sb.append(" UNION ");
-      } else {
-        isFirstSubLabel = false;
+        (props.containsKey("subCatRel") ? (String) props.get("subCatRel") : DEFAULT_SLO_REL_NAME))
+        .getSublabels(virtLabel);
+    return scanLabels(sublabels).stream().map(NodeResult::new);
+  }
+
+  /**
+   * Scans the labels one after the other, opening each label scan when the previous one is
+   * exhausted. Nodes with more than one of the labels are returned once, the ids returned are
+   * kept in a bitmap.
+   */
+  private ResourceIterator<Node> scanLabels(Set<String> labels) {
+    Iterator<String> labelIterator = labels.iterator();
+    IdBitmap returned = (labels.size() > 1 ? new IdBitmap() : null);
+    return new PrefetchingResourceIterator<Node>() {
+      private ResourceIterator<Node> scan;
+
+      @Override
+      protected Node fetchNextOrNull() {
+        while (true) {
+          if (scan != null && scan.hasNext()) {
+            Node node = scan.next();
+            if (returned == null || returned.add(node.getId())) {
+              return node;
+            }
+          } else if (labelIterator.hasNext()) {
+            close();
+            scan = db.findNodes(Label.label(labelIterator.next()));
+          } else {
+            close();
+            return null;
+          }
+        }
       }
-      sb.append(" MATCH (x:`").append(subLabel).append("`) RETURN x as result ");
-    }
-    if (!sb.toString().equals("cypher runtime=slotted ")) {
-      return db.execute(sb.toString()).stream().map(n -> (Node) n.get("result"))
-          .map(NodeResult::new);
-    } else {
-      return null;
-    }
+
+      @Override
+      public void close() {
+        if (scan != null) {
+          scan.close();
+          scan = null;
+        }
+      }
+    };
   }
 
+
   /* in this case the node representing the category exist in the graph and is explicitly linked to the instances of the category
    *  hence the use of a node as param */
   @Procedure(mode = Mode.READ)
-  @Description("semantics.inference.nodesInCategory('category') - returns all nodes connected to Node 'catNode' or its subcategories.")
+  @Description("semantics.inference.nodesInCategory('category') - returns all nodes connected to Node 'catNode' or its subcategories. Use { limit: n } to get the first n only.")
   public Stream<NodeResult> nodesInCategory(@Name("category") Node catNode,
       @Name(value = "params", defaultValue = "{}") Map<String, Object> props) {
 
@@ -97,29 +139,57 @@ public class MicroReasoners {
     final String subCatRelName = (props.containsKey("subCatRel") ? (String) props.get("subCatRel")
         : DEFAULT_SCO_REL_NAME);
 
-    List<Long> subcatIds = getSubcatIds(catNode, subCatRelName);
-    Map<String, Object> params = new HashMap<>();
-    StringBuilder sb = new StringBuilder();
-    sb.append("cypher runtime=slotted ");
-    boolean isFirstSubLabel = true;
-    for (Long catId : subcatIds) {
-      if (!isFirstSubLabel) {
-        sb.append(" UNION ");
-      } else {
-        isFirstSubLabel = false;
+    Stream<NodeResult> nodes = scanCategory(catNode, RelationshipType.withName(inCatRelName),
+        RelationshipType.withName(subCatRelName)).stream().map(NodeResult::new);
+    return (props.containsKey("limit") ? nodes.limit(((Number) props.get("limit")).longValue())
+        : nodes);
+  }
+
+  /**
+   * Walks down the hierarchy from the category and returns the nodes linked to each category as
+   * it is reached, so that the first results don't wait for the whole hierarchy to be traversed.
+   * Categories and nodes already seen are kept in bitmaps.
+   */
+  private ResourceIterator<Node> scanCategory(Node catNode, RelationshipType inCatRel,
+      RelationshipType subCatRel) {
+    Deque<Node> toVisit = new ArrayDeque<>();
+    toVisit.push(catNode);
+    IdBitmap visited = new IdBitmap();
+    visited.add(catNode.getId());
+    IdBitmap returned = new IdBitmap();
+    return new PrefetchingResourceIterator<Node>() {
+      private Iterator<Relationship> members;
+
+      @Override
+      protected Node fetchNextOrNull() {
+        while (true) {
+          if (members != null && members.hasNext()) {
+            Node node = members.next().getStartNode();
+            if (returned.add(node.getId())) {
+              return node;
+            }
+          } else if (!toVisit.isEmpty()) {
+            Node category = toVisit.pop();
+            for (Relationship rel : category.getRelationships(subCatRel, Direction.INCOMING)) {
+              Node subcategory = rel.getStartNode();
+              if (visited.add(subcategory.getId())) {
+                toVisit.push(subcategory);
+              }
+            }
+            members = category.getRelationships(inCatRel, Direction.INCOMING).iterator();
+          } else {
+            return null;
+          }
+        }
       }
-      sb.append(" MATCH (x)-[:`").append(inCatRelName).append("`]->(cat) WHERE ID(cat)=$cat_")
-          .append(catId).append(" RETURN x as result ");
-      params.put("cat_" + catId, catId);
-    }
-    if (!sb.toString().equals("cypher runtime=slotted ")) {
-      return db.execute(sb.toString(), params).stream().map(n -> (Node) n.get("result"))
-          .map(NodeResult::new);
-    } else {
-      return null;
-    }
+
+      @Override
+      public void close() {
+      }
+    };
   }
 
+
   private List<Long> getSubcatIds(Node catNode, String subCatRelName) {
     Map<String, Object> params = new HashMap<String, Object>();
     params.put("catId", catNode.getId());
@@ -134,6 +204,63 @@ public class MicroReasoners {
         : scoInferenceCypherBottomUp.replace("SCO", subCatRelName)), params).next().get("catIds");
   }
 
+  @Procedure(mode = Mode.READ)
+  @Description("semantics.inference.indexCategories({}) - builds the reachability index of a category hierarchy used by inCategory. The index is kept up to date as the hierarchy changes.")
+  public Stream<CategoryIndexResult> indexCategories(
+      @Name(value = "params", defaultValue = "{}") Map<String, Object> props) {
+    final String subCatRelName = (props.containsKey("subCatRel") ? (String) props.get("subCatRel")
+        : DEFAULT_SCO_REL_NAME);
+    CategoryIndex index = CategoryIndex.build(db, subCatRelName);
+    return Stream.of(new CategoryIndexResult(subCatRelName, index.size(), index.links()));
+  }
+
+  @Procedure(mode = Mode.WRITE)
+  @Description("semantics.inference.materialise({}) - writes the labels inferred from the SLO hierarchy, the IN_CAT relationships inferred from the SCO hierarchy and the relationships inferred from the SRO hierarchy, in transactions of commitSize nodes, and keeps them up to date as the graph changes.")
+  public Stream<MaterialisationResult> materialise(
+      @Name(value = "params", defaultValue = "{}") Map<String, Object> props) {
+    InferenceMaterialiser materialiser = new InferenceMaterialiser(
+        (props.containsKey("catLabel") ? (String) props.get("catLabel") : DEFAULT_CAT_LABEL_NAME),
+        (props.containsKey("catNameProp") ? (String) props.get("catNameProp")
+            : DEFAULT_CAT_NAME_PROP_NAME),
+        (props.containsKey("subLabelRel") ? (String) props.get("subLabelRel")
+            : DEFAULT_SLO_REL_NAME),
+        (props.containsKey("inCatRel") ? (String) props.get("inCatRel")
+            : DEFAULT_IN_CAT_REL_NAME),
+        (props.containsKey("subCatRel") ? (String) props.get("subCatRel") : DEFAULT_SCO_REL_NAME),
+        (props.containsKey("relLabel") ? (String) props.get("relLabel") : DEFAULT_REL_LABEL_NAME),
+        (props.containsKey("relNameProp") ? (String) props.get("relNameProp")
+            : DEFAULT_REL_NAME_PROP_NAME),
+        (props.containsKey("subRelRel") ? (String) props.get("subRelRel")
+            : DEFAULT_SRO_REL_NAME),
+        (props.containsKey("commitSize") && (long) props.get("commitSize") > 0
+            ? (long) props.get("commitSize") : DEFAULT_COMMIT_SIZE));
+    InferenceMaterialiser.Run run = materialiser.materialise(db);
+    return Stream.of(new MaterialisationResult(run.labelsAdded, run.labelsRemoved,
+        run.relationshipsCreated, run.relationshipsDeleted));
+  }
+
+  @Procedure(mode = Mode.WRITE)
+  @Description("semantics.inference.applyRules({}) - infers the triples implied by the rdfs:domain, rdfs:range, rdfs:subClassOf, rdfs:subPropertyOf, owl:inverseOf, owl:TransitiveProperty and owl:sameAs statements in the graph and returns the number of triples inferred by each rule. "
+      + "Pass the handleVocabUris and applyNeo4jNaming settings the RDF was imported with.")
+  public Stream<RuleResult> applyRules(
+      @Name(value = "params", defaultValue = "{}") Map<String, Object> props) {
+    RuleReasoner reasoner = new RuleReasoner(db,
+        (props.containsKey("commitSize") && (long) props.get("commitSize") > 0
+            ? (long) props.get("commitSize") : DEFAULT_COMMIT_SIZE));
+    reasoner.readSchema(
+        (props.containsKey("subClassOfRel") ? (String) props.get("subClassOfRel")
+            : DEFAULT_SCO_REL_NAME),
+        (props.containsKey("subPropertyOfRel") ? (String) props.get("subPropertyOfRel")
+            : DEFAULT_SPO_REL_NAME),
+        (props.containsKey("domainRel") ? (String) props.get("domainRel")
+            : DEFAULT_DOMAIN_REL_NAME),
+        (props.containsKey("rangeRel") ? (String) props.get("rangeRel")
+            : DEFAULT_RANGE_REL_NAME),
+        new RDFParserConfig(props));
+    return reasoner.run().entrySet().stream()
+        .map(entry -> new RuleResult(entry.getKey(), entry.getValue()));
+  }
+
   @Procedure(mode = Mode.READ)
   @Description(
       "semantics.inference.getRels(node,'rel','>') - returns all outgoing relationships of type 'virtRel' "
@@ -142,51 +269,195 @@ public class MicroReasoners {
   public Stream<RelAndNodeResult> getRels(@Name("node") Node node, @Name("rel") String virtRel,
       @Name(value = "params", defaultValue = "{}") Map<String, Object> props) {
 
+    return StreamSupport.stream(node.getRelationships(getDirection(props),
+        getRelationshipTypes(virtRel, props)).spliterator(), false)
+        .map(n -> new RelAndNodeResult(n, n.getOtherNode(node)));
+
+  }
+
+  @Procedure(mode = Mode.READ)
+  @Description(
+      "semantics.inference.getRelsForNodes(nodes,'rel',{}) - returns the relationships of type 'virtRel' "
+          + "or its subtypes of each of the nodes along with the node and the other node.")
+  public Stream<SourceRelAndNodeResult> getRelsForNodes(@Name("nodes") List<Node> nodes,
+      @Name("rel") String virtRel,
+      @Name(value = "params", defaultValue = "{}") Map<String, Object> props) {
+
+    Direction direction = getDirection(props);
+    RelationshipType[] types = getRelationshipTypes(virtRel, props);
+    Iterator<Node> nodeIterator = nodes.iterator();
+    ResourceIterator<SourceRelAndNodeResult> results =
+        new PrefetchingResourceIterator<SourceRelAndNodeResult>() {
+          private Node source;
+          private Iterator<Relationship> rels = Collections.emptyIterator();
+
+          @Override
+          protected SourceRelAndNodeResult fetchNextOrNull() {
+            while (!rels.hasNext()) {
+              if (!nodeIterator.hasNext()) {
+                return null;
+              }
+              source = nodeIterator.next();
+              rels = source.getRelationships(direction, types).iterator();
+            }
+            Relationship rel = rels.next();
+            return new SourceRelAndNodeResult(source, rel, rel.getOtherNode(source));
+          }
+
+          @Override
+          public void close() {
+          }
+        };
+    return results.stream();
+  }
+
+  @Procedure(mode = Mode.READ)
+  @Description(
+      "semantics.inference.expand(nodes,'rel',{}) - traverses breadth first from the nodes along relationships of type 'virtRel' "
+          + "or its subtypes and returns the nodes reached, with their depth and optionally the paths to them.")
+  public Stream<ExpansionResult> expand(@Name("nodes") List<Node> nodes,
+      @Name("rel") String virtRel,
+      @Name(value = "params", defaultValue = "{}") Map<String, Object> props) {
+
+    Direction direction = getDirection(props);
+    PathExpanderBuilder expander = PathExpanderBuilder.empty();
+    for (RelationshipType type : getRelationshipTypes(virtRel, props)) {
+      expander = expander.add(type, direction);
+    }
+    String uniqueness = (props.containsKey("uniqueness") ? (String) props.get("uniqueness")
+        : DEFAULT_EXPAND_UNIQUENESS);
+    if (Arrays.stream(Uniqueness.values()).noneMatch(u -> u.name().equals(uniqueness))) {
+      throw new IllegalArgumentException("Unknown uniqueness: " + uniqueness + ". Use one of "
+          + Arrays.toString(Uniqueness.values()));
+    }
+    TraversalDescription traversal = db.traversalDescription().breadthFirst()
+        .expand(expander.build()).uniqueness(Uniqueness.valueOf(uniqueness));
+    traversal = traversal.evaluator(Evaluators.fromDepth(
+        (props.containsKey("minDepth") ? ((Long) props.get("minDepth")).intValue() : 1)));
+    if (props.containsKey("maxDepth")) {
+      traversal = traversal.evaluator(Evaluators.toDepth(((Long) props.get("maxDepth")).intValue()));
+    }
+    boolean returnPaths = (props.containsKey("returnPaths") && (boolean) props.get("returnPaths"));
+    return traversal.traverse(nodes).stream().map(path -> new ExpansionResult(path.endNode(),
+        path.length(), (returnPaths ? path : null)));
+  }
+
+  @Procedure(mode = Mode.READ)
+  @Description("semantics.inference.filterByLabel(nodes,label,{}) - returns the nodes explicitly or implicitly labeled as 'label'. "
+      + "With null nodes, the nodes labeled as params.scanLabel are filtered.")
+  public Stream<NodeResult> filterByLabel(@Name("nodes") List<Node> nodes,
+      @Name("label") String label,
+      @Name(value = "params", defaultValue = "{}") Map<String, Object> props) {
+    Set<String> sublabels = LabelHierarchy.get(db,
+        (props.containsKey("catLabel") ? (String) props.get("catLabel") : DEFAULT_CAT_LABEL_NAME),
+        (props.containsKey("catNameProp") ? (String) props.get("catNameProp")
+            : DEFAULT_CAT_NAME_PROP_NAME),
+        (props.containsKey("subCatRel") ? (String) props.get("subCatRel") : DEFAULT_SLO_REL_NAME))
+        .getSublabels(label);
+    return filter(MembershipFilter.withLabels(db, sublabels), nodes, props);
+  }
+
+  @Procedure(mode = Mode.READ)
+  @Description("semantics.inference.filterInCategory(nodes,category,{}) - returns the nodes explicitly or implicitly in a category. "
+      + "With null nodes, the nodes labeled as params.scanLabel are filtered.")
+  public Stream<NodeResult> filterInCategory(@Name("nodes") List<Node> nodes,
+      @Name("category") Node category,
+      @Name(value = "params", defaultValue = "{}") Map<String, Object> props) {
+    final String inCatRelName = (props.containsKey("inCatRel") ? (String) props.get("inCatRel")
+        : DEFAULT_IN_CAT_REL_NAME);
+    final String subCatRelName = (props.containsKey("subCatRel") ? (String) props.get("subCatRel")
+        : DEFAULT_SCO_REL_NAME);
+    return filter(MembershipFilter.inCategory(db, category,
+        RelationshipType.withName(inCatRelName), RelationshipType.withName(subCatRelName)),
+        nodes, props);
+  }
+
+  private Stream<NodeResult> filter(MembershipFilter filter, List<Node> nodes,
+      Map<String, Object> props) {
+    Iterator<Node> candidates;
+    if (nodes != null) {
+      candidates = nodes.iterator();
+    } else if (props.containsKey("scanLabel")) {
+      candidates = db.findNodes(Label.label((String) props.get("scanLabel")));
+    } else {
+      throw new IllegalArgumentException("Either a list of nodes or a scanLabel is required");
+    }
+    ResourceIterator<Node> matches;
+    if (props.containsKey("parallel") && (boolean) props.get("parallel")) {
+      matches = filter.filterInParallel(candidates, (props.containsKey("chunkSize")
+          ? ((Long) props.get("chunkSize")).intValue() : MembershipFilter.DEFAULT_CHUNK_SIZE));
+    } else {
+      matches = filter.filter(candidates);
+    }
+    Stream<NodeResult> results = matches.stream().map(NodeResult::new);
+    return (candidates instanceof ResourceIterator
+        ? results.onClose(((ResourceIterator<Node>) candidates)::close) : results);
+  }
+
+  @Procedure(mode = Mode.WRITE)
+  @Description("semantics.inference.clusterSameAs({}) - groups the nodes linked by owl:sameAs in clusters and links each node to the canonical node of its cluster. "
+      + "With merge: true the labels and properties of the nodes are copied to the canonical one. "
+      + "Pass the handleVocabUris and applyNeo4jNaming settings the RDF was imported with.")
+  public Stream<SameAsClustersResult> clusterSameAs(
+      @Name(value = "params", defaultValue = "{}") Map<String, Object> props) {
+    String sameAsRelName = (props.containsKey("sameAsRel") ? (String) props.get("sameAsRel")
+        : new ImportedGraph(db, ExportLookups.get(db), new RDFParserConfig(props))
+            .relationshipTypeName(OWL.SAMEAS));
+    if (sameAsRelName == null) {
+      // nothing imported with owl:sameAs
+      return Stream.of(new SameAsClustersResult(0, 0, 0, 0));
+    }
+    SameAsClusters clusters = new SameAsClusters(db, sameAsRelName,
+        (props.containsKey("canonicalRel") ? (String) props.get("canonicalRel")
+            : DEFAULT_CANONICAL_REL_NAME),
+        (props.containsKey("merge") && (boolean) props.get("merge")),
+        (props.containsKey("commitSize") && (long) props.get("commitSize") > 0
+            ? (long) props.get("commitSize") : DEFAULT_COMMIT_SIZE));
+    clusters.run();
+    return Stream.of(new SameAsClustersResult(clusters.clusters, clusters.clusteredNodes,
+        clusters.linksCreated, clusters.linksDeleted));
+  }
+
+  @UserFunction
+  @Description("semantics.inference.canonical(uri, {}) - returns the canonical node of the resource with the uri, as set by clusterSameAs, or its own node.")
+  public Node canonical(@Name("uri") String uri,
+      @Name(value = "params", defaultValue = "{}") Map<String, Object> props) {
+    Node node = db.findNode(OntologyImporter.RESOURCE, "uri", uri);
+    return node == null ? null : SameAsClusters.canonical(node, RelationshipType.withName(
+        (props.containsKey("canonicalRel") ? (String) props.get("canonicalRel")
+            : DEFAULT_CANONICAL_REL_NAME)));
+  }
+
+  private static Direction getDirection(Map<String, Object> props) {
     String directionString = (props.containsKey("relDir") ? (String) props.get("relDir") : "");
-    Direction direction = (directionString.equals(">") ? Direction.OUTGOING
+    return (directionString.equals(">") ? Direction.OUTGOING
         : (directionString.equals("<") ? Direction.INCOMING : Direction.BOTH));
+  }
 
-    Map<String, Object> params = new HashMap<String, Object>();
-    params.put("virtRel", virtRel);
-
-    Result results = db.execute(String.format(sroInferenceFormatReturnRelNames,
+  private RelationshipType[] getRelationshipTypes(String virtRel, Map<String, Object> props) {
+    return LabelHierarchy.get(db,
         (props.containsKey("relLabel") ? (String) props.get("relLabel") : DEFAULT_REL_LABEL_NAME),
         (props.containsKey("relNameProp") ? (String) props.get("relNameProp")
             : DEFAULT_REL_NAME_PROP_NAME),
-        (props.containsKey("subRelRel") ? (String) props.get("subRelRel") : DEFAULT_SRO_REL_NAME)),
-        params);
-    Set<RelationshipType> rts = new HashSet<RelationshipType>();
-    while (results.hasNext()) {
-      rts.add(withName((String) results.next().get("r")));
-    }
-
-    return StreamSupport.stream(
-        node.getRelationships(direction, rts.toArray(new RelationshipType[0])).spliterator(), true)
-        .map(n -> new RelAndNodeResult(n, n.getOtherNode(node)));
-
+        (props.containsKey("subRelRel") ? (String) props.get("subRelRel") : DEFAULT_SRO_REL_NAME))
+        .getSubtypes(virtRel);
   }
 
 
+
   @UserFunction
   @Description("semantics.inference.hasLabel(node,label,{}) - checks whether node is explicitly or implicitly labeled as 'label'.")
   public boolean hasLabel(
       @Name("node") Node individual,
       @Name("label") String label,
       @Name(value = "params", defaultValue = "{}") Map<String, Object> props) {
-    Map<String, Object> params = new HashMap<String, Object>();
-    params.put("virtLabel", label);
-    Result results = db.execute(String.format(sloInferenceFormatReturnClassNames,
+    // cached, as the function is evaluated once per row
+    Set<String> sublabels = LabelHierarchy.get(db,
         (props.containsKey("catLabel") ? (String) props.get("catLabel") : DEFAULT_CAT_LABEL_NAME),
         (props.containsKey("catNameProp") ? (String) props.get("catNameProp")
             : DEFAULT_CAT_NAME_PROP_NAME),
-        (props.containsKey("subCatRel") ? (String) props.get("subCatRel") : DEFAULT_SLO_REL_NAME)),
-        params);
-
-    Set<String> sublabels = new HashSet<>();
-    sublabels.add(label);
-    while (results.hasNext()) {
-      sublabels.add((String) results.next().get("l"));
-    }
+        (props.containsKey("subCatRel") ? (String) props.get("subCatRel") : DEFAULT_SLO_REL_NAME))
+        .getSublabels(label);
     Iterable<Label> labels = individual.getLabels();
     boolean is = false;
     for (Label l : labels) {
@@ -214,6 +485,17 @@ public class MicroReasoners {
     Iterator<Relationship> relIterator = individual
         .getRelationships(RelationshipType.withName(inCatRelName), Direction.OUTGOING).iterator();
 
+    CategoryIndex index = CategoryIndex.get(db, subCatRelName);
+    if (index != null) {
+      // both search directions give the same answer, a lookup per category of the node
+      while (relIterator.hasNext()) {
+        if (index.isInCategory(relIterator.next().getEndNodeId(), category.getId())) {
+          return true;
+        }
+      }
+      return false;
+    }
+
     if (searchTopDown) {
       List<Long> catIds = getSubcatIds(category, subCatRelName);
       boolean is = false;
@@ -0,0 +1,462 @@
+package semantics.inference;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.OWL;
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.ResourceIterator;
+import semantics.RDFParserConfig;
+import semantics.Util;
+import semantics.extension.ExportLookups;
+import semantics.query.ImportedGraph;
+
+/**
+ * Forward chaining of a subset of the RDFS and OWL 2 RL rules over data loaded with importRDF,
+ * with the schema loaded with importOntology or liteOntoImport (SCO, SPO, DOMAIN and RANGE
+ * relationships between the nodes of classes and properties) or with importRDF
+ * (rdfs:subClassOf, owl:inverseOf, rdf:type owl:TransitiveProperty...):
+ * <ul>
+ * <li>rdfs2 and rdfs3: types from the domain and range of properties</li>
+ * <li>rdfs7: relationships of the superproperties of a property</li>
+ * <li>rdfs9: types from the superclasses of a class</li>
+ * <li>prp-inv: relationships of the inverse of a property</li>
+ * <li>prp-trp: relationships implied by transitive properties</li>
+ * <li>eq-sym and eq-trans: symmetric and transitive closure of owl:sameAs</li>
+ * </ul>
+ * The schema hierarchies are closed before the data rules fire. Evaluation is semi-naive: the
+ * first round fires the rules on every fact in the graph and each following one only joins the
+ * facts the previous round inferred with the graph, until a round infers nothing new. Rules are
+ * fired in read transactions running in parallel, one per partition of the facts of a
+ * relationship type, and the inferred facts are written in transactions of commitSize facts.
+ * Inferred facts are written like imported ones, without any mark.
+ */
+class RuleReasoner {
+
+  static final String DOMAIN = "rdfs2";
+  static final String RANGE = "rdfs3";
+  static final String SUB_PROPERTY = "rdfs7";
+  static final String SUB_CLASS = "rdfs9";
+  static final String INVERSE = "prp-inv";
+  static final String TRANSITIVE = "prp-trp";
+  static final String SAME_AS_SYMMETRIC = "eq-sym";
+  static final String SAME_AS_TRANSITIVE = "eq-trans";
+
+  private static final int PARTITION_SIZE = 10000;
+
+  private final GraphDatabaseService gds;
+  private final long commitSize;
+  private final Map<String, Set<String>> superClasses = new HashMap<>();
+  private final Map<String, Set<String>> superProperties = new HashMap<>();
+  private final Map<String, Set<String>> domains = new HashMap<>();
+  private final Map<String, Set<String>> dataTypeDomains = new HashMap<>();
+  private final Map<String, Set<String>> ranges = new HashMap<>();
+  private final Map<String, Set<String>> inverses = new HashMap<>();
+  private final Set<String> transitive = new HashSet<>();
+  private String sameAs;
+  private final Map<String, Long> inferred = new LinkedHashMap<>();
+
+  RuleReasoner(GraphDatabaseService gds, long commitSize) {
+    this.gds = gds;
+    this.commitSize = commitSize;
+    for (String rule : new String[]{DOMAIN, RANGE, SUB_PROPERTY, SUB_CLASS, INVERSE, TRANSITIVE,
+        SAME_AS_SYMMETRIC, SAME_AS_TRANSITIVE}) {
+      inferred.put(rule, 0L);
+    }
+  }
+
+  /**
+   * Reads the schema in the transaction bound to the current thread. The relationship types of
+   * the RDFS vocabulary as imported by importRDF with the given settings are read as well as the
+   * given ones.
+   */
+  void readSchema(String subClassOfRel, String subPropertyOfRel, String domainRel,
+      String rangeRel, RDFParserConfig importConfig) {
+    ImportedGraph graph = new ImportedGraph(gds, ExportLookups.get(gds), importConfig);
+    Set<String> subClassOf = names(subClassOfRel, graph.relationshipTypeName(RDFS.SUBCLASSOF));
+    Set<String> subPropertyOf = names(subPropertyOfRel,
+        graph.relationshipTypeName(RDFS.SUBPROPERTYOF));
+    Set<String> domain = names(domainRel, graph.relationshipTypeName(RDFS.DOMAIN));
+    Set<String> range = names(rangeRel, graph.relationshipTypeName(RDFS.RANGE));
+    String inverseOf = graph.relationshipTypeName(OWL.INVERSEOF);
+    sameAs = graph.relationshipTypeName(OWL.SAMEAS);
+
+    Map<String, Set<String>> directSuperClasses = new HashMap<>();
+    Map<String, Set<String>> directSuperProperties = new HashMap<>();
+    for (Relationship rel : gds.getAllRelationships()) {
+      String type = rel.getType().name();
+      if (!subClassOf.contains(type) && !subPropertyOf.contains(type) && !domain.contains(type)
+          && !range.contains(type) && !type.equals(inverseOf)) {
+        continue;
+      }
+      IRI start = iri(rel.getStartNode());
+      IRI end = iri(rel.getEndNode());
+      if (start == null || end == null) {
+        continue;
+      }
+      if (subClassOf.contains(type)) {
+        add(directSuperClasses, className(graph, start), className(graph, end));
+      } else if (subPropertyOf.contains(type)) {
+        add(directSuperProperties, propertyName(graph, start), propertyName(graph, end));
+      } else if (domain.contains(type)) {
+        add(domains, propertyName(graph, start), className(graph, end));
+        String key = graph.propertyKey(start);
+        if (key != null) {
+          add(dataTypeDomains, key, className(graph, end));
+        }
+      } else if (range.contains(type)) {
+        add(ranges, propertyName(graph, start), className(graph, end));
+      } else if (type.equals(inverseOf)) {
+        add(inverses, propertyName(graph, start), propertyName(graph, end));
+        add(inverses, propertyName(graph, end), propertyName(graph, start));
+      }
+    }
+    String transitiveProperty = graph.labelName(OWL.TRANSITIVEPROPERTY);
+    if (transitiveProperty != null) {
+      try (ResourceIterator<Node> properties = gds
+          .findNodes(Label.label(transitiveProperty))) {
+        while (properties.hasNext()) {
+          IRI property = iri(properties.next());
+          if (property != null) {
+            transitive.add(propertyName(graph, property));
+          }
+        }
+      }
+    }
+    close(directSuperClasses, superClasses);
+    close(directSuperProperties, superProperties);
+  }
+
+  private static Set<String> names(String configured, String imported) {
+    Set<String> names = new HashSet<>();
+    names.add(configured);
+    if (imported != null) {
+      names.add(imported);
+    }
+    return names;
+  }
+
+  private static IRI iri(Node node) {
+    Object uri = node.getProperty("uri", null);
+    // blank nodes have no colon in their ids
+    return uri == null || uri.toString().indexOf(':') < 0 ? null
+        : SimpleValueFactory.getInstance().createIRI(uri.toString());
+  }
+
+  private static String className(ImportedGraph graph, IRI iri) {
+    String label = graph.labelName(iri);
+    return label != null ? label : graph.newLabelName(iri);
+  }
+
+  private static String propertyName(ImportedGraph graph, IRI iri) {
+    String type = graph.relationshipTypeName(iri);
+    return type != null ? type : graph.newRelationshipTypeName(iri);
+  }
+
+  private static void add(Map<String, Set<String>> map, String key, String value) {
+    map.computeIfAbsent(key, k -> new HashSet<>()).add(value);
+  }
+
+  /**
+   * Puts in closure all the elements reachable from each key of a hierarchy, but the key itself.
+   */
+  private static void close(Map<String, Set<String>> hierarchy,
+      Map<String, Set<String>> closure) {
+    for (String key : hierarchy.keySet()) {
+      Set<String> reachable = new HashSet<>();
+      Deque<String> toVisit = new ArrayDeque<>(hierarchy.get(key));
+      while (!toVisit.isEmpty()) {
+        String next = toVisit.pop();
+        if (reachable.add(next)) {
+          toVisit.addAll(hierarchy.getOrDefault(next, Collections.emptySet()));
+        }
+      }
+      reachable.remove(key);
+      if (!reachable.isEmpty()) {
+        closure.put(key, reachable);
+      }
+    }
+  }
+
+  /**
+   * Fires the rules until nothing new is inferred. The nodes are listed in the transaction bound
+   * to the current thread, everything else runs in transactions of its own.
+   *
+   * @return the number of facts inferred by each rule
+   */
+  Map<String, Long> run() {
+    Map<Fact, String> delta = write(firstRound());
+    while (!delta.isEmpty()) {
+      delta = write(round(delta));
+    }
+    return inferred;
+  }
+
+  private Map<Fact, String> firstRound() {
+    List<Future<Map<Fact, String>>> tasks = new ArrayList<>();
+    long[] partition = new long[PARTITION_SIZE];
+    int size = 0;
+    for (Node node : gds.getAllNodes()) {
+      partition[size++] = node.getId();
+      if (size == PARTITION_SIZE) {
+        tasks.add(fireOnNodes(partition, size));
+        partition = new long[PARTITION_SIZE];
+        size = 0;
+      }
+    }
+    if (size > 0) {
+      tasks.add(fireOnNodes(partition, size));
+    }
+    return collect(tasks);
+  }
+
+  private Future<Map<Fact, String>> fireOnNodes(long[] ids, int size) {
+    return Util.inTxFuture(Util.DEFAULT, gds, () -> {
+      Rules rules = new Rules();
+      for (int i = 0; i < size; i++) {
+        Node node = gds.getNodeById(ids[i]);
+        for (Label label : node.getLabels()) {
+          rules.fireOnLabel(node, label.name());
+        }
+        for (String key : node.getPropertyKeys()) {
+          for (String type : dataTypeDomains.getOrDefault(key, Collections.emptySet())) {
+            rules.infer(Fact.label(node.getId(), type), DOMAIN);
+          }
+        }
+        for (Relationship rel : node.getRelationships(Direction.OUTGOING)) {
+          rules.fireOnRelationship(rel.getStartNode(), rel.getType().name(), rel.getEndNode());
+        }
+      }
+      return rules.inferred;
+    });
+  }
+
+  /**
+   * Fires the rules on the facts of the previous round, partitioned by label or relationship
+   * type.
+   */
+  private Map<Fact, String> round(Map<Fact, String> delta) {
+    Map<String, List<Fact>> byName = new LinkedHashMap<>();
+    for (Fact fact : delta.keySet()) {
+      byName.computeIfAbsent(fact.name, n -> new ArrayList<>()).add(fact);
+    }
+    List<Future<Map<Fact, String>>> tasks = new ArrayList<>();
+    for (List<Fact> facts : byName.values()) {
+      for (int from = 0; from < facts.size(); from += PARTITION_SIZE) {
+        List<Fact> partition = facts.subList(from, Math.min(facts.size(), from + PARTITION_SIZE));
+        tasks.add(Util.inTxFuture(Util.DEFAULT, gds, () -> {
+          Rules rules = new Rules();
+          for (Fact fact : partition) {
+            if (fact.isLabel()) {
+              rules.fireOnLabel(gds.getNodeById(fact.start), fact.name);
+            } else {
+              rules.fireOnRelationship(gds.getNodeById(fact.start), fact.name,
+                  gds.getNodeById(fact.end));
+            }
+          }
+          return rules.inferred;
+        }));
+      }
+    }
+    return collect(tasks);
+  }
+
+  private Map<Fact, String> collect(List<Future<Map<Fact, String>>> tasks) {
+    Map<Fact, String> facts = new LinkedHashMap<>();
+    try {
+      for (Future<Map<Fact, String>> task : tasks) {
+        task.get().forEach(facts::putIfAbsent);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while firing rules", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Error firing rules: " + e.getCause().getMessage(),
+          e.getCause());
+    }
+    return facts;
+  }
+
+  /**
+   * Writes the facts that don't exist yet in transactions of commitSize facts.
+   *
+   * @return the facts written
+   */
+  private Map<Fact, String> write(Map<Fact, String> facts) {
+    Map<Fact, String> written = new LinkedHashMap<>();
+    List<Map.Entry<Fact, String>> entries = new ArrayList<>(facts.entrySet());
+    for (int from = 0; from < entries.size(); from += commitSize) {
+      List<Map.Entry<Fact, String>> batch = entries
+          .subList(from, (int) Math.min(entries.size(), from + commitSize));
+      Util.inTx(gds, () -> {
+        for (Map.Entry<Fact, String> entry : batch) {
+          Fact fact = entry.getKey();
+          Node start = gds.getNodeById(fact.start);
+          if (fact.isLabel()) {
+            if (start.hasLabel(Label.label(fact.name))) {
+              continue;
+            }
+            start.addLabel(Label.label(fact.name));
+          } else {
+            Node end = gds.getNodeById(fact.end);
+            if (exists(start, fact.name, end)) {
+              continue;
+            }
+            start.createRelationshipTo(end, RelationshipType.withName(fact.name));
+          }
+          inferred.merge(entry.getValue(), 1L, Long::sum);
+          written.put(fact, entry.getValue());
+        }
+        return null;
+      });
+    }
+    return written;
+  }
+
+  /**
+   * @return whether a relationship of the type links the nodes, exploring the node with the
+   * lowest degree
+   */
+  private static boolean exists(Node start, String type, Node end) {
+    RelationshipType relType = RelationshipType.withName(type);
+    if (start.getDegree(relType, Direction.OUTGOING) < end.getDegree(relType, Direction.INCOMING)) {
+      for (Relationship rel : start.getRelationships(relType, Direction.OUTGOING)) {
+        if (rel.getEndNodeId() == end.getId()) {
+          return true;
+        }
+      }
+    } else {
+      for (Relationship rel : end.getRelationships(relType, Direction.INCOMING)) {
+        if (rel.getStartNodeId() == start.getId()) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The facts inferred in one task, with the first rule that inferred each of them.
+   */
+  private class Rules {
+
+    private final Map<Fact, String> inferred = new LinkedHashMap<>();
+
+    private void fireOnLabel(Node node, String label) {
+      for (String superClass : superClasses.getOrDefault(label, Collections.emptySet())) {
+        infer(Fact.label(node.getId(), superClass), SUB_CLASS);
+      }
+    }
+
+    private void fireOnRelationship(Node start, String type, Node end) {
+      for (String superProperty : superProperties.getOrDefault(type, Collections.emptySet())) {
+        infer(Fact.relationship(start.getId(), superProperty, end.getId()), SUB_PROPERTY);
+      }
+      for (String inverse : inverses.getOrDefault(type, Collections.emptySet())) {
+        infer(Fact.relationship(end.getId(), inverse, start.getId()), INVERSE);
+      }
+      for (String domain : domains.getOrDefault(type, Collections.emptySet())) {
+        infer(Fact.label(start.getId(), domain), DOMAIN);
+      }
+      for (String range : ranges.getOrDefault(type, Collections.emptySet())) {
+        infer(Fact.label(end.getId(), range), RANGE);
+      }
+      if (type.equals(sameAs)) {
+        infer(Fact.relationship(end.getId(), type, start.getId()), SAME_AS_SYMMETRIC);
+        join(start, type, end, SAME_AS_TRANSITIVE);
+      } else if (transitive.contains(type)) {
+        join(start, type, end, TRANSITIVE);
+      }
+    }
+
+    /**
+     * Joins a relationship with the ones of the same type before and after it.
+     */
+    private void join(Node start, String type, Node end, String rule) {
+      RelationshipType relType = RelationshipType.withName(type);
+      for (Relationship next : end.getRelationships(relType, Direction.OUTGOING)) {
+        if (next.getEndNodeId() != start.getId()) {
+          infer(Fact.relationship(start.getId(), type, next.getEndNodeId()), rule);
+        }
+      }
+      for (Relationship previous : start.getRelationships(relType, Direction.INCOMING)) {
+        if (previous.getStartNodeId() != end.getId()) {
+          infer(Fact.relationship(previous.getStartNodeId(), type, end.getId()), rule);
+        }
+      }
+    }
+
+    private void infer(Fact fact, String rule) {
+      if (inferred.containsKey(fact)) {
+        return;
+      }
+      Node start = gds.getNodeById(fact.start);
+      boolean exists = fact.isLabel() ? start.hasLabel(Label.label(fact.name))
+          : exists(start, fact.name, gds.getNodeById(fact.end));
+      if (!exists) {
+        inferred.put(fact, rule);
+      }
+    }
+  }
+
+  /**
+   * A label of a node or a relationship between two nodes.
+   */
+  private static final class Fact {
+
+    private static final long NO_NODE = -1;
+
+    private final long start;
+    private final String name;
+    private final long end;
+
+    private Fact(long start, String name, long end) {
+      this.start = start;
+      this.name = name;
+      this.end = end;
+    }
+
+    static Fact label(long node, String label) {
+      return new Fact(node, label, NO_NODE);
+    }
+
+    static Fact relationship(long start, String type, long end) {
+      return new Fact(start, type, end);
+    }
+
+    boolean isLabel() {
+      return end == NO_NODE;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Fact)) {
+        return false;
+      }
+      Fact fact = (Fact) o;
+      return start == fact.start && end == fact.end && name.equals(fact.name);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * Long.hashCode(start) + name.hashCode()) + Long.hashCode(end);
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package semantics.inference;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import semantics.IdUnionFind;
+import semantics.Util;
+
+/**
+ * Groups the nodes linked by sameAs relationships, in any direction and through any number of
+ * them, in clusters and links every node in a cluster to its canonical node (the one with the
+ * lowest id) with a relationship of a type (canonicalRel), so that the canonical node of any
+ * member is one hop away. Canonical links are reconciled with the ones written by previous runs:
+ * the ones that no longer hold are deleted. Optionally, the labels and properties of the members
+ * are copied to the canonical node, without overwriting the properties it has.
+ */
+class SameAsClusters {
+
+  private final GraphDatabaseService gds;
+  private final RelationshipType sameAsRel;
+  private final RelationshipType canonicalRel;
+  private final boolean merge;
+  private final long commitSize;
+  long clusters;
+  long clusteredNodes;
+  long linksCreated;
+  long linksDeleted;
+
+  SameAsClusters(GraphDatabaseService gds, String sameAsRel, String canonicalRel, boolean merge,
+      long commitSize) {
+    this.gds = gds;
+    this.sameAsRel = RelationshipType.withName(sameAsRel);
+    this.canonicalRel = RelationshipType.withName(canonicalRel);
+    this.merge = merge;
+    this.commitSize = commitSize;
+  }
+
+  /**
+   * @return the canonical node of a node: the end of its canonical link or the node itself
+   */
+  static Node canonical(Node node, RelationshipType canonicalRel) {
+    Relationship link = node.getSingleRelationship(canonicalRel, Direction.OUTGOING);
+    return link == null ? node : link.getEndNode();
+  }
+
+  /**
+   * Reads the sameAs and canonical relationships in the transaction bound to the current thread
+   * and writes the changes in transactions of commitSize nodes.
+   */
+  void run() {
+    IdUnionFind sets = new IdUnionFind();
+    Map<Long, List<Relationship>> existingLinks = new HashMap<>();
+    for (Relationship rel : gds.getAllRelationships()) {
+      if (rel.isType(sameAsRel)) {
+        if (rel.getStartNodeId() != rel.getEndNodeId()) {
+          sets.union(rel.getStartNodeId(), rel.getEndNodeId());
+        }
+      } else if (rel.isType(canonicalRel)) {
+        existingLinks.computeIfAbsent(rel.getStartNodeId(), id -> new ArrayList<>()).add(rel);
+      }
+    }
+
+    List<long[]> members = new ArrayList<>();
+    sets.forEach(id -> {
+      long root = sets.find(id);
+      if (root == id) {
+        clusters++;
+      } else {
+        members.add(new long[]{id, root});
+      }
+      clusteredNodes++;
+    });
+
+    // links from nodes that are no longer in a cluster or are canonical now
+    List<Relationship> stale = new ArrayList<>();
+    existingLinks.forEach((id, links) -> {
+      if (sets.find(id) == id) {
+        stale.addAll(links);
+      }
+    });
+    for (int from = 0; from < stale.size(); from += commitSize) {
+      List<Relationship> batch = stale
+          .subList(from, (int) Math.min(stale.size(), from + commitSize));
+      Util.inTx(gds, () -> {
+        for (Relationship rel : batch) {
+          gds.getRelationshipById(rel.getId()).delete();
+          linksDeleted++;
+        }
+        return null;
+      });
+    }
+
+    for (int from = 0; from < members.size(); from += commitSize) {
+      List<long[]> batch = members
+          .subList(from, (int) Math.min(members.size(), from + commitSize));
+      Util.inTx(gds, () -> {
+        for (long[] member : batch) {
+          link(member[0], member[1], existingLinks.get(member[0]));
+        }
+        return null;
+      });
+    }
+  }
+
+  private void link(long memberId, long canonicalId, List<Relationship> existing) {
+    Node member = gds.getNodeById(memberId);
+    Node canonical = gds.getNodeById(canonicalId);
+    boolean linked = false;
+    if (existing != null) {
+      for (Relationship rel : existing) {
+        if (!linked && rel.getEndNodeId() == canonicalId) {
+          linked = true;
+        } else {
+          gds.getRelationshipById(rel.getId()).delete();
+          linksDeleted++;
+        }
+      }
+    }
+    if (!linked) {
+      member.createRelationshipTo(canonical, canonicalRel);
+      linksCreated++;
+    }
+    if (merge) {
+      for (Label label : member.getLabels()) {
+        canonical.addLabel(label);
+      }
+      member.getAllProperties().forEach((key, value) -> {
+        if (!key.equals("uri") && !canonical.hasProperty(key)) {
+          canonical.setProperty(key, value);
+        }
+      });
+    }
+  }
+}
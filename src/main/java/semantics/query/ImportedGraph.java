@@ -0,0 +1,252 @@
+package semantics.query;
+
+import static semantics.RDFImport.PREFIX_SEPARATOR;
+import static semantics.RDFParserConfig.URL_IGNORE;
+import static semantics.RDFParserConfig.URL_MAP;
+
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.datatypes.XMLDatatypeUtil;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.neo4j.graphdb.DependencyResolver.SelectionStrategy;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.internal.kernel.api.Read;
+import org.neo4j.internal.kernel.api.TokenRead;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import semantics.RDFParserConfig;
+import semantics.extension.ExportLookups;
+import semantics.extension.LiteralDecoder;
+import semantics.mapping.MappingUtils;
+
+/**
+ * Access to a graph created by importing RDF in terms of RDF: the labels, relationship types and
+ * property keys the importer created for a given IRI with the given handleVocabUris and
+ * applyNeo4jNaming settings, the nodes of resources and the literals stored in properties. With
+ * SHORTEN or KEEP, names are looked up shortened with the prefixes in the
+ * NamespacePrefixDefinition node or as full uris. With IGNORE or MAP, as the local names (or
+ * mapped names) the importer would have produced. Bound to the transaction it is created in.
+ */
+public class ImportedGraph {
+
+  static final Label RESOURCE = Label.label("Resource");
+
+  final GraphDatabaseService gds;
+  final ExportLookups namespaces;
+  final ValueFactory vf = SimpleValueFactory.getInstance();
+  final TokenRead tokens;
+  final Read read;
+  final long resourceCount;
+  private final LiteralDecoder literals;
+  private final RDFParserConfig config;
+  private final Map<String, String> mappings;
+
+  /**
+   * Looks up names as imported with the default settings (handleVocabUris: SHORTEN).
+   */
+  public ImportedGraph(GraphDatabaseService gds, ExportLookups namespaces) {
+    this(gds, namespaces, new RDFParserConfig(Collections.emptyMap()));
+  }
+
+  public ImportedGraph(GraphDatabaseService gds, ExportLookups namespaces,
+      RDFParserConfig config) {
+    this.gds = gds;
+    this.namespaces = namespaces;
+    this.config = config;
+    this.mappings = (config.getHandleVocabUris() == URL_MAP
+        ? MappingUtils.getImportMappingsFromDB(gds) : Collections.emptyMap());
+    this.literals = new LiteralDecoder(vf, namespaces);
+    KernelTransaction ktx = ((GraphDatabaseAPI) gds).getDependencyResolver()
+        .resolveDependency(ThreadToStatementContextBridge.class, SelectionStrategy.ONLY)
+        .getKernelTransactionBoundToThisThread(true);
+    this.tokens = ktx.tokenRead();
+    this.read = ktx.dataRead();
+    int resource = tokens.nodeLabel(RESOURCE.name());
+    this.resourceCount = (resource == TokenRead.NO_TOKEN ? 0 : read.countsForNode(resource));
+  }
+
+  /**
+   * @return the label of the nodes of a class or null if no node has been imported with it
+   */
+  public String labelName(IRI iri) {
+    return existingName(iri, TokenKind.LABEL);
+  }
+
+  public String relationshipTypeName(IRI iri) {
+    return existingName(iri, TokenKind.RELATIONSHIP_TYPE);
+  }
+
+  public String propertyKey(IRI iri) {
+    return existingName(iri, TokenKind.PROPERTY_KEY);
+  }
+
+  /**
+   * @return the label the importer gives to the IRI of a class with the settings of this graph
+   */
+  public String newLabelName(IRI iri) {
+    return candidateNames(iri, TokenKind.LABEL).get(0);
+  }
+
+  /**
+   * @return the relationship type the importer gives to the IRI of a property with the settings
+   * of this graph
+   */
+  public String newRelationshipTypeName(IRI iri) {
+    return candidateNames(iri, TokenKind.RELATIONSHIP_TYPE).get(0);
+  }
+
+  /**
+   * @return the name of the first candidate that exists as a token of the given kind or null
+   */
+  private String existingName(IRI iri, TokenKind kind) {
+    for (String candidate : candidateNames(iri, kind)) {
+      int id;
+      if (kind == TokenKind.LABEL) {
+        id = tokens.nodeLabel(candidate);
+      } else if (kind == TokenKind.RELATIONSHIP_TYPE) {
+        id = tokens.relationshipType(candidate);
+      } else {
+        id = tokens.propertyKey(candidate);
+      }
+      if (id != TokenRead.NO_TOKEN) {
+        return candidate;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the names the importer could have given to an IRI with the settings of this graph,
+   * the one it gives to new IRIs first
+   */
+  private List<String> candidateNames(IRI iri, TokenKind kind) {
+    List<String> candidates = new ArrayList<>();
+    int handleVocabUris = config.getHandleVocabUris();
+    if (handleVocabUris == URL_IGNORE || handleVocabUris == URL_MAP) {
+      String mapped = mappings.get(iri.stringValue());
+      candidates.add(mapped != null ? mapped : localName(iri.getLocalName(), kind));
+      return candidates;
+    }
+    String prefix = namespaces.getNamespaces().get(iri.getNamespace());
+    if (prefix != null) {
+      candidates.add(prefix + PREFIX_SEPARATOR + iri.getLocalName());
+    }
+    candidates.add(iri.stringValue());
+    return candidates;
+  }
+
+  /**
+   * @return the local name with the Neo4j naming conventions applied if the importer does
+   */
+  private String localName(String localName, TokenKind kind) {
+    if (!config.isApplyNeo4jNaming() || localName.isEmpty()) {
+      return localName;
+    } else if (kind == TokenKind.LABEL) {
+      return localName.substring(0, 1).toUpperCase() + localName.substring(1);
+    } else if (kind == TokenKind.RELATIONSHIP_TYPE) {
+      return localName.toUpperCase();
+    }
+    return localName.substring(0, 1).toLowerCase() + localName.substring(1);
+  }
+
+  private enum TokenKind {LABEL, RELATIONSHIP_TYPE, PROPERTY_KEY}
+
+  /**
+   * @return the node of a resource given as a node, an IRI or a blank node, or null
+   */
+  Node node(Object value) {
+    if (value instanceof Node) {
+      return (Node) value;
+    } else if (value instanceof Resource) {
+      return gds.findNode(RESOURCE, "uri", ((Resource) value).stringValue());
+    }
+    return null;
+  }
+
+  /**
+   * @return the RDF term for a node (its uri as an IRI or a blank node) or the value itself
+   */
+  Value toValue(Object value) {
+    if (value instanceof Node) {
+      Object uri = ((Node) value).getProperty("uri", null);
+      if (uri == null) {
+        return vf.createBNode(String.valueOf(((Node) value).getId()));
+      }
+      return resource(uri.toString());
+    }
+    return (Value) value;
+  }
+
+  private Resource resource(String uri) {
+    // same as RDFEndpoint: stored blank node ids don't have a colon
+    return uri.indexOf(':') >= 0 ? vf.createIRI(uri) : vf.createBNode(uri);
+  }
+
+  static boolean isClassLabel(String label) {
+    return !(label.equals("Resource") || label.equals("URI") || label.equals("BNode"));
+  }
+
+  /**
+   * @return the classes of a resource, from the labels of its node
+   */
+  Stream<Value> classes(Node node) {
+    return StreamSupport.stream(node.getLabels().spliterator(), false)
+        .filter(l -> isClassLabel(l.name()))
+        .map(l -> namespaces.getVocabularyIRI(l.name()));
+  }
+
+  /**
+   * @return the literals stored in a property of a node, one per element for arrays
+   */
+  Stream<Value> literals(Node node, String propertyKey) {
+    Object value = node.getProperty(propertyKey, null);
+    if (value == null) {
+      return Stream.empty();
+    }
+    if (value.getClass().isArray()) {
+      List<Value> values = new ArrayList<>();
+      for (int i = 0; i < Array.getLength(value); i++) {
+        values.add(literals.createTypedLiteral(Array.get(value, i)));
+      }
+      return values.stream();
+    }
+    return Stream.of(literals.createTypedLiteral(value));
+  }
+
+  /**
+   * Literals with numeric datatypes are compared by value, as the importer stores all integers
+   * as longs and all decimals as doubles.
+   */
+  static boolean sameValue(Value a, Value b) {
+    if (a.equals(b)) {
+      return true;
+    }
+    if (a instanceof Literal && b instanceof Literal) {
+      IRI typeA = ((Literal) a).getDatatype();
+      IRI typeB = ((Literal) b).getDatatype();
+      if (XMLDatatypeUtil.isNumericDatatype(typeA) && XMLDatatypeUtil.isNumericDatatype(typeB)) {
+        try {
+          return new BigDecimal(a.stringValue()).compareTo(new BigDecimal(b.stringValue())) == 0;
+        } catch (NumberFormatException e) {
+          // NaN and infinities
+          return false;
+        }
+      }
+    }
+    return false;
+  }
+}
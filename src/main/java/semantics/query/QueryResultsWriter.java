@@ -0,0 +1,134 @@
+package semantics.query;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.eclipse.rdf4j.model.BNode;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
+import org.eclipse.rdf4j.rio.ntriples.NTriplesUtil;
+
+/**
+ * Streams the solutions of a {@link TriplePatternQuery} in one of the SPARQL 1.1 result formats:
+ * JSON (application/sparql-results+json) or TSV (text/tab-separated-values). Each solution is
+ * written as soon as the evaluator produces it.
+ */
+public class QueryResultsWriter {
+
+  public static final String JSON = "application/sparql-results+json";
+  public static final String TSV = "text/tab-separated-values";
+
+  private static final JsonFactory jsonFactory = new JsonFactory();
+
+  private final TriplePatternEvaluator evaluator;
+  private final List<String> variables;
+
+  public QueryResultsWriter(TriplePatternEvaluator evaluator, List<String> variables) {
+    this.evaluator = evaluator;
+    this.variables = variables;
+  }
+
+  /**
+   * @return the media type of the results for a format given as 'json' or 'tsv' or, when no format
+   * is given, for the Accept header. Defaults to JSON.
+   */
+  public static String getMediaType(String acceptHeaderParam, String format) {
+    if (format != null) {
+      return format.equalsIgnoreCase("tsv") ? TSV : JSON;
+    }
+    return acceptHeaderParam != null && acceptHeaderParam.contains(TSV) ? TSV : JSON;
+  }
+
+  public void write(Iterator<Map<String, Object>> solutions, String mediaType,
+      OutputStream outputStream) throws IOException {
+    if (mediaType.equals(TSV)) {
+      writeTSV(solutions, outputStream);
+    } else {
+      writeJSON(solutions, outputStream);
+    }
+  }
+
+  private void writeJSON(Iterator<Map<String, Object>> solutions, OutputStream outputStream)
+      throws IOException {
+    JsonGenerator json = jsonFactory.createJsonGenerator(outputStream, JsonEncoding.UTF8);
+    json.writeStartObject();
+    json.writeObjectFieldStart("head");
+    json.writeArrayFieldStart("vars");
+    for (String variable : variables) {
+      json.writeString(variable);
+    }
+    json.writeEndArray();
+    json.writeEndObject();
+    json.writeObjectFieldStart("results");
+    json.writeArrayFieldStart("bindings");
+    while (solutions.hasNext()) {
+      Map<String, Object> solution = solutions.next();
+      json.writeStartObject();
+      for (String variable : variables) {
+        Object bound = solution.get(variable);
+        if (bound != null) {
+          json.writeObjectFieldStart(variable);
+          writeJSONValue(json, evaluator.toValue(bound));
+          json.writeEndObject();
+        }
+      }
+      json.writeEndObject();
+    }
+    json.writeEndArray();
+    json.writeEndObject();
+    json.writeEndObject();
+    json.flush();
+  }
+
+  private void writeJSONValue(JsonGenerator json, Value value) throws IOException {
+    if (value instanceof IRI) {
+      json.writeStringField("type", "uri");
+      json.writeStringField("value", value.stringValue());
+    } else if (value instanceof BNode) {
+      json.writeStringField("type", "bnode");
+      json.writeStringField("value", ((BNode) value).getID());
+    } else {
+      Literal literal = (Literal) value;
+      json.writeStringField("type", "literal");
+      json.writeStringField("value", literal.getLabel());
+      if (literal.getLanguage().isPresent()) {
+        json.writeStringField("xml:lang", literal.getLanguage().get());
+      } else if (!literal.getDatatype().equals(XMLSchema.STRING)) {
+        json.writeStringField("datatype", literal.getDatatype().stringValue());
+      }
+    }
+  }
+
+  private void writeTSV(Iterator<Map<String, Object>> solutions, OutputStream outputStream)
+      throws IOException {
+    Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+    for (int i = 0; i < variables.size(); i++) {
+      writer.write((i > 0 ? "\t?" : "?") + variables.get(i));
+    }
+    writer.write("\n");
+    while (solutions.hasNext()) {
+      Map<String, Object> solution = solutions.next();
+      for (int i = 0; i < variables.size(); i++) {
+        if (i > 0) {
+          writer.write("\t");
+        }
+        Object bound = solution.get(variables.get(i));
+        if (bound != null) {
+          writer.write(NTriplesUtil.toNTriplesString(evaluator.toValue(bound)));
+        }
+      }
+      writer.write("\n");
+    }
+    writer.flush();
+  }
+}
@@ -0,0 +1,368 @@
+package semantics.query;
+
+import static semantics.query.ImportedGraph.RESOURCE;
+import static semantics.query.ImportedGraph.sameValue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.internal.kernel.api.Read;
+import semantics.extension.ExportLookups;
+import semantics.query.TriplePatternQuery.TriplePattern;
+
+/**
+ * Evaluates a {@link TriplePatternQuery} on a graph created by importing RDF. rdf:type patterns
+ * match labels, other predicates match relationship types (between Resource nodes) or property
+ * keys (literal values). The name of a predicate or class in the graph is found by trying the
+ * ways the importer names them (shortened with the prefixes in the NamespacePrefixDefinition
+ * node, full uri or local name) until one of them exists in the database.
+ *
+ * <p>Patterns are evaluated one after the other, each one for every solution of the previous
+ * ones. The order is chosen upfront from the counts store: the pattern expected to produce the
+ * fewest solutions goes first and patterns sharing variables with the ones before them are
+ * preferred, as each of their evaluations starts from a bound node. Solutions are produced lazily
+ * and must be consumed in the transaction the evaluator was created in.</p>
+ */
+public class TriplePatternEvaluator {
+
+  private final ImportedGraph graph;
+
+  public TriplePatternEvaluator(GraphDatabaseService gds, ExportLookups namespaces) {
+    this.graph = new ImportedGraph(gds, namespaces);
+  }
+
+  /**
+   * @return the solutions of the query, as maps from the selected variables to the values bound
+   * to them: {@link Node}s for the resources in the graph and {@link Value}s for literals and
+   * classes
+   */
+  public Iterator<Map<String, Object>> evaluate(TriplePatternQuery query) {
+    List<CompiledPattern> plan = plan(query.getPatterns());
+    List<String> variables = query.getVariables();
+    Iterator<Map<String, Object>> solutions = new SolutionIterator(plan);
+    return new Iterator<Map<String, Object>>() {
+      @Override
+      public boolean hasNext() {
+        return solutions.hasNext();
+      }
+
+      @Override
+      public Map<String, Object> next() {
+        Map<String, Object> solution = solutions.next();
+        Map<String, Object> selected = new HashMap<>();
+        for (String variable : variables) {
+          selected.put(variable, solution.get(variable));
+        }
+        return selected;
+      }
+    };
+  }
+
+  /**
+   * @return the RDF term for a value in a solution: the uri of a node as an IRI or a blank node
+   */
+  public Value toValue(Object value) {
+    return graph.toValue(value);
+  }
+
+  private List<CompiledPattern> plan(List<TriplePattern> patterns) {
+    List<CompiledPattern> remaining = new ArrayList<>();
+    for (TriplePattern pattern : patterns) {
+      remaining.add(new CompiledPattern(pattern));
+    }
+    List<CompiledPattern> plan = new ArrayList<>();
+    Set<String> bound = new HashSet<>();
+    while (!remaining.isEmpty()) {
+      CompiledPattern next = null;
+      double nextCost = Double.MAX_VALUE;
+      for (CompiledPattern pattern : remaining) {
+        double cost = pattern.cost(bound);
+        if (next == null || cost < nextCost) {
+          next = pattern;
+          nextCost = cost;
+        }
+      }
+      remaining.remove(next);
+      plan.add(next);
+      if (next.pattern.subject.isVariable()) {
+        bound.add(next.pattern.subject.variable);
+      }
+      if (next.pattern.object.isVariable()) {
+        bound.add(next.pattern.object.variable);
+      }
+    }
+    return plan;
+  }
+
+  /**
+   * A triple pattern with the graph elements it matches resolved: the label of the class of an
+   * rdf:type pattern, the relationship type and property key of any other predicate and the nodes
+   * of constant IRIs. A pattern that can't match anything in the graph is marked as empty.
+   */
+  private class CompiledPattern {
+
+    private final TriplePattern pattern;
+    private final boolean type;
+    private String label;
+    private RelationshipType relationshipType;
+    private String propertyKey;
+    private Node subjectNode;
+    private Node objectNode;
+    private boolean empty;
+    private final double estimate;
+
+    CompiledPattern(TriplePattern pattern) {
+      this.pattern = pattern;
+      this.type = pattern.predicate.equals(RDF.TYPE);
+      if (!pattern.subject.isVariable()) {
+        subjectNode = graph.node(pattern.subject.value);
+        empty = (subjectNode == null);
+      }
+      if (type) {
+        if (!pattern.object.isVariable()) {
+          label = pattern.object.value instanceof IRI ? graph.labelName((IRI) pattern.object.value) : null;
+          empty |= (label == null);
+        }
+      } else {
+        String typeName = graph.relationshipTypeName(pattern.predicate);
+        relationshipType = (typeName == null ? null : RelationshipType.withName(typeName));
+        propertyKey = graph.propertyKey(pattern.predicate);
+        if (!pattern.object.isVariable()) {
+          if (pattern.object.value instanceof Literal) {
+            relationshipType = null;
+          } else {
+            propertyKey = null;
+            objectNode = graph.node(pattern.object.value);
+            empty |= (objectNode == null);
+          }
+        }
+        empty |= (relationshipType == null && propertyKey == null);
+      }
+      this.estimate = empty ? 0 : estimate();
+    }
+
+    private double estimate() {
+      if (type) {
+        return label == null ? graph.resourceCount
+            : graph.read.countsForNode(graph.tokens.nodeLabel(label));
+      }
+      double estimate = 0;
+      if (relationshipType != null) {
+        estimate += graph.read.countsForRelationship(Read.ANY_LABEL,
+            graph.tokens.relationshipType(relationshipType.name()), Read.ANY_LABEL);
+      }
+      if (propertyKey != null) {
+        estimate += graph.resourceCount;
+      }
+      return estimate;
+    }
+
+    /**
+     * @return the expected number of solutions of the pattern for each solution of the patterns
+     * evaluated before, which have bound the given variables
+     */
+    double cost(Set<String> bound) {
+      boolean subjectBound = !pattern.subject.isVariable()
+          || bound.contains(pattern.subject.variable);
+      boolean objectBound = !pattern.object.isVariable()
+          || bound.contains(pattern.object.variable);
+      if (subjectBound || objectBound) {
+        // spread over the nodes it starts from
+        return estimate / Math.max(1, graph.resourceCount) / (subjectBound && objectBound ? 2 : 1);
+      }
+      return estimate;
+    }
+
+    Stream<Map<String, Object>> match(Map<String, Object> binding) {
+      if (empty) {
+        return Stream.empty();
+      }
+      Node subject = subjectNode;
+      if (pattern.subject.isVariable() && binding.containsKey(pattern.subject.variable)) {
+        subject = graph.node(binding.get(pattern.subject.variable));
+        if (subject == null) {
+          return Stream.empty();
+        }
+      }
+      if (type) {
+        return matchType(binding, subject);
+      }
+      Stream<Map<String, Object>> matches = Stream.empty();
+      if (relationshipType != null) {
+        matches = matchRelationship(binding, subject);
+      }
+      if (propertyKey != null) {
+        matches = Stream.concat(matches, matchProperty(binding, subject));
+      }
+      return matches;
+    }
+
+    private Stream<Map<String, Object>> matchType(Map<String, Object> binding, Node subject) {
+      String objectLabel = label;
+      if (pattern.object.isVariable() && binding.containsKey(pattern.object.variable)) {
+        Value object = toValue(binding.get(pattern.object.variable));
+        objectLabel = object instanceof IRI ? graph.labelName((IRI) object) : null;
+        if (objectLabel == null) {
+          return Stream.empty();
+        }
+      }
+      if (subject != null) {
+        if (objectLabel != null) {
+          return subject.hasLabel(Label.label(objectLabel)) ? Stream.of(binding) : Stream.empty();
+        }
+        return graph.classes(subject)
+            .map(c -> extend(binding, pattern.object.variable, c))
+            .filter(b -> b != null);
+      }
+      if (objectLabel != null) {
+        return graph.gds.findNodes(Label.label(objectLabel)).stream()
+            .filter(n -> n.hasLabel(RESOURCE))
+            .map(n -> extend(binding, pattern.subject.variable, n))
+            .filter(b -> b != null);
+      }
+      return graph.gds.findNodes(RESOURCE).stream()
+          .flatMap(n -> graph.classes(n)
+              .map(c -> extend(extend(binding, pattern.subject.variable, n),
+                  pattern.object.variable, c)))
+          .filter(b -> b != null);
+    }
+
+    private Stream<Map<String, Object>> matchRelationship(Map<String, Object> binding,
+        Node subject) {
+      Node object = objectNode;
+      if (pattern.object.isVariable() && binding.containsKey(pattern.object.variable)) {
+        object = graph.node(binding.get(pattern.object.variable));
+        if (object == null) {
+          return Stream.empty();
+        }
+      }
+      if (subject != null) {
+        Node end = object;
+        return relationships(subject, Direction.OUTGOING)
+            .filter(r -> end == null || r.getEndNodeId() == end.getId())
+            .map(r -> extend(binding, pattern.object.variable, r.getEndNode()))
+            .filter(b -> b != null);
+      }
+      if (object != null) {
+        return relationships(object, Direction.INCOMING)
+            .map(r -> extend(binding, pattern.subject.variable, r.getStartNode()))
+            .filter(b -> b != null);
+      }
+      return graph.gds.findNodes(RESOURCE).stream()
+          .flatMap(n -> relationships(n, Direction.OUTGOING))
+          .map(r -> extend(extend(binding, pattern.subject.variable, r.getStartNode()),
+              pattern.object.variable, r.getEndNode()))
+          .filter(b -> b != null);
+    }
+
+    private Stream<Relationship> relationships(Node node, Direction direction) {
+      return StreamSupport
+          .stream(node.getRelationships(direction, relationshipType).spliterator(), false)
+          .filter(r -> r.getOtherNode(node).hasLabel(RESOURCE));
+    }
+
+    private Stream<Map<String, Object>> matchProperty(Map<String, Object> binding,
+        Node subject) {
+      Value object = pattern.object.isVariable() ? null : pattern.object.value;
+      if (pattern.object.isVariable() && binding.containsKey(pattern.object.variable)) {
+        object = toValue(binding.get(pattern.object.variable));
+      }
+      Value expected = object;
+      if (subject != null) {
+        return graph.literals(subject, propertyKey)
+            .filter(l -> expected == null || sameValue(l, expected))
+            .map(l -> extend(binding, pattern.object.variable, l))
+            .filter(b -> b != null);
+      }
+      return graph.gds.findNodes(RESOURCE).stream()
+          .flatMap(n -> graph.literals(n, propertyKey)
+              .filter(l -> expected == null || sameValue(l, expected))
+              .map(l -> extend(extend(binding, pattern.subject.variable, n),
+                  pattern.object.variable, l)))
+          .filter(b -> b != null);
+    }
+  }
+
+  /**
+   * @return a copy of the binding with the variable bound to the value, the same binding if the
+   * variable is null (a constant in the pattern) or already bound to the same value, or null if
+   * it is bound to a different value
+   */
+  private Map<String, Object> extend(Map<String, Object> binding, String variable, Object value) {
+    if (binding == null || variable == null) {
+      return binding;
+    }
+    Object current = binding.get(variable);
+    if (current != null) {
+      return sameValue(toValue(current), toValue(value)) ? binding : null;
+    }
+    Map<String, Object> extended = new HashMap<>(binding);
+    extended.put(variable, value);
+    return extended;
+  }
+
+  /**
+   * Depth first evaluation of the plan: the iterator at each level of the stack produces the
+   * solutions of one more pattern.
+   */
+  private static class SolutionIterator implements Iterator<Map<String, Object>> {
+
+    private final List<CompiledPattern> plan;
+    private final Deque<Iterator<Map<String, Object>>> stack = new ArrayDeque<>();
+    private Map<String, Object> next;
+
+    SolutionIterator(List<CompiledPattern> plan) {
+      this.plan = plan;
+      stack.push(Collections.<Map<String, Object>>singletonList(new HashMap<>()).iterator());
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (next == null && !stack.isEmpty()) {
+        Iterator<Map<String, Object>> top = stack.peek();
+        if (!top.hasNext()) {
+          stack.pop();
+          continue;
+        }
+        Map<String, Object> binding = top.next();
+        int evaluated = stack.size() - 1;
+        if (evaluated == plan.size()) {
+          next = binding;
+        } else {
+          stack.push(plan.get(evaluated).match(binding).iterator());
+        }
+      }
+      return next != null;
+    }
+
+    @Override
+    public Map<String, Object> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Map<String, Object> result = next;
+      next = null;
+      return result;
+    }
+  }
+}
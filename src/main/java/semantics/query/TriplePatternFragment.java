@@ -0,0 +1,440 @@
+package semantics.query;
+
+import static semantics.query.ImportedGraph.RESOURCE;
+import static semantics.query.ImportedGraph.isClassLabel;
+import static semantics.query.ImportedGraph.sameValue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.LongFunction;
+import java.util.stream.Collectors;
+import org.eclipse.rdf4j.model.BNode;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.model.vocabulary.VOID;
+import org.eclipse.rdf4j.rio.RDFHandler;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.helpers.collection.Iterators;
+import org.neo4j.internal.kernel.api.NamedToken;
+import org.neo4j.internal.kernel.api.Read;
+import semantics.extension.ExportLookups;
+import semantics.extension.NodeScanIterator;
+
+/**
+ * A Triple Pattern Fragment (https://www.hydra-cg.com/spec/latest/triple-pattern-fragments/) of a
+ * graph created by importing RDF: the triples matching a pattern with any of subject, predicate
+ * and object bound, served in pages.
+ *
+ * <p>The triples are enumerated from anchor nodes in ascending id order: the subject when it is
+ * bound, the nodes with the label of the class in rdf:type patterns, the object node when only
+ * the object is bound (its incoming relationships) or every Resource otherwise. The labels and
+ * properties of an anchor are never split between pages, its relationships are taken in
+ * ascending id order. The cursor of the next page is therefore made of ids (segment.node or
+ * segment.node.relationship), so no triples of the previous pages are built again. Resuming seeks
+ * straight to the cursor when the subject or the object is bound. Label scans, for rdf:type
+ * patterns and for the Resource scan of the other patterns, have no seek and skip the labelled
+ * nodes up to the cursor as {@link NodeScanIterator} does.</p>
+ */
+public class TriplePatternFragment {
+
+  private static final String HYDRA = "http://www.w3.org/ns/hydra/core#";
+
+  private final ImportedGraph graph;
+  private final ValueFactory vf;
+  private final Value subject;
+  private final IRI predicate;
+  private final Value object;
+  private final List<Segment> segments = new ArrayList<>();
+  private boolean typePredicate;
+  private String label;
+  private RelationshipType relationshipType;
+  private String propertyKey;
+  private Node objectNode;
+  private long estimate;
+
+  /**
+   * @param subject bound subject or null
+   * @param predicate bound predicate or null
+   * @param object bound object or null
+   */
+  public TriplePatternFragment(GraphDatabaseService gds, ExportLookups namespaces, Value subject,
+      Value predicate, Value object) {
+    this.graph = new ImportedGraph(gds, namespaces);
+    this.vf = graph.vf;
+    this.subject = subject;
+    this.predicate = (predicate instanceof IRI ? (IRI) predicate : null);
+    this.object = object;
+    // no triple has a literal or a blank node as predicate
+    if (predicate == null || predicate instanceof IRI) {
+      plan();
+    }
+  }
+
+  private void plan() {
+    if (subject instanceof Literal) {
+      return;
+    }
+    if (predicate != null) {
+      typePredicate = predicate.equals(RDF.TYPE);
+      if (!typePredicate) {
+        String typeName = graph.relationshipTypeName(predicate);
+        relationshipType = (typeName == null ? null : RelationshipType.withName(typeName));
+        propertyKey = graph.propertyKey(predicate);
+        if (relationshipType == null && propertyKey == null) {
+          return;
+        }
+      }
+    }
+    if (object instanceof Resource) {
+      objectNode = graph.node(object);
+      if (object instanceof IRI && (predicate == null || typePredicate)) {
+        label = graph.labelName((IRI) object);
+      }
+    }
+    if (subject != null) {
+      Node node = graph.node(subject);
+      if (node != null) {
+        segments.add(new Segment(single(node), false, Direction.OUTGOING));
+        estimate = node.getDegree(Direction.OUTGOING) + node.getAllProperties().size();
+      }
+    } else if (object instanceof Resource) {
+      if (label != null) {
+        // rdf:type patterns with a class, from the label scan
+        segments.add(new Segment(labelled(label), true, Direction.OUTGOING));
+        estimate += graph.read.countsForNode(graph.tokens.nodeLabel(label));
+      }
+      if (objectNode != null && !typePredicate) {
+        segments.add(new Segment(single(objectNode), false, Direction.INCOMING));
+        estimate += (relationshipType == null ? objectNode.getDegree(Direction.INCOMING)
+            : objectNode.getDegree(relationshipType, Direction.INCOMING));
+      }
+    } else {
+      segments.add(new Segment(labelled(RESOURCE.name()), false, Direction.OUTGOING));
+      estimate = scanEstimate();
+    }
+  }
+
+  private long scanEstimate() {
+    long estimate = 0;
+    if (predicate == null || typePredicate) {
+      for (Iterator<NamedToken> it = graph.tokens.labelsGetAllTokens(); it.hasNext(); ) {
+        NamedToken token = it.next();
+        if (isClassLabel(token.name())) {
+          estimate += graph.read.countsForNode(token.id());
+        }
+      }
+    }
+    if (predicate == null) {
+      estimate += graph.read.countsForRelationship(Read.ANY_LABEL, Read.ANY_RELATIONSHIP_TYPE,
+          Read.ANY_LABEL);
+      estimate += graph.resourceCount;
+    } else if (!typePredicate) {
+      if (relationshipType != null) {
+        estimate += graph.read.countsForRelationship(Read.ANY_LABEL,
+            graph.tokens.relationshipType(relationshipType.name()), Read.ANY_LABEL);
+      }
+      if (propertyKey != null) {
+        estimate += graph.resourceCount;
+      }
+    }
+    return estimate;
+  }
+
+  /**
+   * @return an estimate of the number of triples in the fragment, from the counts store and the
+   * degree of the bound nodes
+   */
+  public long getEstimatedCount() {
+    return estimate;
+  }
+
+  /**
+   * Writes a page of the fragment.
+   *
+   * @param cursor as returned for the previous page or null for the first page
+   * @param pageSize the number of triples in the page. A page can have more triples, as the
+   * labels and properties of a node are always in the same page.
+   * @return the cursor of the next page or null if this is the last one
+   * @throws IllegalArgumentException if the cursor is not valid
+   */
+  public String writePage(String cursor, int pageSize, RDFHandler handler) {
+    long[] position = parseCursor(cursor);
+    int emitted = 0;
+    for (int segmentIndex = (int) position[0]; segmentIndex < segments.size(); segmentIndex++) {
+      Segment segment = segments.get(segmentIndex);
+      boolean resuming = segmentIndex == position[0];
+      long node = resuming ? position[1] : -1;
+      long relationship = resuming ? position[2] : -1;
+      // the node of a relationship cursor still has relationships to write
+      long done = (relationship >= 0 ? node - 1 : node);
+      try (ResourceIterator<Node> anchors = segment.anchors.apply(done)) {
+        while (anchors.hasNext()) {
+          Node anchor = anchors.next();
+          boolean midNode = anchor.getId() == node && relationship >= 0;
+          List<Statement> header = midNode ? Collections.emptyList() : segment.header(anchor);
+          List<Relationship> relationships = segment.typeOnly ? Collections.emptyList()
+              : segment.relationships(anchor, midNode ? relationship : -1,
+                  Math.max(1, pageSize - emitted - header.size()) + 1);
+          if (header.isEmpty() && relationships.isEmpty()) {
+            continue;
+          }
+          if (emitted >= pageSize) {
+            return segmentIndex + "." + done;
+          }
+          for (Statement statement : header) {
+            handler.handleStatement(statement);
+          }
+          emitted += header.size();
+          int remaining = Math.max(1, pageSize - emitted);
+          for (int i = 0; i < relationships.size(); i++) {
+            if (i == remaining) {
+              return segmentIndex + "." + anchor.getId() + "."
+                  + relationships.get(i - 1).getId();
+            }
+            handler.handleStatement(segment.statement(relationships.get(i)));
+            emitted++;
+          }
+          done = anchor.getId();
+        }
+      }
+    }
+    return null;
+  }
+
+  private long[] parseCursor(String cursor) {
+    long[] position = new long[]{0, -1, -1};
+    if (cursor != null && !cursor.isEmpty()) {
+      String[] parts = cursor.split("\\.");
+      if (parts.length < 2 || parts.length > 3) {
+        throw new IllegalArgumentException("Invalid cursor: " + cursor);
+      }
+      try {
+        for (int i = 0; i < parts.length; i++) {
+          position[i] = Long.parseLong(parts[i]);
+        }
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid cursor: " + cursor);
+      }
+      if (position[0] < 0 || position[0] >= segments.size()) {
+        throw new IllegalArgumentException("Invalid cursor: " + cursor);
+      }
+    }
+    return position;
+  }
+
+  /**
+   * Writes the metadata and hypermedia controls of a page: the estimated count of triples in the
+   * fragment, the link to the next page and the search form of the dataset.
+   *
+   * @param fragment the IRI of the page
+   * @param dataset the IRI of the dataset
+   * @param template the URI template to request fragments of the dataset, with subject,
+   * predicate and object variables
+   * @param next the IRI of the next page or null
+   */
+  public void writeMetadata(RDFHandler handler, IRI fragment, IRI dataset, String template,
+      IRI next, int pageSize) {
+    handler.handleNamespace("void", VOID.NAMESPACE);
+    handler.handleNamespace("hydra", HYDRA);
+    handler.handleStatement(vf.createStatement(fragment, VOID.TRIPLES, vf.createLiteral(estimate)));
+    handler.handleStatement(
+        vf.createStatement(fragment, hydra("totalItems"), vf.createLiteral(estimate)));
+    handler.handleStatement(
+        vf.createStatement(fragment, hydra("itemsPerPage"), vf.createLiteral(pageSize)));
+    if (next != null) {
+      handler.handleStatement(vf.createStatement(fragment, hydra("next"), next));
+    }
+    handler.handleStatement(vf.createStatement(dataset, RDF.TYPE, VOID.DATASET));
+    handler.handleStatement(vf.createStatement(dataset, RDF.TYPE, hydra("Collection")));
+    handler.handleStatement(vf.createStatement(dataset, VOID.SUBSET, fragment));
+    BNode search = vf.createBNode();
+    handler.handleStatement(vf.createStatement(dataset, hydra("search"), search));
+    handler.handleStatement(
+        vf.createStatement(search, hydra("template"), vf.createLiteral(template)));
+    handler.handleStatement(vf.createStatement(search, hydra("variableRepresentation"),
+        hydra("ExplicitRepresentation")));
+    String[] variables = new String[]{"subject", "predicate", "object"};
+    IRI[] properties = new IRI[]{RDF.SUBJECT, RDF.PREDICATE, RDF.OBJECT};
+    for (int i = 0; i < variables.length; i++) {
+      BNode mapping = vf.createBNode();
+      handler.handleStatement(vf.createStatement(search, hydra("mapping"), mapping));
+      handler.handleStatement(
+          vf.createStatement(mapping, hydra("variable"), vf.createLiteral(variables[i])));
+      handler.handleStatement(vf.createStatement(mapping, hydra("property"), properties[i]));
+    }
+  }
+
+  private IRI hydra(String localName) {
+    return vf.createIRI(HYDRA, localName);
+  }
+
+  /**
+   * Parses a term in the explicit representation used by TPF clients: IRIs as they are (or
+   * between angle brackets), literals quoted and followed by a language tag or a datatype and
+   * blank nodes with the _: prefix.
+   *
+   * @return the term or null if it is empty or a variable
+   */
+  public static Value parseTerm(String term, ValueFactory vf) {
+    if (term == null || term.isEmpty() || term.startsWith("?")) {
+      return null;
+    }
+    if (term.startsWith("\"")) {
+      int end = term.lastIndexOf('"');
+      if (end == 0) {
+        throw new IllegalArgumentException("Invalid literal: " + term);
+      }
+      String label = term.substring(1, end);
+      String suffix = term.substring(end + 1);
+      if (suffix.startsWith("@")) {
+        return vf.createLiteral(label, suffix.substring(1));
+      } else if (suffix.startsWith("^^")) {
+        String datatype = suffix.substring(2);
+        if (datatype.startsWith("<") && datatype.endsWith(">")) {
+          datatype = datatype.substring(1, datatype.length() - 1);
+        }
+        return vf.createLiteral(label, vf.createIRI(datatype));
+      }
+      return vf.createLiteral(label);
+    }
+    if (term.startsWith("_:")) {
+      return vf.createBNode(term.substring(2));
+    }
+    if (term.startsWith("<") && term.endsWith(">")) {
+      term = term.substring(1, term.length() - 1);
+    }
+    return vf.createIRI(term);
+  }
+
+  private LongFunction<ResourceIterator<Node>> labelled(String label) {
+    return after -> {
+      NodeScanIterator scan = new NodeScanIterator(graph.gds, Collections.singletonList(label),
+          after);
+      return Iterators.resourceIterator(scan, scan::close);
+    };
+  }
+
+  private LongFunction<ResourceIterator<Node>> single(Node node) {
+    return after -> Iterators.asResourceIterator(node.getId() > after
+        ? Collections.singletonList(node).iterator() : Collections.<Node>emptyIterator());
+  }
+
+  /**
+   * Triples enumerated from a sequence of anchor nodes: their labels and properties (or only
+   * the rdf:type triple of the bound class) and their outgoing relationships or, for the object
+   * node, the incoming ones.
+   */
+  private class Segment {
+
+    private final LongFunction<ResourceIterator<Node>> anchors;
+    private final boolean typeOnly;
+    private final Direction direction;
+
+    Segment(LongFunction<ResourceIterator<Node>> anchors, boolean typeOnly, Direction direction) {
+      this.anchors = anchors;
+      this.typeOnly = typeOnly;
+      this.direction = direction;
+    }
+
+    List<Statement> header(Node anchor) {
+      List<Statement> statements = new ArrayList<>();
+      if (typeOnly) {
+        statements.add(vf.createStatement((Resource) graph.toValue(anchor), RDF.TYPE, object));
+        return statements;
+      }
+      if (direction == Direction.INCOMING || object instanceof Resource && !typePredicate
+          && predicate != null) {
+        return statements;
+      }
+      Resource anchorSubject = (Resource) graph.toValue(anchor);
+      if (predicate == null || typePredicate) {
+        for (Label nodeLabel : anchor.getLabels()) {
+          if (isClassLabel(nodeLabel.name())) {
+            IRI type = graph.namespaces.getVocabularyIRI(nodeLabel.name());
+            if (object == null || sameValue(type, object)) {
+              statements.add(vf.createStatement(anchorSubject, RDF.TYPE, type));
+            }
+          }
+        }
+      }
+      if (object instanceof Resource || typePredicate) {
+        return statements;
+      }
+      List<String> keys = new ArrayList<>();
+      if (predicate == null) {
+        for (String key : anchor.getPropertyKeys()) {
+          if (!key.equals("uri")) {
+            keys.add(key);
+          }
+        }
+      } else if (propertyKey != null) {
+        keys.add(propertyKey);
+      }
+      for (String key : keys) {
+        IRI property = (predicate == null ? graph.namespaces.getVocabularyIRI(key) : predicate);
+        graph.literals(anchor, key)
+            .filter(l -> object == null || sameValue(l, object))
+            .forEach(l -> statements.add(vf.createStatement(anchorSubject, property, l)));
+      }
+      return statements;
+    }
+
+    /**
+     * @return the first relationships of the anchor in the fragment with an id greater than
+     * after, at most limit of them, in ascending id order
+     */
+    List<Relationship> relationships(Node anchor, long after, int limit) {
+      if (typePredicate || object instanceof Literal
+          || predicate != null && relationshipType == null) {
+        return Collections.emptyList();
+      }
+      if (object instanceof Resource && direction == Direction.OUTGOING && objectNode == null) {
+        return Collections.emptyList();
+      }
+      Iterable<Relationship> candidates = (relationshipType == null
+          ? anchor.getRelationships(direction) : anchor.getRelationships(relationshipType,
+          direction));
+      // keeps the smallest ids without sorting all the relationships of the node
+      PriorityQueue<Relationship> smallest = new PriorityQueue<>(
+          Comparator.comparingLong(Relationship::getId).reversed());
+      for (Relationship relationship : candidates) {
+        if (relationship.getId() <= after) {
+          continue;
+        }
+        Node other = relationship.getOtherNode(anchor);
+        if (!other.hasLabel(RESOURCE) || direction == Direction.OUTGOING && objectNode != null
+            && other.getId() != objectNode.getId()) {
+          continue;
+        }
+        smallest.add(relationship);
+        if (smallest.size() > limit) {
+          smallest.poll();
+        }
+      }
+      return smallest.stream().sorted(Comparator.comparingLong(Relationship::getId))
+          .collect(Collectors.toList());
+    }
+
+    Statement statement(Relationship relationship) {
+      IRI property = (predicate == null ? graph.namespaces
+          .getVocabularyIRI(relationship.getType().name()) : predicate);
+      return vf.createStatement((Resource) graph.toValue(relationship.getStartNode()), property,
+          graph.toValue(relationship.getEndNode()));
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package semantics.query;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.datatypes.XMLDatatypeUtil;
+import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.procedure.Context;
+import org.neo4j.procedure.Description;
+import org.neo4j.procedure.Mode;
+import org.neo4j.procedure.Name;
+import org.neo4j.procedure.Procedure;
+import semantics.extension.ExportLookups;
+import semantics.result.BindingsResult;
+
+public class TriplePatternQueries {
+
+  @Context
+  public GraphDatabaseService db;
+
+  @Procedure(mode = Mode.READ)
+  @Description("semantics.query.triplePatterns('SELECT ?s ?o { ?s a ex:Thing ; ex:name ?o }') - "
+      + "evaluates basic graph patterns on the imported RDF and returns one map of bindings per "
+      + "solution.")
+  public Stream<BindingsResult> triplePatterns(@Name("query") String query) {
+    ExportLookups namespaces = ExportLookups.get(db);
+    TriplePatternQuery parsed = TriplePatternQuery.parse(query, namespaces);
+    TriplePatternEvaluator evaluator = new TriplePatternEvaluator(db, namespaces);
+    Iterator<Map<String, Object>> solutions = evaluator.evaluate(parsed);
+    return StreamSupport
+        .stream(Spliterators.spliteratorUnknownSize(solutions, Spliterator.ORDERED), false)
+        .map(solution -> {
+          Map<String, Object> bindings = new HashMap<>();
+          for (Map.Entry<String, Object> binding : solution.entrySet()) {
+            bindings.put(binding.getKey(), toCypherValue(binding.getValue()));
+          }
+          return new BindingsResult(bindings);
+        });
+  }
+
+  /**
+   * Resources are returned as nodes, classes as uris and literals as numbers, booleans or their
+   * lexical value.
+   */
+  private static Object toCypherValue(Object value) {
+    if (!(value instanceof Literal)) {
+      return value instanceof IRI ? ((IRI) value).stringValue() : value;
+    }
+    Literal literal = (Literal) value;
+    IRI datatype = literal.getDatatype();
+    try {
+      if (XMLDatatypeUtil.isIntegerDatatype(datatype)) {
+        return literal.longValue();
+      } else if (XMLDatatypeUtil.isNumericDatatype(datatype)) {
+        return literal.doubleValue();
+      } else if (datatype.equals(XMLSchema.BOOLEAN)) {
+        return literal.booleanValue();
+      }
+    } catch (IllegalArgumentException e) {
+      // returned as a string below
+    }
+    return literal.getLabel();
+  }
+}
@@ -0,0 +1,445 @@
+package semantics.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.OWL;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
+import semantics.extension.ExportLookups;
+
+/**
+ * A basic graph pattern written in a subset of SPARQL: optional PREFIX declarations followed by
+ * triple patterns, either on their own or inside SELECT ... WHERE { }. Triple patterns can be
+ * abbreviated with ';' and ',' and the 'a' keyword. Prefixes not declared in the query are looked
+ * up in the NamespacePrefixDefinition node and then among rdf, rdfs, owl and xsd. Blank nodes in
+ * the patterns act as variables that are not returned. Variables are not supported in predicate
+ * position.
+ */
+public class TriplePatternQuery {
+
+  private static final Map<String, String> DEFAULT_PREFIXES = new HashMap<>();
+
+  static {
+    DEFAULT_PREFIXES.put("rdf", RDF.NAMESPACE);
+    DEFAULT_PREFIXES.put("rdfs", RDFS.NAMESPACE);
+    DEFAULT_PREFIXES.put("owl", OWL.NAMESPACE);
+    DEFAULT_PREFIXES.put("xsd", XMLSchema.NAMESPACE);
+  }
+
+  private final List<TriplePattern> patterns;
+  private final List<String> variables;
+
+  TriplePatternQuery(List<TriplePattern> patterns, List<String> variables) {
+    this.patterns = patterns;
+    this.variables = variables;
+  }
+
+  /**
+   * @param namespaces namespace definitions used to resolve prefixes not declared in the query,
+   * can be null
+   * @throws IllegalArgumentException if the query can't be parsed
+   */
+  public static TriplePatternQuery parse(String query, ExportLookups namespaces) {
+    return new Parser(query, namespaces).parse();
+  }
+
+  List<TriplePattern> getPatterns() {
+    return patterns;
+  }
+
+  /**
+   * @return the selected variables, all the variables in the patterns in order of appearance with
+   * SELECT * or no SELECT
+   */
+  public List<String> getVariables() {
+    return variables;
+  }
+
+  /**
+   * Subject, predicate and object of a triple pattern. Each term is either a variable or a
+   * constant {@link Value}.
+   */
+  static class TriplePattern {
+
+    final Term subject;
+    final IRI predicate;
+    final Term object;
+
+    TriplePattern(Term subject, IRI predicate, Term object) {
+      this.subject = subject;
+      this.predicate = predicate;
+      this.object = object;
+    }
+  }
+
+  static class Term {
+
+    final String variable;
+    final Value value;
+
+    private Term(String variable, Value value) {
+      this.variable = variable;
+      this.value = value;
+    }
+
+    static Term variable(String name) {
+      return new Term(name, null);
+    }
+
+    static Term constant(Value value) {
+      return new Term(null, value);
+    }
+
+    boolean isVariable() {
+      return variable != null;
+    }
+  }
+
+  private static class Parser {
+
+    private final String query;
+    private final ExportLookups namespaces;
+    private final ValueFactory vf = SimpleValueFactory.getInstance();
+    private final Map<String, String> prefixes = new HashMap<>();
+    private final Set<String> seenVariables = new LinkedHashSet<>();
+    private int pos;
+
+    Parser(String query, ExportLookups namespaces) {
+      this.query = query;
+      this.namespaces = namespaces;
+    }
+
+    TriplePatternQuery parse() {
+      while (keyword("PREFIX")) {
+        String name = prefixedNamePrefix();
+        prefixes.put(name, iriRef());
+      }
+      List<String> selected = null;
+      boolean braces = false;
+      if (keyword("SELECT")) {
+        if (!symbol('*')) {
+          selected = new ArrayList<>();
+          skipWhitespace();
+          while (pos < query.length() && (peek() == '?' || peek() == '$')) {
+            selected.add(variableName());
+            skipWhitespace();
+          }
+          if (selected.isEmpty()) {
+            throw error("Expected variables or * after SELECT");
+          }
+        }
+        keyword("WHERE");
+        expect('{');
+        braces = true;
+      } else if (symbol('{')) {
+        braces = true;
+      }
+      List<TriplePattern> patterns = new ArrayList<>();
+      skipWhitespace();
+      while (pos < query.length() && !(braces && peek() == '}')) {
+        triples(patterns);
+        if (!symbol('.')) {
+          break;
+        }
+        skipWhitespace();
+      }
+      if (braces) {
+        expect('}');
+      }
+      skipWhitespace();
+      if (pos < query.length()) {
+        throw error("Unexpected content");
+      }
+      if (patterns.isEmpty()) {
+        throw error("No triple patterns found");
+      }
+      List<String> variables = new ArrayList<>();
+      for (String variable : (selected == null ? seenVariables : selected)) {
+        if (!variable.startsWith("_:")) {
+          variables.add(variable);
+        }
+      }
+      return new TriplePatternQuery(patterns, Collections.unmodifiableList(variables));
+    }
+
+    private void triples(List<TriplePattern> patterns) {
+      Term subject = term();
+      if (!subject.isVariable() && !(subject.value instanceof IRI)) {
+        throw error("Subjects must be variables or IRIs");
+      }
+      do {
+        IRI predicate = predicate();
+        do {
+          patterns.add(new TriplePattern(subject, predicate, term()));
+        } while (symbol(','));
+        skipWhitespace();
+      } while (symbol(';') && !atEndOfTriples());
+    }
+
+    private boolean atEndOfTriples() {
+      skipWhitespace();
+      return pos >= query.length() || peek() == '.' || peek() == '}';
+    }
+
+    private IRI predicate() {
+      skipWhitespace();
+      if (pos < query.length() && (peek() == '?' || peek() == '$')) {
+        throw error("Variables in predicate position are not supported");
+      }
+      if (query.startsWith("a", pos) && (pos + 1 == query.length() || Character
+          .isWhitespace(query.charAt(pos + 1)))) {
+        pos++;
+        return RDF.TYPE;
+      }
+      Term term = term();
+      if (!(term.value instanceof IRI)) {
+        throw error("Predicates must be IRIs");
+      }
+      return (IRI) term.value;
+    }
+
+    private Term term() {
+      skipWhitespace();
+      if (pos >= query.length()) {
+        throw error("Unexpected end of query");
+      }
+      char c = peek();
+      if (c == '?' || c == '$') {
+        String name = variableName();
+        seenVariables.add(name);
+        return Term.variable(name);
+      } else if (c == '<') {
+        return Term.constant(vf.createIRI(iriRef()));
+      } else if (c == '"' || c == '\'') {
+        return Term.constant(literal());
+      } else if (c == '_' && query.startsWith("_:", pos)) {
+        pos += 2;
+        String name = "_:" + name();
+        seenVariables.add(name);
+        return Term.variable(name);
+      } else if (c == '+' || c == '-' || Character.isDigit(c)) {
+        return Term.constant(number());
+      } else if (query.startsWith("true", pos) && !isNameChar(charAt(pos + 4))) {
+        pos += 4;
+        return Term.constant(vf.createLiteral(true));
+      } else if (query.startsWith("false", pos) && !isNameChar(charAt(pos + 5))) {
+        pos += 5;
+        return Term.constant(vf.createLiteral(false));
+      }
+      return Term.constant(vf.createIRI(prefixedName()));
+    }
+
+    private Value literal() {
+      char quote = query.charAt(pos++);
+      StringBuilder label = new StringBuilder();
+      while (pos < query.length() && query.charAt(pos) != quote) {
+        char c = query.charAt(pos++);
+        if (c == '\\' && pos < query.length()) {
+          char escaped = query.charAt(pos++);
+          switch (escaped) {
+            case 'n':
+              label.append('\n');
+              break;
+            case 't':
+              label.append('\t');
+              break;
+            case 'r':
+              label.append('\r');
+              break;
+            default:
+              label.append(escaped);
+          }
+        } else {
+          label.append(c);
+        }
+      }
+      if (pos >= query.length()) {
+        throw error("Unterminated literal");
+      }
+      pos++;
+      if (pos < query.length() && query.charAt(pos) == '@') {
+        pos++;
+        int start = pos;
+        while (pos < query.length() && (Character.isLetterOrDigit(peek()) || peek() == '-')) {
+          pos++;
+        }
+        return vf.createLiteral(label.toString(), query.substring(start, pos));
+      } else if (query.startsWith("^^", pos)) {
+        pos += 2;
+        if (pos >= query.length()) {
+          throw error("Unexpected end of query");
+        }
+        String datatype = (peek() == '<' ? iriRef() : prefixedName());
+        return vf.createLiteral(label.toString(), vf.createIRI(datatype));
+      }
+      return vf.createLiteral(label.toString());
+    }
+
+    private Value number() {
+      int start = pos;
+      if (peek() == '+' || peek() == '-') {
+        pos++;
+      }
+      while (pos < query.length() && Character.isDigit(peek())) {
+        pos++;
+      }
+      IRI datatype = XMLSchema.INTEGER;
+      // a dot followed by a digit is a decimal point, otherwise it ends the triple
+      if (pos + 1 < query.length() && peek() == '.' && Character.isDigit(query.charAt(pos + 1))) {
+        pos++;
+        while (pos < query.length() && Character.isDigit(peek())) {
+          pos++;
+        }
+        datatype = XMLSchema.DECIMAL;
+      }
+      if (pos < query.length() && (peek() == 'e' || peek() == 'E')) {
+        pos++;
+        if (pos < query.length() && (peek() == '+' || peek() == '-')) {
+          pos++;
+        }
+        while (pos < query.length() && Character.isDigit(peek())) {
+          pos++;
+        }
+        datatype = XMLSchema.DOUBLE;
+      }
+      return vf.createLiteral(query.substring(start, pos), datatype);
+    }
+
+    private String prefixedName() {
+      String prefix = prefixedNamePrefix();
+      int start = pos;
+      while (pos < query.length() && isNameChar(peek())) {
+        pos++;
+      }
+      // a trailing dot ends the triple
+      while (pos > start && query.charAt(pos - 1) == '.') {
+        pos--;
+      }
+      return namespace(prefix) + query.substring(start, pos);
+    }
+
+    private String prefixedNamePrefix() {
+      skipWhitespace();
+      int colon = query.indexOf(':', pos);
+      if (colon < 0) {
+        throw error("Expected a prefixed name");
+      }
+      String prefix = query.substring(pos, colon);
+      for (int i = 0; i < prefix.length(); i++) {
+        if (!isNameChar(prefix.charAt(i))) {
+          throw error("Expected a prefixed name");
+        }
+      }
+      pos = colon + 1;
+      return prefix;
+    }
+
+    private String namespace(String prefix) {
+      String namespace = prefixes.get(prefix);
+      if (namespace == null && namespaces != null) {
+        namespace = namespaces.getNamespace(prefix);
+      }
+      if (namespace == null) {
+        namespace = DEFAULT_PREFIXES.get(prefix);
+      }
+      if (namespace == null) {
+        throw error("Prefix " + prefix + " is not defined");
+      }
+      return namespace;
+    }
+
+    private String iriRef() {
+      skipWhitespace();
+      expect('<');
+      int end = query.indexOf('>', pos);
+      if (end < 0) {
+        throw error("Unterminated IRI");
+      }
+      String iri = query.substring(pos, end);
+      pos = end + 1;
+      return iri;
+    }
+
+    private String variableName() {
+      pos++;
+      return name();
+    }
+
+    private String name() {
+      int start = pos;
+      while (pos < query.length() && (Character.isLetterOrDigit(peek()) || peek() == '_')) {
+        pos++;
+      }
+      if (start == pos) {
+        throw error("Expected a name");
+      }
+      return query.substring(start, pos);
+    }
+
+    private boolean keyword(String keyword) {
+      skipWhitespace();
+      if (query.regionMatches(true, pos, keyword, 0, keyword.length()) && !isNameChar(
+          charAt(pos + keyword.length()))) {
+        pos += keyword.length();
+        return true;
+      }
+      return false;
+    }
+
+    private boolean symbol(char symbol) {
+      skipWhitespace();
+      if (pos < query.length() && peek() == symbol) {
+        pos++;
+        return true;
+      }
+      return false;
+    }
+
+    private void expect(char symbol) {
+      if (!symbol(symbol)) {
+        throw error("Expected '" + symbol + "'");
+      }
+    }
+
+    private void skipWhitespace() {
+      while (pos < query.length()) {
+        char c = peek();
+        if (c == '#') {
+          while (pos < query.length() && peek() != '\n') {
+            pos++;
+          }
+        } else if (Character.isWhitespace(c)) {
+          pos++;
+        } else {
+          return;
+        }
+      }
+    }
+
+    private char peek() {
+      return query.charAt(pos);
+    }
+
+    private char charAt(int index) {
+      return index < query.length() ? query.charAt(index) : ' ';
+    }
+
+    private static boolean isNameChar(char c) {
+      return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.';
+    }
+
+    private IllegalArgumentException error(String message) {
+      return new IllegalArgumentException(message + " at position " + pos + " of the query");
+    }
+  }
+}
@@ -0,0 +1,12 @@
+package semantics.result;
+
+import java.util.Map;
+
+public class BindingsResult {
+
+  public final Map<String, Object> bindings;
+
+  public BindingsResult(Map<String, Object> bindings) {
+    this.bindings = bindings;
+  }
+}
@@ -0,0 +1,14 @@
+package semantics.result;
+
+public class CategoryIndexResult {
+
+  public final String subCatRel;
+  public final long categories;
+  public final long links;
+
+  public CategoryIndexResult(String subCatRel, long categories, long links) {
+    this.subCatRel = subCatRel;
+    this.categories = categories;
+    this.links = links;
+  }
+}
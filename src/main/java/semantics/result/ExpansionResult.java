@@ -0,0 +1,17 @@
+package semantics.result;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Path;
+
+public class ExpansionResult {
+
+  public final Node node;
+  public final long depth;
+  public final Path path;
+
+  public ExpansionResult(Node node, long depth, Path path) {
+    this.node = node;
+    this.depth = depth;
+    this.path = path;
+  }
+}
@@ -0,0 +1,25 @@
+package semantics.result;
+
+public class ExportedStatement {
+
+  public long nodeId;
+  public String subject;
+  public String predicate;
+  public String object;
+  public boolean isLiteral;
+  public String literalType;
+  public String literalLang;
+
+  public ExportedStatement(long nodeId, String subj, String pred, String obj, boolean isLiteral,
+      String literalType, String lang) {
+
+    this.nodeId = nodeId;
+    subject = subj;
+    predicate = pred;
+    object = obj;
+    this.isLiteral = isLiteral;
+    this.literalType = literalType;
+    literalLang = lang;
+  }
+
+}
@@ -0,0 +1,17 @@
+package semantics.result;
+
+public class MaterialisationResult {
+
+  public final long labelsAdded;
+  public final long labelsRemoved;
+  public final long relationshipsCreated;
+  public final long relationshipsDeleted;
+
+  public MaterialisationResult(long labelsAdded, long labelsRemoved, long relationshipsCreated,
+      long relationshipsDeleted) {
+    this.labelsAdded = labelsAdded;
+    this.labelsRemoved = labelsRemoved;
+    this.relationshipsCreated = relationshipsCreated;
+    this.relationshipsDeleted = relationshipsDeleted;
+  }
+}
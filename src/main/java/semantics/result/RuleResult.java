@@ -0,0 +1,12 @@
+package semantics.result;
+
+public class RuleResult {
+
+  public final String rule;
+  public final long triplesInferred;
+
+  public RuleResult(String rule, long triplesInferred) {
+    this.rule = rule;
+    this.triplesInferred = triplesInferred;
+  }
+}
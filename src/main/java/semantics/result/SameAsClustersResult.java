@@ -0,0 +1,17 @@
+package semantics.result;
+
+public class SameAsClustersResult {
+
+  public final long clusters;
+  public final long clusteredNodes;
+  public final long linksCreated;
+  public final long linksDeleted;
+
+  public SameAsClustersResult(long clusters, long clusteredNodes, long linksCreated,
+      long linksDeleted) {
+    this.clusters = clusters;
+    this.clusteredNodes = clusteredNodes;
+    this.linksCreated = linksCreated;
+    this.linksDeleted = linksDeleted;
+  }
+}
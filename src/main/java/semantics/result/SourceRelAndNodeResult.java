@@ -0,0 +1,17 @@
+package semantics.result;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+public class SourceRelAndNodeResult {
+
+  public final Node source;
+  public final Relationship rel;
+  public final Node node;
+
+  public SourceRelAndNodeResult(Node source, Relationship rel, Node node) {
+    this.source = source;
+    this.rel = rel;
+    this.node = node;
+  }
+}
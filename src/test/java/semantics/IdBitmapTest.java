@@ -0,0 +1,37 @@
+package semantics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+public class IdBitmapTest {
+
+  @Test
+  public void testAddAndContains() {
+    IdBitmap bitmap = new IdBitmap();
+    Set<Long> expected = new HashSet<>();
+    Random random = new Random(42);
+    // dense range forcing array to bitmap conversion plus sparse ids in other containers
+    for (long id = 0; id < 20000; id += 3) {
+      assertEquals(expected.add(id), bitmap.add(id));
+    }
+    for (int i = 0; i < 5000; i++) {
+      long id = random.nextInt(Integer.MAX_VALUE) * 7L;
+      assertEquals(expected.add(id), bitmap.add(id));
+    }
+    assertEquals(expected.size(), bitmap.size());
+    for (long id : expected) {
+      assertTrue(bitmap.contains(id));
+      assertFalse(bitmap.add(id));
+    }
+    assertFalse(bitmap.contains(1));
+    assertFalse(bitmap.contains(65535));
+    assertTrue(bitmap.add(65535));
+    assertTrue(bitmap.contains(65535));
+  }
+}
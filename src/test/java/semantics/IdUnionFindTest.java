@@ -0,0 +1,55 @@
+package semantics;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+public class IdUnionFindTest {
+
+  @Test
+  public void testUnionAndFind() {
+    IdUnionFind sets = new IdUnionFind();
+    assertEquals(7L, sets.find(7));
+    sets.union(5, 3);
+    sets.union(9, 5);
+    sets.union(100000000000L, 9);
+    sets.union(20, 21);
+    assertEquals(3L, sets.find(100000000000L));
+    assertEquals(3L, sets.find(9));
+    assertEquals(20L, sets.find(21));
+    // merged under the lowest root
+    sets.union(21, 9);
+    assertEquals(3L, sets.find(20));
+    assertEquals(7L, sets.find(7));
+    assertEquals(6, sets.size());
+  }
+
+  @Test
+  public void testManyIds() {
+    IdUnionFind sets = new IdUnionFind();
+    Random random = new Random(42);
+    // chains of dense ids plus sparse ids, forcing several rehashes
+    for (long id = 1; id < 20000; id++) {
+      sets.union(id, id - (id % 10));
+    }
+    Set<Long> sparse = new HashSet<>();
+    for (int i = 0; i < 5000; i++) {
+      long id = 1000000L + random.nextInt(Integer.MAX_VALUE) * 7L;
+      sparse.add(id);
+      sets.union(id, 19990);
+    }
+    for (long id = 0; id < 20000; id++) {
+      assertEquals(id - (id % 10), sets.find(id));
+    }
+    for (long id : sparse) {
+      assertEquals(19990L, sets.find(id));
+    }
+    Set<Long> visited = new HashSet<>();
+    sets.forEach(visited::add);
+    assertEquals(20000 + sparse.size(), visited.size());
+    assertEquals(visited.size(), sets.size());
+  }
+}
@@ -0,0 +1,75 @@
+package semantics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Rule;
+import org.junit.Test;
+import org.neo4j.driver.v1.Config;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.GraphDatabase;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.StatementResult;
+import org.neo4j.harness.junit.Neo4jRule;
+
+public class RDFExportTest {
+
+  @Rule
+  public Neo4jRule neo4j = new Neo4jRule()
+      .withProcedure(RDFExport.class);
+
+  @Test
+  public void testExportByLabelWithCursor() throws Exception {
+    try (Driver driver = GraphDatabase.driver(neo4j.boltURI(),
+        Config.build().withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+
+      Session session = driver.session();
+
+      session.run("CREATE (a:Actor:Person {name:'Keanu Reeves'}) "
+          + "CREATE (d:Director {name:'Lana Wachowski'}) "
+          + "CREATE (m:Movie {title:'The Matrix'}) "
+          + "CREATE (a)-[:ACTED_IN]->(m) CREATE (d)-[:DIRECTED]->(m)");
+
+      StatementResult results = session.run(
+          "CALL semantics.exportRDF(['Person','Actor','Director'], { limit: 1 }) "
+              + "YIELD nodeId, subject, predicate, object RETURN nodeId, subject, predicate, object");
+      Set<String> triples = new HashSet<>();
+      long lastNodeId = -1;
+      while (results.hasNext()) {
+        Record record = results.next();
+        lastNodeId = record.get("nodeId").asLong();
+        triples.add(record.get("subject").asString() + " " + record.get("predicate").asString()
+            + " " + record.get("object").asString());
+      }
+      assertEquals(0L, lastNodeId);
+      // node with two of the labels is only exported once
+      assertEquals(4, triples.size());
+
+      results = session.run(
+          "CALL semantics.exportRDF(['Person','Actor','Director'], { cursor: $cursor }) "
+              + "YIELD nodeId, subject, predicate, object, isLiteral "
+              + "RETURN collect(DISTINCT nodeId) AS ids, count(*) AS ct",
+          java.util.Collections.singletonMap("cursor", lastNodeId));
+      Record record = results.next();
+      assertEquals(1, record.get("ids").size());
+      assertEquals(1L, record.get("ids").get(0).asLong());
+      assertEquals(3L, record.get("ct").asLong());
+      assertFalse(results.hasNext());
+
+      results = session.run("CALL semantics.exportRDF([], { excludeContext: true }) "
+          + "YIELD nodeId RETURN count(DISTINCT nodeId) AS ct");
+      assertEquals(3L, results.next().get("ct").asLong());
+
+      // all nodes from a cursor, skipping the ids of deleted nodes
+      session.run("MATCH (d:Director) DETACH DELETE d");
+      results = session.run("CALL semantics.exportRDF([], { cursor: 0, excludeContext: true }) "
+          + "YIELD nodeId RETURN collect(DISTINCT nodeId) AS ids");
+      assertEquals(java.util.Collections.singletonList(2L),
+          results.next().get("ids").asList());
+    }
+  }
+
+}
@@ -14,6 +14,7 @@ import java.net.URISyntaxException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -1473,6 +1474,88 @@ public class RDFImportTest {
 
   }
 
+  @Test
+  public void testReplaceRDFKeepURIs() throws Exception {
+    try (Driver driver = GraphDatabase.driver(neo4j.boltURI(),
+        Config.build().withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+
+      Session session = driver.session();
+      createIndices(neo4j.getGraphDatabaseService());
+
+      StatementResult importResults = session.run("CALL semantics.importRDF('" +
+          RDFImportTest.class.getClassLoader().getResource("deleteRDF/dataset1.ttl")
+              .toURI()
+          + "','Turtle',{ handleVocabUris: 'KEEP', typesToLabels: true, commitSize: 500, keepCustomDataTypes: true, handleMultival: 'ARRAY'})");
+      assertEquals(15L, importResults.next().get("triplesLoaded").asLong());
+
+      StatementResult replaceResults = session.run("CALL semantics.replaceRDF('" +
+          RDFImportTest.class.getClassLoader().getResource("deleteRDF/dataset1.ttl").toURI()
+          + "','" +
+          RDFImportTest.class.getClassLoader().getResource("replaceRDF/dataset1v2.ttl").toURI()
+          + "', 'Turtle', {handleVocabUris: 'KEEP', typesToLabels: true, commitSize: 2, keepCustomDataTypes: true, handleMultival: 'ARRAY'})");
+      Record replaceRecord = replaceResults.next();
+      assertEquals("OK", replaceRecord.get("terminationStatus").asString());
+      assertEquals(3L, replaceRecord.get("triplesDeleted").asLong());
+      assertEquals(2L, replaceRecord.get("triplesAdded").asLong());
+      assertEquals(12L, replaceRecord.get("triplesUnchanged").asLong());
+
+      StatementResult result = session.run("MATCH (n {uri: 'http://example.org/Resource1'}) "
+          + "OPTIONAL MATCH (n)-[r]->(m) "
+          + "RETURN n.`http://example.org/Predicate2` AS p2, n.`http://example.org/Predicate4` AS p4, "
+          + "collect(type(r) + ' ' + m.uri) AS rels");
+      Record record = result.next();
+      assertEquals(Arrays.asList("test2"), record.get("p2").asList());
+      assertEquals(new HashSet<>(Arrays.asList("val1", "val2", "val3")),
+          new HashSet<>(record.get("p4").asList()));
+      assertEquals(Arrays.asList("http://example.org/Predicate5 http://example.org/Resource3"),
+          record.get("rels").asList());
+
+      result = session.run("MATCH (n {uri: 'http://example.org/Resource2'}) "
+          + "RETURN n.`http://example.org/Predicate3` AS p3");
+      assertEquals(new HashSet<>(Arrays.asList(100L, 200L)),
+          new HashSet<>(result.next().get("p3").asList()));
+    }
+  }
+
+  @Test
+  public void testReplaceRDFBNodes() throws Exception {
+    try (Driver driver = GraphDatabase.driver(neo4j.boltURI(),
+        Config.build().withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+
+      Session session = driver.session();
+      createIndices(neo4j.getGraphDatabaseService());
+
+      StatementResult importResults = session.run("CALL semantics.importRDF('" +
+          RDFImportTest.class.getClassLoader().getResource("replaceRDF/bNodes.ttl").toURI()
+          + "','Turtle',{ handleVocabUris: 'KEEP', handleMultival: 'ARRAY'})");
+      assertEquals(8L, importResults.next().get("triplesLoaded").asLong());
+
+      // the address of Resource1 is the same with another blank node label, the one of
+      // Resource2 has changed
+      StatementResult replaceResults = session.run("CALL semantics.replaceRDF('" +
+          RDFImportTest.class.getClassLoader().getResource("replaceRDF/bNodes.ttl").toURI()
+          + "','" +
+          RDFImportTest.class.getClassLoader().getResource("replaceRDF/bNodesv2.ttl").toURI()
+          + "', 'Turtle', { handleVocabUris: 'KEEP', handleMultival: 'ARRAY'})");
+      Record replaceRecord = replaceResults.next();
+      assertEquals("OK", replaceRecord.get("terminationStatus").asString());
+      assertEquals(1L, replaceRecord.get("triplesDeleted").asLong());
+      assertEquals(1L, replaceRecord.get("triplesAdded").asLong());
+      assertEquals(4L, replaceRecord.get("triplesUnchanged").asLong());
+      assertTrue(replaceRecord.get("extraInfo").asString()
+          .startsWith("3 removed and 3 added statements containing a blank node"));
+
+      assertEquals(Arrays.asList("One v2"), session.run("MATCH (n {uri: "
+          + "'http://example.org/Resource1'}) RETURN n.`http://example.org/name` AS name")
+          .next().get("name").asList());
+      // no blank nodes were written
+      assertEquals(Arrays.asList("Leeds", "London"), session.run("MATCH (n:Resource) "
+          + "WHERE NOT n.uri STARTS WITH 'http' WITH n ORDER BY n.`http://example.org/street` "
+          + "RETURN collect(n.`http://example.org/city`[0]) AS cities").next().get("cities")
+          .asList());
+    }
+  }
+
   @Test
   public void testDeleteRelationshipKeepURIs() throws Exception {
     try (Driver driver = GraphDatabase.driver(neo4j.boltURI(),
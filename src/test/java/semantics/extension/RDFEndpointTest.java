@@ -1,28 +1,45 @@
 package semantics.extension;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.neo4j.helpers.collection.Iterators.count;
 import static org.neo4j.server.ServerTestUtils.getSharedTestTemporaryFolder;
 import static semantics.RDFImport.PREFIX_SEPARATOR;
+import static semantics.extension.RDFEndpoint.BASE_VOCAB_NS;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.type.CollectionType;
 import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Resources;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 import org.eclipse.rdf4j.model.ValueFactory;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.OWL;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
 import org.eclipse.rdf4j.rio.RDFFormat;
 import org.junit.Test;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Result;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.harness.ServerControls;
@@ -35,6 +52,7 @@ import semantics.ModelTestUtils;
 import semantics.RDFImport;
 import semantics.RDFImportTest;
 import semantics.mapping.MappingUtils;
+import semantics.query.TriplePatternQueries;
 
 /**
  * Created by jbarrasa on 14/09/2016.
@@ -290,6 +308,552 @@ public class RDFEndpointTest {
     }
   }
 
+  @Test
+  public void testExportByLabelWithCursor() throws Exception {
+    // Given
+    try (ServerControls server = getServerBuilder()
+        .withExtension("/rdf", RDFEndpoint.class)
+        .withFixture(new Function<GraphDatabaseService, Void>() {
+          @Override
+          public Void apply(GraphDatabaseService graphDatabaseService) throws RuntimeException {
+            try (Transaction tx = graphDatabaseService.beginTx()) {
+              String dataInsertion = "CREATE (Keanu:Actor:Person {name:'Keanu Reeves'})\n" +
+                  "CREATE (Lana:Director {name:'Lana Wachowski'})\n" +
+                  "CREATE (Matrix:Movie {title:'The Matrix'})\n" +
+                  "CREATE (Keanu)-[:ACTED_IN]->(Matrix)\n" +
+                  "CREATE (Lana)-[:DIRECTED]->(Matrix)";
+              graphDatabaseService.execute(dataInsertion);
+              tx.success();
+            }
+            return null;
+          }
+        })
+        .newServer()) {
+      // When
+      HTTP.Response response = HTTP.withHeaders(new String[]{"Accept", "text/plain"}).GET(
+          HTTP.GET(server.httpURI().resolve("rdf").toString()).location()
+              + "export?label=Person&label=Actor&label=Director&limit=1");
+
+      String expected =
+          "<neo4j://individuals#0> <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> <neo4j://vocabulary#Actor> .\n"
+              + "<neo4j://individuals#0> <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> <neo4j://vocabulary#Person> .\n"
+              + "<neo4j://individuals#0> <neo4j://vocabulary#name> \"Keanu Reeves\" .\n"
+              + "<neo4j://individuals#0> <neo4j://vocabulary#ACTED_IN> <neo4j://individuals#2> .\n";
+
+      assertEquals(200, response.status());
+      assertTrue(response.rawContent().contains("# cursor=0"));
+      assertEquals(true, ModelTestUtils
+          .comparemodels(expected, RDFFormat.NTRIPLES, response.rawContent(), RDFFormat.NTRIPLES));
+
+      response = HTTP.withHeaders(new String[]{"Accept", "text/plain"}).GET(
+          HTTP.GET(server.httpURI().resolve("rdf").toString()).location()
+              + "export?label=Person&label=Actor&label=Director&limit=1&cursor=0");
+
+      expected =
+          "<neo4j://individuals#1> <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> <neo4j://vocabulary#Director> .\n"
+              + "<neo4j://individuals#1> <neo4j://vocabulary#name> \"Lana Wachowski\" .\n"
+              + "<neo4j://individuals#1> <neo4j://vocabulary#DIRECTED> <neo4j://individuals#2> .\n";
+
+      assertEquals(200, response.status());
+      assertTrue(!response.rawContent().contains("# cursor="));
+      assertEquals(true, ModelTestUtils
+          .comparemodels(expected, RDFFormat.NTRIPLES, response.rawContent(), RDFFormat.NTRIPLES));
+
+      response = HTTP.withHeaders(new String[]{"Accept", "text/plain"}).GET(
+          HTTP.GET(server.httpURI().resolve("rdf").toString()).location()
+              + "export?excludeContext=true");
+
+      assertEquals(200, response.status());
+      assertEquals(7, response.rawContent().split("\n").length);
+    }
+  }
+
+  @Test
+  public void testParallelExport() throws Exception {
+    // Given
+    try (ServerControls server = getServerBuilder()
+        .withExtension("/rdf", RDFEndpoint.class)
+        .withFixture(new Function<GraphDatabaseService, Void>() {
+          @Override
+          public Void apply(GraphDatabaseService graphDatabaseService) throws RuntimeException {
+            try (Transaction tx = graphDatabaseService.beginTx()) {
+              graphDatabaseService.execute("UNWIND range(1,100) AS i "
+                  + "CREATE (p:Person {id: i})-[:LIKES]->(:Thing {id: i})");
+              graphDatabaseService.execute("MATCH (p:Person) WHERE p.id % 10 = 0 DETACH DELETE p");
+              tx.success();
+            }
+            return null;
+          }
+        })
+        .newServer()) {
+      // When
+      HTTP.Response sequential = HTTP.withHeaders(new String[]{"Accept", "text/plain"}).GET(
+          HTTP.GET(server.httpURI().resolve("rdf").toString()).location()
+              + "export?label=Person");
+      HTTP.Response parallel = HTTP.withHeaders(new String[]{"Accept", "text/plain"}).GET(
+          HTTP.GET(server.httpURI().resolve("rdf").toString()).location()
+              + "export?label=Person&parallel=true&chunkSize=7");
+
+      assertEquals(200, parallel.status());
+      assertEquals(270, parallel.rawContent().split("\n").length);
+      assertEquals(true, ModelTestUtils
+          .comparemodels(sequential.rawContent(), RDFFormat.NTRIPLES, parallel.rawContent(),
+              RDFFormat.NTRIPLES));
+
+      // paging stops at the end of the chunk that reaches the limit
+      parallel = HTTP.withHeaders(new String[]{"Accept", "text/plain"}).GET(
+          HTTP.GET(server.httpURI().resolve("rdf").toString()).location()
+              + "export?label=Person&parallel=true&chunkSize=10&limit=3");
+      assertEquals(200, parallel.status());
+      assertTrue(parallel.rawContent().endsWith("# cursor=9\n"));
+      assertEquals(5 * 3 + 1, parallel.rawContent().split("\n").length);
+    }
+  }
+
+  @Test
+  public void testCypherOnRDFAfterNamespaceChange() throws Exception {
+    // Given
+    try (ServerControls server = getServerBuilder()
+        .withExtension("/rdf", RDFEndpoint.class)
+        .withFixture(new Function<GraphDatabaseService, Void>() {
+          @Override
+          public Void apply(GraphDatabaseService graphDatabaseService) throws RuntimeException {
+            try (Transaction tx = graphDatabaseService.beginTx()) {
+              graphDatabaseService.execute("CREATE (:NamespacePrefixDefinition { `http://a.org/` : 'ns0' }) "
+                  + "CREATE (:Resource { uri: 'http://example.org/1', ns0" + PREFIX_SEPARATOR
+                  + "name: 'one' })");
+              tx.success();
+            }
+            return null;
+          }
+        })
+        .newServer()) {
+      Map<String, Object> map = new HashMap<>();
+      map.put("cypher", "MATCH (n:Resource) RETURN n");
+
+      HTTP.Response response = HTTP.withHeaders(new String[]{"Accept", "text/plain"}).POST(
+          HTTP.GET(server.httpURI().resolve("rdf").toString()).location() + "cypheronrdf", map);
+      assertEquals(200, response.status());
+      assertEquals("<http://example.org/1> <http://a.org/name> \"one\" .\n",
+          response.rawContent());
+
+      // the cached namespace definitions are refreshed after the change is committed
+      server.graph().execute("MATCH (n:NamespacePrefixDefinition) "
+          + "SET n.`http://b.org/` = 'ns0' REMOVE n.`http://a.org/`");
+
+      response = HTTP.withHeaders(new String[]{"Accept", "text/plain"}).POST(
+          HTTP.GET(server.httpURI().resolve("rdf").toString()).location() + "cypheronrdf", map);
+      assertEquals(200, response.status());
+      assertEquals("<http://example.org/1> <http://b.org/name> \"one\" .\n",
+          response.rawContent());
+    }
+  }
+
+  @Test
+  public void testNTriplesSameAsOtherFormats() throws Exception {
+    // Given
+    try (ServerControls server = getServerBuilder()
+        .withExtension("/rdf", RDFEndpoint.class)
+        .withFixture(new Function<GraphDatabaseService, Void>() {
+          @Override
+          public Void apply(GraphDatabaseService graphDatabaseService) throws RuntimeException {
+            Map<String, Object> params = new HashMap<>();
+            params.put("control", "nul\u0000 bell\u0007 vt\u000B del\u007F");
+            // 1.0/0 is rejected when the query is parsed
+            params.put("infinity", Double.POSITIVE_INFINITY);
+            try (Transaction tx = graphDatabaseService.beginTx()) {
+              graphDatabaseService.execute("CREATE (a:Thing:`Special_Thing` { "
+                  + "text: 'quotes \" and \\\\ backslash\\n new line\\ttab àéü 漢字', "
+                  + "tagged: 'bonjour@fr', typed: 'ab12^^http://example.org/types#code', "
+                  + "xsdString: 'plain^^http://www.w3.org/2001/XMLSchema#string', "
+                  + "int: 12, float: 1.5, big: 1.0e20, bool: true, date: date('2019-06-21'), "
+                  + "dateTime: localdatetime('2019-06-21T10:20:30.5'), "
+                  + "array: ['one', 'two@en'], `dashed-key`: 'x', control: $control, "
+                  + "infinity: $infinity, negativeInfinity: -$infinity }) "
+                  + "CREATE (a)-[:`RELATION`]->(:Thing)",
+                  params);
+              tx.success();
+            }
+            return null;
+          }
+        })
+        .newServer()) {
+
+      Result result = server.graph().execute("MATCH (n:`Special_Thing`) RETURN id(n) AS id ");
+      long id = (Long) result.next().get("id");
+      String describe = HTTP.GET(server.httpURI().resolve("rdf").toString()).location()
+          + "describe/id/" + id;
+
+      HTTP.Response ntriples = HTTP.withHeaders(new String[]{"Accept", "text/plain"})
+          .GET(describe);
+      HTTP.Response turtle = HTTP.withHeaders(new String[]{"Accept", "text/turtle"})
+          .GET(describe);
+
+      assertEquals(200, ntriples.status());
+      assertEquals(19, ntriples.rawContent().split("\n").length);
+      assertTrue(ntriples.rawContent().contains("bell\\u0007 vt\\u000B del\\u007F"));
+      assertTrue(ntriples.rawContent()
+          .contains("\"-INF\"^^<http://www.w3.org/2001/XMLSchema#double>"));
+      assertEquals(true, ModelTestUtils
+          .comparemodels(turtle.rawContent(), RDFFormat.TURTLE, ntriples.rawContent(),
+              RDFFormat.NTRIPLES));
+    }
+  }
+
+  @Test
+  public void testDescribeBatch() throws Exception {
+    // Given
+    try (ServerControls server = getServerBuilder()
+        .withExtension("/rdf", RDFEndpoint.class)
+        .withFixture(new Function<GraphDatabaseService, Void>() {
+          @Override
+          public Void apply(GraphDatabaseService graphDatabaseService) throws RuntimeException {
+            try (Transaction tx = graphDatabaseService.beginTx()) {
+              graphDatabaseService.execute("CREATE (a:Person { name: 'a' })-[:KNOWS]->"
+                  + "(b:Person { name: 'b' })-[:KNOWS]->(c:Person { name: 'c' }) "
+                  + "CREATE (x:Resource { uri: 'http://example.org/x', name: 'x' })-[:linked]->"
+                  + "(y:Resource { uri: 'http://example.org/y' })");
+              tx.success();
+            }
+            return null;
+          }
+        })
+        .newServer()) {
+      Result result = server.graph()
+          .execute("MATCH (n:Person) RETURN id(n) AS id ORDER BY n.name");
+      long a = (Long) result.next().get("id");
+      long b = (Long) result.next().get("id");
+      String describe = HTTP.GET(server.httpURI().resolve("rdf").toString()).location()
+          + "describe";
+
+      // the relationship between a and b is serialised once, missing ids are skipped
+      Map<String, Object> map = new HashMap<>();
+      map.put("ids", Arrays.asList(a, b, a, 1000000));
+      HTTP.Response response = HTTP.withHeaders(new String[]{"Accept", "text/plain"})
+          .POST(describe, map);
+      assertEquals(200, response.status());
+      assertEquals(6, response.rawContent().split("\n").length);
+
+      HTTP.Response single = HTTP.withHeaders(new String[]{"Accept", "text/plain"})
+          .GET(describe + "/id/" + a);
+      for (String line : single.rawContent().split("\n")) {
+        assertTrue(response.rawContent().contains(line));
+      }
+
+      map.put("excludeContext", true);
+      response = HTTP.withHeaders(new String[]{"Accept", "text/plain"}).POST(describe, map);
+      assertEquals(4, response.rawContent().split("\n").length);
+
+      map = new HashMap<>();
+      map.put("uris", Arrays.asList("http://example.org/x", "http://example.org/y",
+          "http://example.org/missing"));
+      response = HTTP.withHeaders(new String[]{"Accept", "text/turtle"}).POST(describe, map);
+      assertEquals(200, response.status());
+      assertEquals(true, ModelTestUtils
+          .comparemodels("<http://example.org/x> <" + BASE_VOCAB_NS + "name> \"x\" .\n"
+                  + "<http://example.org/x> <" + BASE_VOCAB_NS + "linked> <http://example.org/y> .\n",
+              RDFFormat.NTRIPLES, response.rawContent(), RDFFormat.TURTLE));
+    }
+  }
+
+  @Test
+  public void testNodeByUriRelationships() throws Exception {
+    // Given
+    try (ServerControls server = getServerBuilder()
+        .withExtension("/rdf", RDFEndpoint.class)
+        .withFixture(new Function<GraphDatabaseService, Void>() {
+          @Override
+          public Void apply(GraphDatabaseService graphDatabaseService) throws RuntimeException {
+            try (Transaction tx = graphDatabaseService.beginTx()) {
+              graphDatabaseService.execute("CREATE (x:Resource { uri: 'http://example.org/x' }) "
+                  + "CREATE (x)-[:knows]->(:Resource { uri: 'http://example.org/y' }) "
+                  + "CREATE (:Resource { uri: 'genid1' })-[:knows]->(x) "
+                  + "CREATE (x)-[:same]->(x) "
+                  + "CREATE (x)-[:other]->(:Thing)");
+              tx.success();
+            }
+            return null;
+          }
+        })
+        .newServer()) {
+      HTTP.Response response = HTTP.withHeaders(new String[]{"Accept", "text/plain"}).GET(
+          HTTP.GET(server.httpURI().resolve("rdf").toString()).location() + "describe/uri/"
+              + URLEncoder.encode("http://example.org/x", "UTF-8"));
+      assertEquals(200, response.status());
+      assertEquals(true, ModelTestUtils
+          .comparemodels("<http://example.org/x> <" + BASE_VOCAB_NS + "knows> <http://example.org/y> .\n"
+                  + "_:genid1 <" + BASE_VOCAB_NS + "knows> <http://example.org/x> .\n"
+                  + "<http://example.org/x> <" + BASE_VOCAB_NS + "same> <http://example.org/x> .\n",
+              RDFFormat.NTRIPLES, response.rawContent(), RDFFormat.NTRIPLES));
+      assertEquals(3, response.rawContent().split("\n").length);
+    }
+  }
+
+  @Test
+  public void testTriplePatternQuery() throws Exception {
+    // Given
+    try (ServerControls server = getServerBuilder()
+        .withProcedure(TriplePatternQueries.class)
+        .withExtension("/rdf", RDFEndpoint.class)
+        .withFixture(new Function<GraphDatabaseService, Void>() {
+          @Override
+          public Void apply(GraphDatabaseService graphDatabaseService) throws RuntimeException {
+            try (Transaction tx = graphDatabaseService.beginTx()) {
+              graphDatabaseService.execute("CREATE (:NamespacePrefixDefinition { "
+                  + "`http://example.org/vocab/`: 'ex' }) "
+                  + "CREATE (a:Resource:ex__Person { uri: 'http://example.org/a', "
+                  + "ex__name: 'Alice', ex__age: 30 })-[:ex__knows]->"
+                  + "(b:Resource:ex__Person { uri: 'http://example.org/b', "
+                  + "ex__name: ['Bob', 'Bobby'], ex__age: 25 })-[:ex__knows]->"
+                  + "(c:Resource { uri: 'http://example.org/c', ex__name: 'Carol' })");
+              tx.success();
+            }
+            return null;
+          }
+        })
+        .newServer()) {
+      String query = HTTP.GET(server.httpURI().resolve("rdf").toString()).location() + "query";
+
+      Map<String, Object> map = new HashMap<>();
+      map.put("query", "PREFIX ex: <http://example.org/vocab/> "
+          + "SELECT ?p ?name WHERE { ?p a ex:Person ; ex:knows ?f . ?f ex:name ?name }");
+      HTTP.Response response = HTTP.POST(query, map);
+      assertEquals(200, response.status());
+      Map<String, Map<String, Object>> content = response.content();
+      assertEquals(Arrays.asList("p", "name"), content.get("head").get("vars"));
+      // Bob has two names
+      assertEquals(3, ((List<Object>) content.get("results").get("bindings")).size());
+
+      // prefixes defined in the graph, numbers compared by value
+      map.put("query", "SELECT * { ?p ex:age 30.0 ; ex:name ?name }");
+      map.put("format", "tsv");
+      response = HTTP.POST(query, map);
+      assertEquals(200, response.status());
+      assertEquals("?p\t?name\n<http://example.org/a>\t\"Alice\"\n", response.rawContent());
+
+      map.put("query", "SELECT ?p { ?p ex:knows <http://example.org/missing> }");
+      response = HTTP.POST(query, map);
+      assertEquals("?p\n", response.rawContent());
+
+      map.put("query", "SELECT ?p { ?p ?predicate ?o }");
+      response = HTTP.POST(query, map);
+      assertEquals(400, response.status());
+
+      // resources are returned as nodes, literals as values
+      try (Transaction tx = server.graph().beginTx()) {
+        Result result = server.graph().execute("CALL semantics.query.triplePatterns("
+            + "'SELECT ?f ?age { ?p ex:name \"Alice\" ; ex:knows ?f . ?f ex:age ?age }')");
+        Map<String, Object> bindings = (Map<String, Object>) result.next().get("bindings");
+        assertEquals("http://example.org/b", ((Node) bindings.get("f")).getProperty("uri"));
+        assertEquals(25L, bindings.get("age"));
+        assertFalse(result.hasNext());
+        tx.success();
+      }
+    }
+  }
+
+  @Test
+  public void testTriplePatternFragments() throws Exception {
+    // Given
+    try (ServerControls server = getServerBuilder()
+        .withExtension("/rdf", RDFEndpoint.class)
+        .withFixture(new Function<GraphDatabaseService, Void>() {
+          @Override
+          public Void apply(GraphDatabaseService graphDatabaseService) throws RuntimeException {
+            try (Transaction tx = graphDatabaseService.beginTx()) {
+              graphDatabaseService.execute("CREATE (:NamespacePrefixDefinition { "
+                  + "`http://example.org/vocab/`: 'ex' }) "
+                  + "CREATE (a:Resource:ex__Person { uri: 'http://example.org/a', "
+                  + "ex__name: 'Alice', ex__age: 30 })-[:ex__knows]->"
+                  + "(b:Resource:ex__Person { uri: 'http://example.org/b', ex__name: 'Bob' })"
+                  + "-[:ex__knows]->(c:Resource { uri: 'http://example.org/c' })");
+              tx.success();
+            }
+            return null;
+          }
+        })
+        .newServer()) {
+      String fragments = HTTP.GET(server.httpURI().resolve("rdf").toString()).location()
+          + "fragments";
+      String knows = "predicate=" + URLEncoder.encode("http://example.org/vocab/knows", "UTF-8");
+
+      // one triple per page, the next page is linked from the first one
+      String page = HTTP.withHeaders(new String[]{"Accept", "text/plain"})
+          .GET(fragments + "?" + knows + "&limit=1").rawContent();
+      assertEquals(1, fragmentTriples(page).size());
+      assertTrue(page.contains("<http://rdfs.org/ns/void#triples> \"2\""));
+      String next = null;
+      for (String line : page.split("\n")) {
+        if (line.contains("<http://www.w3.org/ns/hydra/core#next>")) {
+          next = line.substring(line.lastIndexOf('<') + 1, line.lastIndexOf('>'));
+        }
+      }
+      String nextPage = HTTP.withHeaders(new String[]{"Accept", "text/plain"}).GET(next)
+          .rawContent();
+      assertEquals(1, fragmentTriples(nextPage).size());
+      assertFalse(fragmentTriples(page).equals(fragmentTriples(nextPage)));
+      assertFalse(nextPage.contains("<http://www.w3.org/ns/hydra/core#next>"));
+      assertTrue(nextPage.contains("<http://www.w3.org/ns/hydra/core#search>"));
+
+      // a cursor pointing to a segment the pattern doesn't have
+      page = HTTP.withHeaders(new String[]{"Accept", "text/plain"})
+          .GET(fragments + "?" + knows + "&cursor=7.0").rawContent();
+      assertTrue(page.contains("# Invalid cursor: 7.0"));
+      assertEquals(0, fragmentTriples(page).size());
+
+      // subject bound: types, properties and relationships
+      page = HTTP.withHeaders(new String[]{"Accept", "text/plain"})
+          .GET(fragments + "?subject=" + URLEncoder.encode("http://example.org/a", "UTF-8"))
+          .rawContent();
+      assertEquals(4, fragmentTriples(page).size());
+
+      // class from the label scan, resource from the incoming relationships
+      page = HTTP.withHeaders(new String[]{"Accept", "text/plain"}).GET(fragments + "?object="
+          + URLEncoder.encode("http://example.org/vocab/Person", "UTF-8")).rawContent();
+      assertEquals(2, fragmentTriples(page).size());
+      page = HTTP.withHeaders(new String[]{"Accept", "text/plain"}).GET(fragments + "?object="
+          + URLEncoder.encode("http://example.org/b", "UTF-8")).rawContent();
+      assertEquals(Arrays.asList("<http://example.org/a> <http://example.org/vocab/knows> "
+          + "<http://example.org/b> ."), fragmentTriples(page));
+
+      page = HTTP.withHeaders(new String[]{"Accept", "text/plain"}).GET(fragments + "?object="
+          + URLEncoder.encode("\"Alice\"", "UTF-8")).rawContent();
+      assertEquals(Arrays.asList("<http://example.org/a> <http://example.org/vocab/name> "
+          + "\"Alice\" ."), fragmentTriples(page));
+    }
+  }
+
+  private List<String> fragmentTriples(String nTriples) {
+    List<String> triples = new ArrayList<>();
+    for (String line : nTriples.split("\n")) {
+      if (line.startsWith("<http://example.org/")) {
+        triples.add(line);
+      }
+    }
+    return triples;
+  }
+
+  @Test
+  public void testDescribeCache() throws Exception {
+    // Given
+    try (ServerControls server = getServerBuilder()
+        .withConfig(DescribeCache.MAX_ENTRIES_SETTING, "100")
+        .withExtension("/rdf", RDFEndpoint.class)
+        .withFixture(new Function<GraphDatabaseService, Void>() {
+          @Override
+          public Void apply(GraphDatabaseService graphDatabaseService) throws RuntimeException {
+            try (Transaction tx = graphDatabaseService.beginTx()) {
+              graphDatabaseService.execute("CREATE (:Person { name: 'a' }) "
+                  + "CREATE (x:Resource { uri: 'http://example.org/x', name: 'x' })-[:linked]->"
+                  + "(y:Resource { uri: 'http://example.org/y' }) "
+                  + "CREATE (:Resource { uri: 'http://example.org/w', code: 'a^^nocolon' })");
+              tx.success();
+            }
+            return null;
+          }
+        })
+        .newServer()) {
+      Result result = server.graph().execute("MATCH (n:Person) RETURN id(n) AS id");
+      long id = (Long) result.next().get("id");
+      String describe = HTTP.GET(server.httpURI().resolve("rdf").toString()).location()
+          + "describe/id/" + id;
+
+      HTTP.Response response = HTTP.withHeaders(new String[]{"Accept", "text/plain"})
+          .GET(describe);
+      assertEquals(200, response.status());
+      String etag = response.header("ETag");
+      assertTrue(etag != null);
+      assertTrue(response.rawContent().contains("\"a\""));
+
+      response = HTTP.withHeaders(new String[]{"Accept", "text/plain", "If-None-Match", etag})
+          .GET(describe);
+      assertEquals(304, response.status());
+
+      // a change to the node invalidates its cached description
+      server.graph().execute("MATCH (n:Person) SET n.name = 'b'");
+      response = HTTP.withHeaders(new String[]{"Accept", "text/plain", "If-None-Match", etag})
+          .GET(describe);
+      assertEquals(200, response.status());
+      assertTrue(response.rawContent().contains("\"b\""));
+      assertTrue(!etag.equals(response.header("ETag")));
+
+      // so does a change to the uri of a neighbour
+      String describeUri = HTTP.GET(server.httpURI().resolve("rdf").toString()).location()
+          + "describe/uri/" + URLEncoder.encode("http://example.org/x", "UTF-8");
+      response = HTTP.withHeaders(new String[]{"Accept", "text/plain"}).GET(describeUri);
+      assertTrue(response.rawContent().contains("<http://example.org/y>"));
+      server.graph().execute("MATCH (n:Resource { uri: 'http://example.org/y' }) "
+          + "SET n.uri = 'http://example.org/z'");
+      response = HTTP.withHeaders(new String[]{"Accept", "text/plain"}).GET(describeUri);
+      assertTrue(response.rawContent().contains("<http://example.org/z>"));
+
+      // descriptions that fail to serialise are not cached
+      String describeBroken = HTTP.GET(server.httpURI().resolve("rdf").toString()).location()
+          + "describe/uri/" + URLEncoder.encode("http://example.org/w", "UTF-8");
+      response = HTTP.withHeaders(new String[]{"Accept", "text/plain"}).GET(describeBroken);
+      assertEquals(200, response.status());
+      assertTrue(response.rawContent().startsWith("#"));
+      assertEquals(null, response.header("ETag"));
+      server.graph().execute("MATCH (n:Resource { uri: 'http://example.org/w' }) "
+          + "SET n.code = 'a^^http://example.org/code'");
+      response = HTTP.withHeaders(new String[]{"Accept", "text/plain"}).GET(describeBroken);
+      assertTrue(response.rawContent().contains("<http://example.org/code>"));
+      assertTrue(response.header("ETag") != null);
+    }
+  }
+
+  @Test
+  public void testCompressedResponse() throws Exception {
+    // Given
+    try (ServerControls server = getServerBuilder()
+        .withExtension("/rdf", RDFEndpoint.class)
+        .withFixture(new Function<GraphDatabaseService, Void>() {
+          @Override
+          public Void apply(GraphDatabaseService graphDatabaseService) throws RuntimeException {
+            try (Transaction tx = graphDatabaseService.beginTx()) {
+              graphDatabaseService.execute("UNWIND range(1,1000) AS i "
+                  + "CREATE (:Person {id: i, name: 'person number ' + i})");
+              tx.success();
+            }
+            return null;
+          }
+        })
+        .newServer()) {
+      String export = HTTP.GET(server.httpURI().resolve("rdf").toString()).location()
+          + "export?label=Person&format=N-Triples";
+      HTTP.Response plain = HTTP.withHeaders(new String[]{"Accept", "text/plain"}).GET(export);
+      assertEquals(200, plain.status());
+      assertEquals("Accept-Encoding", plain.header("Vary"));
+
+      HttpURLConnection connection = (HttpURLConnection) new URL(export).openConnection();
+      connection.setRequestProperty("Accept-Encoding", "deflate;q=0.5, gzip");
+      assertEquals(200, connection.getResponseCode());
+      assertEquals("gzip", connection.getHeaderField("Content-Encoding"));
+      assertEquals("Accept-Encoding", connection.getHeaderField("Vary"));
+      byte[] compressed = ByteStreams.toByteArray(connection.getInputStream());
+      assertTrue(compressed.length * 5 < plain.rawContent().length());
+      try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+        assertEquals(plain.rawContent(),
+            new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8));
+      }
+
+      connection = (HttpURLConnection) new URL(export + "&flushInterval=0").openConnection();
+      connection.setRequestProperty("Accept-Encoding", "gzip;q=0, deflate");
+      assertEquals("deflate", connection.getHeaderField("Content-Encoding"));
+      try (InputStream in = new InflaterInputStream(connection.getInputStream())) {
+        assertEquals(plain.rawContent(),
+            new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8));
+      }
+
+      connection = (HttpURLConnection) new URL(export).openConnection();
+      connection.setRequestProperty("Accept-Encoding", "identity");
+      assertEquals(null, connection.getHeaderField("Content-Encoding"));
+      assertEquals("Accept-Encoding", connection.getHeaderField("Vary"));
+      assertEquals(plain.rawContent(),
+          new String(ByteStreams.toByteArray(connection.getInputStream()), StandardCharsets.UTF_8));
+    }
+  }
+
   @Test
   public void testPing() throws Exception {
     // Given
@@ -365,6 +929,14 @@ public class RDFEndpointTest {
       assertEquals(200, response.status());
       assertEquals("", response.rawContent());
 
+      // nodes and relationships shared by several paths are serialised once
+      map.remove("mappedElemsOnly");
+      map.put("cypher", "MATCH p = (:Category)-[:SCO]->(:Category) RETURN p, p AS samePath");
+      response = HTTP.withHeaders(new String[]{"Accept", "text/plain"}).POST(
+          HTTP.GET(server.httpURI().resolve("rdf").toString()).location() + "cypher", map);
+
+      assertEquals(200, response.status());
+      assertEquals(4 * 2 + 3, response.rawContent().split("\n").length);
 
     }
   }
@@ -444,7 +1016,59 @@ public class RDFEndpointTest {
           .comparemodels(expectedOnlyMapped, RDFFormat.NTRIPLES, response.rawContent(),
               RDFFormat.NTRIPLES));
 
+      // mappings added later are used in the next request
+      server.graph().execute(
+          "CALL semantics.mapping.addMappingToSchema('http://schema.org/','title','name')")
+          .resultAsString();
+      response = HTTP.withHeaders(new String[]{"Accept", "text/plain"}).POST(
+          HTTP.GET(server.httpURI().resolve("rdf").toString()).location() + "cypher", map);
 
+      assertEquals(200, response.status());
+      assertEquals(true, ModelTestUtils
+          .comparemodels(expectedOnlyMapped
+                  + "<neo4j://individuals#5> <http://schema.org/name> \"The Matrix\" .\n",
+              RDFFormat.NTRIPLES, response.rawContent(), RDFFormat.NTRIPLES));
+    }
+  }
+
+  @Test
+  public void testOntoDomainsAndRanges() throws Exception {
+    // Given
+    try (ServerControls server = getServerBuilder()
+        .withExtension("/rdf", RDFEndpoint.class)
+        .withFixture(new Function<GraphDatabaseService, Void>() {
+          @Override
+          public Void apply(GraphDatabaseService graphDatabaseService) throws RuntimeException {
+            try (Transaction tx = graphDatabaseService.beginTx()) {
+              graphDatabaseService.execute("CREATE (:A:B)-[:R]->(c:C) "
+                  + "CREATE (:D)-[:R]->(c) "
+                  + "CREATE (:Gone)");
+              tx.success();
+            }
+            return null;
+          }
+        })
+        .newServer()) {
+      // labels no longer in use are not part of the ontology
+      server.graph().execute("MATCH (n:Gone) DELETE n");
+
+      HTTP.Response response = HTTP.withHeaders(new String[]{"Accept", "text/plain"}).GET(
+          HTTP.GET(server.httpURI().resolve("rdf").toString()).location() + "onto");
+
+      String expected = "";
+      for (String label : new String[]{"A", "B", "C", "D"}) {
+        expected += "<" + BASE_VOCAB_NS + label + "> <" + RDF.TYPE + "> <" + OWL.CLASS + "> .\n"
+            + "<" + BASE_VOCAB_NS + label + "> <" + RDFS.LABEL + "> \"" + label + "\" .\n";
+      }
+      expected += "<" + BASE_VOCAB_NS + "R> <" + RDF.TYPE + "> <" + OWL.OBJECTPROPERTY + "> .\n"
+          + "<" + BASE_VOCAB_NS + "R> <" + RDFS.DOMAIN + "> <" + BASE_VOCAB_NS + "A> .\n"
+          + "<" + BASE_VOCAB_NS + "R> <" + RDFS.DOMAIN + "> <" + BASE_VOCAB_NS + "B> .\n"
+          + "<" + BASE_VOCAB_NS + "R> <" + RDFS.DOMAIN + "> <" + BASE_VOCAB_NS + "D> .\n"
+          + "<" + BASE_VOCAB_NS + "R> <" + RDFS.RANGE + "> <" + BASE_VOCAB_NS + "C> .\n";
+      assertEquals(200, response.status());
+      assertEquals(true, ModelTestUtils
+          .comparemodels(expected, RDFFormat.NTRIPLES, response.rawContent(), RDFFormat.NTRIPLES));
+      assertEquals(13, response.rawContent().split("\n").length);
     }
   }
 
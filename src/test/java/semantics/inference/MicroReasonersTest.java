@@ -1,10 +1,17 @@
 package semantics.inference;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import org.junit.Rule;
 import org.junit.Test;
 import org.neo4j.driver.v1.Config;
@@ -13,6 +20,8 @@ import org.neo4j.driver.v1.GraphDatabase;
 import org.neo4j.driver.v1.Record;
 import org.neo4j.driver.v1.Session;
 import org.neo4j.driver.v1.StatementResult;
+import org.neo4j.driver.v1.Transaction;
+import org.neo4j.driver.v1.exceptions.ClientException;
 import org.neo4j.harness.junit.Neo4jRule;
 
 public class MicroReasonersTest {
@@ -63,6 +72,26 @@ public class MicroReasonersTest {
     }
   }
 
+  @Test
+  public void testGetNodesWithManySublabels() throws Exception {
+    try (Driver driver = GraphDatabase.driver(neo4j.boltURI(),
+        Config.build().withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+
+      Session session = driver.session();
+
+      // iamab has two of the sublabels and is returned once
+      session.run("CREATE (:B {id:'iamb'}) CREATE (:A:B {id: 'iamab' }) CREATE (:C {id: 'iamc' }) "
+          + "CREATE (:D {id: 'iamd' })");
+      session.run("CREATE (b:Label { name: \"B\"}) CREATE (a:Label { name: \"A\"})-[:SLO]->(b) "
+          + "CREATE (:Label { name: \"C\"})-[:SLO]->(a)");
+      StatementResult results = session.run(
+          "CALL semantics.inference.nodesLabelled('B') YIELD node RETURN collect(node.id) as nodes");
+      List<Object> nodes = results.next().get("nodes").asList();
+      assertEquals(3, nodes.size());
+      assertEquals(new HashSet<>(Arrays.asList("iamb", "iamab", "iamc")), new HashSet<>(nodes));
+    }
+  }
+
   @Test
   public void testGetNodesCustomHierarchy() throws Exception {
     try (Driver driver = GraphDatabase.driver(neo4j.boltURI(),
@@ -144,6 +173,34 @@ public class MicroReasonersTest {
     }
   }
 
+  @Test
+  public void testGetNodesLinkedToManyCategories() throws Exception {
+    try (Driver driver = GraphDatabase.driver(neo4j.boltURI(),
+        Config.build().withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+
+      Session session = driver.session();
+
+      // iamac is in two subcategories of B and returned once
+      session.run("CREATE (b:Category { name: \"B\"}) "
+          + "CREATE (a:Category { name: \"A\"})-[:SCO]->(b) "
+          + "CREATE (c:Category { name: \"C\"})-[:SCO]->(b) "
+          + "CREATE (:Thing {id: 'iamb'})-[:IN_CAT]->(b) "
+          + "CREATE (ac:Thing {id: 'iamac'})-[:IN_CAT]->(a) CREATE (ac)-[:IN_CAT]->(c)");
+      StatementResult results = session.run(
+          "MATCH (bcat:Category { name: \"B\"}) CALL semantics.inference.nodesInCategory(bcat) "
+              + "YIELD node RETURN collect(node.id) as nodes");
+      List<Object> nodes = results.next().get("nodes").asList();
+      assertEquals(2, nodes.size());
+      assertEquals(new HashSet<>(Arrays.asList("iamb", "iamac")), new HashSet<>(nodes));
+
+      results = session.run(
+          "MATCH (bcat:Category { name: \"B\"}) "
+              + "CALL semantics.inference.nodesInCategory(bcat, { limit: 1 }) "
+              + "YIELD node RETURN count(node) as ct");
+      assertEquals(1L, results.next().get("ct").asLong());
+    }
+  }
+
   @Test
   public void testGetRelsNoOnto() throws Exception {
     try (Driver driver = GraphDatabase.driver(neo4j.boltURI(),
@@ -214,6 +271,80 @@ public class MicroReasonersTest {
     }
   }
 
+  @Test
+  public void testGetRelsForNodes() throws Exception {
+    try (Driver driver = GraphDatabase.driver(neo4j.boltURI(),
+        Config.build().withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+
+      Session session = driver.session();
+
+      session.run(
+          "CREATE (b:B {id:'iamb'})-[:REL1 { prop: 123 }]->(a:A {id: 'iama' }) CREATE (b)-[:REL2 { prop: 456 }]->(a) "
+              + "CREATE (c:B {id:'iamc'})-[:REL1 { prop: 789 }]->(a) CREATE (:B {id:'iamd'})");
+      session.run(
+          "CREATE (n:Relationship { name: 'REL1'})-[:SRO]->(:Relationship { name: 'GENERIC'})");
+      String cypherString = "MATCH (b:B) WITH collect(b) AS bs CALL semantics.inference.getRelsForNodes(bs,'GENERIC',{ relDir: '>'}) YIELD source, rel, node RETURN source.id + ' ' + type(rel) + ' ' + node.id AS step";
+      assertEquals(new HashSet<>(Arrays.asList("iamb REL1 iama", "iamc REL1 iama")),
+          new HashSet<>(session.run(cypherString).list(r -> r.get("step").asString())));
+
+      // the cached hierarchy follows changes
+      session.run("MATCH (g:Relationship { name: 'GENERIC'}) "
+          + "CREATE (:Relationship { name: 'REL2'})-[:SRO]->(g)");
+      assertEquals(new HashSet<>(Arrays.asList("iamb REL1 iama", "iamb REL2 iama",
+          "iamc REL1 iama")),
+          new HashSet<>(session.run(cypherString).list(r -> r.get("step").asString())));
+    }
+  }
+
+  @Test
+  public void testExpand() throws Exception {
+    try (Driver driver = GraphDatabase.driver(neo4j.boltURI(),
+        Config.build().withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+
+      Session session = driver.session();
+
+      session.run("CREATE (a:Part {id:'a'})-[:PART_OF]->(b:Part {id:'b'})-[:COMPONENT_OF]->(c:Part {id:'c'}) "
+          + "CREATE (c)-[:PART_OF]->(d:Part {id:'d'})-[:PART_OF]->(a) CREATE (c)-[:NEXT_TO]->(:Part {id:'e'})");
+      session.run(
+          "CREATE (n:Relationship { name: 'COMPONENT_OF'})-[:SRO]->(:Relationship { name: 'PART_OF'})");
+      String cypherString = "MATCH (a:Part {id:'a'}) CALL semantics.inference.expand([a],'PART_OF',$params) YIELD node, depth, path RETURN node.id AS id, depth, length(path) AS length";
+      Map<String, Object> params = new HashMap<>();
+      params.put("relDir", ">");
+      Map<String, Object> wrapper = new HashMap<>();
+      wrapper.put("params", params);
+      Map<String, Long> depths = new HashMap<>();
+      session.run(cypherString, wrapper).forEachRemaining(
+          r -> depths.put(r.get("id").asString(), r.get("depth").asLong()));
+      Map<String, Long> expected = new HashMap<>();
+      expected.put("b", 1L);
+      expected.put("c", 2L);
+      expected.put("d", 3L);
+      assertEquals(expected, depths);
+
+      params.put("maxDepth", 2L);
+      params.put("returnPaths", true);
+      List<Record> records = session.run(cypherString, wrapper).list();
+      assertEquals(2, records.size());
+      for (Record record : records) {
+        assertEquals(record.get("depth").asLong(), record.get("length").asLong());
+      }
+
+      // with path uniqueness the cycle leads back to the start node
+      params.put("maxDepth", 4L);
+      params.put("uniqueness", "RELATIONSHIP_PATH");
+      assertEquals("a", session.run(cypherString + " ORDER BY depth DESC", wrapper).list()
+          .get(0).get("id").asString());
+
+      params.put("uniqueness", "NO_SUCH_THING");
+      try {
+        session.run(cypherString, wrapper).list();
+        fail("Unknown uniqueness accepted");
+      } catch (ClientException e) {
+        assertTrue(e.getMessage().contains("Unknown uniqueness: NO_SUCH_THING"));
+      }
+    }
+  }
+
   @Test
   public void testHasLabelNoOnto() throws Exception {
     try (Driver driver = GraphDatabase.driver(neo4j.boltURI(),
@@ -285,6 +416,51 @@ public class MicroReasonersTest {
     }
   }
 
+  @Test
+  public void testHasLabelAfterHierarchyChange() throws Exception {
+    try (Driver driver = GraphDatabase.driver(neo4j.boltURI(),
+        Config.build().withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+
+      Session session = driver.session();
+
+      session.run("CREATE (:A {id:'iamA1'}) CREATE (:B {id: 'iamB1' }) CREATE (:C {id: 'iamC1' })");
+      session.run("CREATE (b:Label { name: \"B\"}) CREATE (a:Label { name: \"A\"})-[:SLO]->(b) ");
+      String query = "MATCH (n) WHERE semantics.inference.hasLabel(n,'B') RETURN count(n) as ct";
+      assertEquals(2L, session.run(query).next().get("ct").asLong());
+
+      // the cached hierarchy is refreshed when a subcategory is added
+      session.run("MATCH (b:Label { name: \"B\"}) CREATE (:Label { name: \"C\"})-[:SLO]->(b) ");
+      assertEquals(3L, session.run(query).next().get("ct").asLong());
+
+      // or renamed
+      session.run("MATCH (c:Label { name: \"C\"}) SET c.name = 'D'");
+      assertEquals(2L, session.run(query).next().get("ct").asLong());
+
+      session.run("MATCH (:Label { name: \"A\"})-[r:SLO]->() DELETE r");
+      assertEquals(1L, session.run(query).next().get("ct").asLong());
+    }
+  }
+
+  @Test
+  public void testHasLabelAfterRollback() throws Exception {
+    try (Driver driver = GraphDatabase.driver(neo4j.boltURI(),
+        Config.build().withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+
+      Session session = driver.session();
+
+      session.run("CREATE (:A {id:'iamA1'}) CREATE (:B {id: 'iamB1' }) CREATE (:Label { name: \"B\"})");
+      String query = "MATCH (n) WHERE semantics.inference.hasLabel(n,'B') RETURN count(n) as ct";
+
+      // the hierarchy read in a transaction that changes it is not kept once it rolls back
+      try (Transaction tx = session.beginTransaction()) {
+        tx.run("MATCH (b:Label { name: \"B\"}) CREATE (:Label { name: \"A\"})-[:SLO]->(b)");
+        assertEquals(2L, tx.run(query).next().get("ct").asLong());
+        tx.failure();
+      }
+      assertEquals(1L, session.run(query).next().get("ct").asLong());
+    }
+  }
+
   @Test
   public void testInCategory() throws Exception {
     try (Driver driver = GraphDatabase.driver(neo4j.boltURI(),
@@ -356,6 +532,315 @@ public class MicroReasonersTest {
     }
   }
 
+  @Test
+  public void testInCategoryWithIndex() throws Exception {
+    try (Driver driver = GraphDatabase.driver(neo4j.boltURI(),
+        Config.build().withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+
+      Session session = driver.session();
+
+      // D has two parents, A and C
+      session.run("CREATE (b:Category { name: \"B\"}) "
+          + "CREATE (a:Category { name: \"A\"})-[:SCO]->(b) "
+          + "CREATE (c:Category { name: \"C\"})-[:SCO]->(b) "
+          + "CREATE (d:Category { name: \"D\"})-[:SCO]->(a) CREATE (d)-[:SCO]->(c) "
+          + "CREATE (e:Category { name: \"E\"}) "
+          + "CREATE (:Thing {id:'iamd'})-[:IN_CAT]->(d) CREATE (:Thing {id:'iame'})-[:IN_CAT]->(e)");
+      Record stats = session.run("CALL semantics.inference.indexCategories()").next();
+      assertEquals(4L, stats.get("categories").asLong());
+      assertEquals(4L, stats.get("links").asLong());
+
+      String cypherString = "MATCH (x:Thing {id:$thingId}),(y:Category) WHERE semantics.inference.inCategory(x,y) RETURN collect(y.name) as cats";
+      Map<String, Object> params = new HashMap<>();
+      params.put("thingId", "iamd");
+      assertEquals(new HashSet<>(Arrays.asList("A", "B", "C", "D")),
+          new HashSet<>(session.run(cypherString, params).next().get("cats").asList()));
+
+      // new links are added to the index
+      session.run("MATCH (e:Category { name: \"E\"}),(d:Category { name: \"D\"}) "
+          + "CREATE (e)-[:SCO]->(d)");
+      params.put("thingId", "iame");
+      assertEquals(new HashSet<>(Arrays.asList("A", "B", "C", "D", "E")),
+          new HashSet<>(session.run(cypherString, params).next().get("cats").asList()));
+
+      // deleted ones are removed from it
+      session.run("MATCH (:Category { name: \"D\"})-[r:SCO]->(:Category { name: \"A\"}) DELETE r");
+      assertEquals(new HashSet<>(Arrays.asList("B", "C", "D", "E")),
+          new HashSet<>(session.run(cypherString, params).next().get("cats").asList()));
+      assertEquals(false, session.run("MATCH (x:Thing {id: 'iame' }),(y:Category { name: \"A\"}) "
+          + "RETURN semantics.inference.inCategory(x, y, { searchTopDown: true }) as islinked")
+          .next().get("islinked").asBoolean());
+
+      // also in a cycle: E -> D -> C -> B -> E
+      session.run("MATCH (b:Category { name: \"B\"}),(e:Category { name: \"E\"}) "
+          + "CREATE (b)-[:SCO]->(e)");
+      params.put("thingId", "iamd");
+      assertEquals(new HashSet<>(Arrays.asList("B", "C", "D", "E")),
+          new HashSet<>(session.run(cypherString, params).next().get("cats").asList()));
+      session.run("MATCH (:Category { name: \"D\"})-[r:SCO]->(:Category { name: \"C\"}) DELETE r");
+      assertEquals(Arrays.asList("D"),
+          session.run(cypherString, params).next().get("cats").asList());
+      params.put("thingId", "iame");
+      assertEquals(new HashSet<>(Arrays.asList("D", "E")),
+          new HashSet<>(session.run(cypherString, params).next().get("cats").asList()));
+    }
+  }
+
+  @Test
+  public void testFilterByLabelAndCategory() throws Exception {
+    try (Driver driver = GraphDatabase.driver(neo4j.boltURI(),
+        Config.build().withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+
+      Session session = driver.session();
+
+      session.run("CREATE (:Label { name: \"Actor\"})-[:SLO]->(:Label { name: \"Person\"}) "
+          + "CREATE (b:Category { name: \"B\"}) "
+          + "CREATE (a:Category { name: \"A\"})-[:SCO]->(b) "
+          + "CREATE (:Thing:Actor { id: 1 })-[:IN_CAT]->(a) "
+          + "CREATE (:Thing:Person { id: 2 }) "
+          + "CREATE (:Thing { id: 3 })-[:IN_CAT]->(b) "
+          + "CREATE (:Thing:Director { id: 4 })-[:IN_CAT]->(:Category { name: \"C\"})");
+      List<Long> expected = Arrays.asList(1L, 2L);
+      assertEquals(expected, session.run("MATCH (t:Thing) WITH t ORDER BY t.id "
+          + "WITH collect(t) AS things CALL semantics.inference.filterByLabel(things, 'Person') "
+          + "YIELD node RETURN node.id AS id").list(r -> r.get("id").asLong()));
+      assertEquals(expected, new ArrayList<>(new TreeSet<>(session.run(
+          "CALL semantics.inference.filterByLabel(null, 'Person', { scanLabel: 'Thing', parallel: true, chunkSize: 2 }) "
+              + "YIELD node RETURN node.id AS id").list(r -> r.get("id").asLong()))));
+
+      expected = Arrays.asList(1L, 3L);
+      assertEquals(expected, session.run("MATCH (t:Thing) WITH t ORDER BY t.id "
+          + "WITH collect(t) AS things MATCH (b:Category { name: \"B\"}) "
+          + "CALL semantics.inference.filterInCategory(things, b, { parallel: true, chunkSize: 1 }) "
+          + "YIELD node RETURN node.id AS id").list(r -> r.get("id").asLong()));
+      assertEquals(Arrays.asList(1L), session.run("MATCH (a:Category { name: \"A\"}) "
+          + "CALL semantics.inference.filterInCategory(null, a, { scanLabel: 'Thing' }) "
+          + "YIELD node RETURN node.id AS id").list(r -> r.get("id").asLong()));
+
+      // uncommitted candidates are not seen by the parallel filters, with either filter
+      try (Transaction tx = session.beginTransaction()) {
+        tx.run("MATCH (b:Category { name: \"B\"}) CREATE (:Thing:Actor { id: 5 })-[:IN_CAT]->(b)");
+        assertEquals(Arrays.asList(1L, 2L), tx.run("MATCH (t:Thing) WITH t ORDER BY t.id "
+            + "WITH collect(t) AS things CALL semantics.inference.filterByLabel(things, 'Person', "
+            + "{ parallel: true }) YIELD node RETURN node.id AS id")
+            .list(r -> r.get("id").asLong()));
+        assertEquals(Arrays.asList(1L, 3L), tx.run("MATCH (t:Thing) WITH t ORDER BY t.id "
+            + "WITH collect(t) AS things MATCH (b:Category { name: \"B\"}) "
+            + "CALL semantics.inference.filterInCategory(things, b, { parallel: true }) "
+            + "YIELD node RETURN node.id AS id").list(r -> r.get("id").asLong()));
+        tx.failure();
+      }
+    }
+  }
+
+  @Test
+  public void testMaterialise() throws Exception {
+    try (Driver driver = GraphDatabase.driver(neo4j.boltURI(),
+        Config.build().withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+
+      Session session = driver.session();
+
+      session.run("CREATE (:Label { name: \"Actor\"})-[:SLO]->(:Label { name: \"Person\"}) "
+          + "CREATE (b:Category { name: \"B\"}) "
+          + "CREATE (a:Category { name: \"A\"})-[:SCO]->(b) "
+          + "CREATE (:Relationship { name: \"ACTED_IN\"})-[:SRO]->(:Relationship { name: \"WORKED_IN\"}) "
+          + "CREATE (x:Actor { name: \"Keanu\"})-[:IN_CAT]->(a) "
+          + "CREATE (x)-[:ACTED_IN]->(:Movie { title: \"The Matrix\"})");
+      Record stats = session.run("CALL semantics.inference.materialise()").next();
+      assertEquals(1L, stats.get("labelsAdded").asLong());
+      assertEquals(2L, stats.get("relationshipsCreated").asLong());
+      assertEquals(1L, session.run("MATCH (:Person { name: \"Keanu\"})-[r:WORKED_IN]->(:Movie) "
+          + "WHERE r._inferred RETURN count(r) AS c").next().get("c").asLong());
+      assertEquals(1L, session.run("MATCH (:Person { name: \"Keanu\"})-[r:IN_CAT]->"
+          + "(:Category { name: \"B\"}) WHERE r._inferred RETURN count(r) AS c")
+          .next().get("c").asLong());
+
+      // instance changes are materialised in the same transaction
+      session.run("CREATE (:Actor { name: \"Carrie\"})");
+      assertEquals(new HashSet<>(Arrays.asList("Keanu", "Carrie")), new HashSet<>(
+          session.run("MATCH (p:Person) RETURN collect(p.name) AS names").next().get("names")
+              .asList()));
+      session.run("MATCH (x:Actor { name: \"Keanu\"})-[r:ACTED_IN]->() DELETE r");
+      assertEquals(0L, session.run("MATCH ()-[r:WORKED_IN]->() RETURN count(r) AS c").next()
+          .get("c").asLong());
+
+      // memberships and relationships created together from the same node
+      session.run("MATCH (x:Actor { name: \"Keanu\"}), (a:Category { name: \"A\"}), "
+          + "(m:Movie) CREATE (x)-[:ACTED_IN]->(m) CREATE (c:Actor { name: \"Laurence\"}) "
+          + "MERGE (c)-[:IN_CAT]->(a) CREATE (c)-[:ACTED_IN]->(m)");
+      assertEquals(2L, session.run("MATCH (:Person)-[r:WORKED_IN]->() WHERE r._inferred "
+          + "RETURN count(r) AS c").next().get("c").asLong());
+      assertEquals(2L, session.run("MATCH ()-[r:IN_CAT]->(:Category { name: \"B\"}) "
+          + "WHERE r._inferred RETURN count(r) AS c").next().get("c").asLong());
+
+      // an inferred label is made explicit by taking it out of _inferredLabels
+      session.run("MATCH (x:Actor { name: \"Keanu\"}) SET x:Person");
+      session.run("MATCH (x:Actor { name: \"Laurence\"}) SET x._inferredLabels = []");
+
+      // hierarchy changes are materialised after the commit
+      session.run("MATCH (:Category { name: \"A\"})-[r:SCO]->() DELETE r");
+      assertEventually(session, "MATCH ()-[r:IN_CAT]->(:Category { name: \"B\"}) "
+          + "RETURN count(r) AS c", 0L);
+      session.run("MATCH (:Label { name: \"Actor\"})-[r:SLO]->() DELETE r");
+      assertEventually(session, "MATCH (p:Person) RETURN count(p) AS c", 1L);
+      assertEquals("Laurence", session.run("MATCH (p:Person) RETURN p.name AS name").next()
+          .get("name").asString());
+      assertEquals(0L, session.run("MATCH (p) WHERE exists(p._inferredLabels) "
+          + "RETURN count(p) AS c").next().get("c").asLong());
+      session.run("MATCH (:Relationship { name: \"ACTED_IN\"})-[r:SRO]->() DELETE r");
+      assertEventually(session, "MATCH ()-[r:WORKED_IN]->() RETURN count(r) AS c", 0L);
+    }
+  }
+
+  @Test
+  public void testMaterialiseInBatches() throws Exception {
+    try (Driver driver = GraphDatabase.driver(neo4j.boltURI(),
+        Config.build().withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+
+      Session session = driver.session();
+
+      session.run("CREATE (:Label { name: \"Actor\"})-[:SLO]->(:Label { name: \"Person\"}) "
+          + "WITH 1 AS x UNWIND range(1, 25) AS i CREATE (:Actor { id: i })");
+      session.run("MATCH (a:Actor) WHERE a.id % 5 = 0 DELETE a");
+      Record stats = session.run("CALL semantics.inference.materialise({ commitSize: 4 })")
+          .next();
+      assertEquals(20L, stats.get("labelsAdded").asLong());
+      assertEquals(20L, session.run("MATCH (p:Person) RETURN count(p) AS c").next().get("c")
+          .asLong());
+    }
+  }
+
+  private static void assertEventually(Session session, String query, long expected)
+      throws InterruptedException {
+    long actual = -1;
+    for (int i = 0; i < 100 && actual != expected; i++) {
+      if (i > 0) {
+        Thread.sleep(100);
+      }
+      actual = session.run(query).next().get("c").asLong();
+    }
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  public void testApplyRules() throws Exception {
+    try (Driver driver = GraphDatabase.driver(neo4j.boltURI(),
+        Config.build().withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+
+      Session session = driver.session();
+
+      // schema as loaded by importOntology and by importRDF, data as loaded by importRDF
+      session.run("CREATE (:NamespacePrefixDefinition { `http://ex.org/`: 'ex', "
+          + "`http://www.w3.org/2002/07/owl#`: 'owl'}) "
+          + "CREATE (person:Resource { uri: 'http://ex.org/Person'}) "
+          + "CREATE (agent:Resource { uri: 'http://ex.org/Agent'}) "
+          + "CREATE (org:Resource { uri: 'http://ex.org/Organisation'}) "
+          + "CREATE (person)-[:SCO]->(agent) "
+          + "CREATE (worksFor:Resource { uri: 'http://ex.org/worksFor'}) "
+          + "CREATE (memberOf:Resource { uri: 'http://ex.org/memberOf'}) "
+          + "CREATE (hasMember:Resource { uri: 'http://ex.org/hasMember'}) "
+          + "CREATE (:Resource:owl__TransitiveProperty { uri: 'http://ex.org/partOf'}) "
+          + "CREATE (worksFor)-[:SPO]->(memberOf) "
+          + "CREATE (memberOf)-[:owl__inverseOf]->(hasMember) "
+          + "CREATE (worksFor)-[:DOMAIN]->(person) "
+          + "CREATE (worksFor)-[:RANGE]->(org) "
+          + "CREATE (alice:Resource { uri: 'http://ex.org/alice'}) "
+          + "CREATE (a:Resource { uri: 'http://ex.org/a'}) "
+          + "CREATE (b:Resource { uri: 'http://ex.org/b'}) "
+          + "CREATE (c:Resource { uri: 'http://ex.org/c'}) "
+          + "CREATE (alice)-[:ex__worksFor]->(a)-[:ex__partOf]->(b)-[:ex__partOf]->(c) "
+          + "CREATE (alice2:Resource { uri: 'http://ex.org/alice2'})-[:owl__sameAs]->(alice) "
+          + "CREATE (alice3:Resource { uri: 'http://ex.org/alice3'})-[:owl__sameAs]->(alice2)");
+      Map<String, Long> inferred = new HashMap<>();
+      session.run("CALL semantics.inference.applyRules()").forEachRemaining(
+          r -> inferred.put(r.get("rule").asString(), r.get("triplesInferred").asLong()));
+      assertEquals(1L, inferred.get("rdfs2").longValue());
+      assertEquals(1L, inferred.get("rdfs3").longValue());
+      assertEquals(1L, inferred.get("rdfs7").longValue());
+      assertEquals(1L, inferred.get("rdfs9").longValue());
+      assertEquals(1L, inferred.get("prp-inv").longValue());
+      assertEquals(1L, inferred.get("prp-trp").longValue());
+      // the sameAs closure of the three nodes, first found by either rule
+      assertEquals(4L, inferred.get("eq-sym") + inferred.get("eq-trans"));
+
+      assertEquals(new HashSet<>(Arrays.asList("Resource", "ex__Person", "ex__Agent")),
+          new HashSet<>(session.run("MATCH (x { uri: 'http://ex.org/alice'}) "
+              + "RETURN labels(x) AS labels").next().get("labels").asList()));
+      assertEquals(1L, session.run("MATCH ({ uri: 'http://ex.org/a'})-[:ex__hasMember]->"
+          + "({ uri: 'http://ex.org/alice'}) RETURN count(*) AS c").next().get("c").asLong());
+      assertEquals(1L, session.run("MATCH ({ uri: 'http://ex.org/a'})-[:ex__partOf]->"
+          + "({ uri: 'http://ex.org/c'}) RETURN count(*) AS c").next().get("c").asLong());
+      assertEquals(1L, session.run("MATCH ({ uri: 'http://ex.org/alice3'})-[:owl__sameAs]->"
+          + "({ uri: 'http://ex.org/alice'}) RETURN count(*) AS c").next().get("c").asLong());
+
+      // nothing left to infer
+      session.run("CALL semantics.inference.applyRules()").forEachRemaining(
+          r -> assertEquals(0L, r.get("triplesInferred").asLong()));
+    }
+  }
+
+  @Test
+  public void testClusterSameAs() throws Exception {
+    try (Driver driver = GraphDatabase.driver(neo4j.boltURI(),
+        Config.build().withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+
+      Session session = driver.session();
+
+      session.run("CREATE (:NamespacePrefixDefinition { `http://www.w3.org/2002/07/owl#`: 'owl'}) "
+          + "CREATE (a:Resource { uri: 'http://ex.org/a'}) "
+          + "CREATE (b:Resource { uri: 'http://ex.org/b'}) "
+          + "CREATE (c:Resource:Person { uri: 'http://ex.org/c', name: 'Alice'}) "
+          + "CREATE (d:Resource { uri: 'http://ex.org/d'}) "
+          + "CREATE (e:Resource { uri: 'http://ex.org/e'}) "
+          + "CREATE (a)-[:owl__sameAs]->(b)<-[:owl__sameAs]-(c) CREATE (e)-[:owl__sameAs]->(d)");
+      Record stats = session.run("CALL semantics.inference.clusterSameAs({ merge: true })").next();
+      assertEquals(2L, stats.get("clusters").asLong());
+      assertEquals(5L, stats.get("clusteredNodes").asLong());
+      assertEquals(3L, stats.get("linksCreated").asLong());
+
+      String cypherString = "RETURN semantics.inference.canonical($uri).uri AS uri";
+      Map<String, Object> params = new HashMap<>();
+      params.put("uri", "http://ex.org/c");
+      assertEquals("http://ex.org/a", session.run(cypherString, params).next().get("uri").asString());
+      params.put("uri", "http://ex.org/e");
+      assertEquals("http://ex.org/d", session.run(cypherString, params).next().get("uri").asString());
+      params.put("uri", "http://ex.org/d");
+      assertEquals("http://ex.org/d", session.run(cypherString, params).next().get("uri").asString());
+      assertEquals("Alice", session.run("MATCH (a:Person { uri: 'http://ex.org/a'}) RETURN a.name AS name")
+          .next().get("name").asString());
+
+      // links that no longer hold are deleted on the next run
+      session.run("MATCH (:Resource { uri: 'http://ex.org/c'})-[r:owl__sameAs]->() DELETE r");
+      stats = session.run("CALL semantics.inference.clusterSameAs()").next();
+      assertEquals(4L, stats.get("clusteredNodes").asLong());
+      assertEquals(0L, stats.get("linksCreated").asLong());
+      assertEquals(1L, stats.get("linksDeleted").asLong());
+      params.put("uri", "http://ex.org/c");
+      assertEquals("http://ex.org/c", session.run(cypherString, params).next().get("uri").asString());
+    }
+  }
+
+
+  @Test
+  public void testClusterSameAsImportSettings() throws Exception {
+    try (Driver driver = GraphDatabase.driver(neo4j.boltURI(),
+        Config.build().withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+
+      Session session = driver.session();
+
+      // imported with handleVocabUris: 'IGNORE' and applyNeo4jNaming: true
+      session.run("CREATE (:Resource { uri: 'http://ex.org/a'})-[:SAMEAS]->"
+          + "(:Resource { uri: 'http://ex.org/b'})");
+      // the local name is not looked up with the default settings
+      Record stats = session.run("CALL semantics.inference.clusterSameAs()").next();
+      assertEquals(0L, stats.get("clusteredNodes").asLong());
+      stats = session.run("CALL semantics.inference.clusterSameAs({ handleVocabUris: 'IGNORE', "
+          + "applyNeo4jNaming: true })").next();
+      assertEquals(2L, stats.get("clusteredNodes").asLong());
+      assertEquals(1L, stats.get("linksCreated").asLong());
+    }
+  }
+
   //TODO: test modifying the ontology
 
   //TODO: test relationship with directions
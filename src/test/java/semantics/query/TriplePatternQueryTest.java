@@ -0,0 +1,51 @@
+package semantics.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
+import org.junit.Test;
+
+public class TriplePatternQueryTest {
+
+  @Test
+  public void testLiteralsAndNumbers() {
+    TriplePatternQuery query = TriplePatternQuery.parse(
+        "SELECT * { ?s <http://ex/p> \"x\"^^xsd:token ; <http://ex/q> 1.5e+3 ; "
+            + "<http://ex/r> 2e }", null);
+    assertEquals(3, query.getPatterns().size());
+    Literal typed = (Literal) query.getPatterns().get(0).object.value;
+    assertEquals(XMLSchema.TOKEN, typed.getDatatype());
+    Literal number = (Literal) query.getPatterns().get(1).object.value;
+    assertEquals(XMLSchema.DOUBLE, number.getDatatype());
+    assertEquals("1.5e+3", number.getLabel());
+  }
+
+  @Test
+  public void testUnexpectedEnd() {
+    assertInvalid("SELECT * { ?s <http://ex/p> \"x\"^^", "Unexpected end of query");
+    assertInvalid("SELECT * { ?s <http://ex/p> 1e", "Expected '}'");
+    assertInvalid("SELECT * { ?s <http://ex/p> 1.5E", "Expected '}'");
+    assertInvalid("SELECT * { ?s <http://ex/p> ", "Unexpected end of query");
+    assertInvalid("SELECT * { ?s <http://ex/p> \"x", "Unterminated literal");
+    assertInvalid("SELECT * { ?s <http://ex/p", "Unterminated IRI");
+  }
+
+  @Test
+  public void testInvalidQueries() {
+    assertInvalid("SELECT * { ?s ?p ?o }", "Variables in predicate position are not supported");
+    assertInvalid("SELECT * { ?s <http://ex/p> undefined:o }", "Prefix undefined is not defined");
+    assertInvalid("SELECT * { ?s \"p\" ?o }", "Predicates must be IRIs");
+  }
+
+  private static void assertInvalid(String query, String message) {
+    try {
+      TriplePatternQuery.parse(query, null);
+      fail("Expected an error parsing " + query);
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+    }
+  }
+}